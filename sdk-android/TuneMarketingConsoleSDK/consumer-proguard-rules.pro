@@ -0,0 +1,16 @@
+# Rules applied to apps that include the TUNE SDK and minify their code
+
+# TuneHttp2UrlRequester calls OkHttp 3 through reflection when the app includes it,
+# so the classes and methods it looks up by name must keep their names
+-keep class okhttp3.OkHttpClient { public *; }
+-keep class okhttp3.OkHttpClient$Builder { public *; }
+-keep class okhttp3.Request { public *; }
+-keep class okhttp3.Request$Builder { public *; }
+-keep class okhttp3.RequestBody { public *; }
+-keep class okhttp3.MediaType { public *; }
+-keep class okhttp3.Call { public *; }
+-keep class okhttp3.Response { public *; }
+-keep class okhttp3.ResponseBody { public *; }
+-keep class okhttp3.Headers { public *; }
+-keep class okhttp3.ConnectionPool { public *; }
+-keep enum okhttp3.Protocol { *; }
@@ -0,0 +1,111 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.http.AsyncUrlRequester;
+import com.tune.http.TuneUrlRequester;
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class AsyncRequesterTests {
+    private static final int REQUEST_COUNT = 12;
+    private static final int RESPONSE_DELAY = 200;
+
+    private MockTuneServer server;
+    private TuneUrlRequester requester;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(200, "{\"success\":true}").delay(RESPONSE_DELAY);
+            }
+        });
+        requester = new TuneUrlRequester();
+    }
+
+    @After
+    public void tearDown() {
+        requester.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testCallbackReceivesResponse() throws Exception {
+        final List<JSONObject> responses = Collections.synchronizedList(new ArrayList<JSONObject>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        Future<JSONObject> future = requester.requestUrlAsync(server.getUrl("/serve?action=session"), null, false, new AsyncUrlRequester.Callback() {
+            @Override
+            public void onResponse(JSONObject response) {
+                responses.add(response);
+                threads.add(Thread.currentThread());
+            }
+        });
+
+        JSONObject response = future.get(TuneTestConstants.SERVERTEST_SLEEP, TimeUnit.MILLISECONDS);
+        assertTrue(response.getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+        assertEquals(1, responses.size());
+        assertEquals(response, responses.get(0));
+        assertNotSame("callback should run on a requester thread", Thread.currentThread(), threads.get(0));
+    }
+
+    @Test
+    public void testRequestsShareFewThreads() throws Exception {
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch done = new CountDownLatch(REQUEST_COUNT);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            requester.requestUrlAsync(server.getUrl("/serve?i=" + i), null, false, new AsyncUrlRequester.Callback() {
+                @Override
+                public void onResponse(JSONObject response) {
+                    threads.add(Thread.currentThread().getName() + Thread.currentThread().getId());
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue("requests should not block the caller", System.currentTimeMillis() - start < RESPONSE_DELAY);
+
+        assertTrue(done.await(TuneTestConstants.SERVERTEST_SLEEP, TimeUnit.MILLISECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(REQUEST_COUNT, server.getRequestCount());
+        assertTrue("requests should overlap, took " + elapsed + "ms", elapsed < REQUEST_COUNT * RESPONSE_DELAY / 2);
+        assertTrue("should use at most " + TuneConstants.REQUEST_THREADS + " threads, used " + threads.size(),
+                threads.size() <= TuneConstants.REQUEST_THREADS);
+    }
+
+    @Test
+    public void testFailedRequestReportedForRetry() throws Exception {
+        server.setHandler(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(503, "");
+            }
+        });
+
+        JSONObject response = requester.requestUrlAsync(server.getUrl("/serve"), null, false, null).get(TuneTestConstants.SERVERTEST_SLEEP, TimeUnit.MILLISECONDS);
+
+        assertEquals("empty response marks the request for retry", 0, response.length());
+    }
+}
@@ -0,0 +1,200 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.http.TuneUrlRequester;
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BatchUploadTests extends TuneUnitTest {
+    // Responses to return by request index, items not listed succeed
+    private final Map<Integer, JSONObject> itemResponses = new HashMap<>();
+    // Request indexes to leave out of the batch response
+    private final Set<Integer> omittedResponses = new HashSet<>();
+    // Whether to return the responses in reverse order
+    private boolean reverseResponses;
+    private MockTuneServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                try {
+                    JSONArray requests = new JSONObject(request.bodyAsString()).getJSONArray(TuneUrlRequester.BATCH_REQUESTS);
+                    List<JSONObject> responses = new ArrayList<>();
+                    for (int i = 0; i < requests.length(); i++) {
+                        int index = requests.getJSONObject(i).optInt("index", i);
+                        if (omittedResponses.contains(index)) {
+                            continue;
+                        }
+                        JSONObject response = itemResponses.get(index);
+                        if (response == null) {
+                            response = new JSONObject().put(TuneConstants.SERVER_RESPONSE_SUCCESS, true);
+                        }
+                        responses.add(new JSONObject(response.toString()).put("index", index));
+                    }
+                    if (reverseResponses) {
+                        Collections.reverse(responses);
+                    }
+                    JSONObject body = new JSONObject().put(TuneUrlRequester.BATCH_RESPONSES, new JSONArray(responses));
+                    return new MockTuneServer.Response(200, body.toString());
+                } catch (Exception e) {
+                    return new MockTuneServer.Response(500, "");
+                }
+            }
+        });
+
+        tune.setUrlRequester(new TuneUrlRequester());
+        tune.setBatchUploadEnabled(true);
+        tune.setBatchEndpoint(server.getUrl(TuneConstants.BATCH_PATH));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        super.tearDown();
+    }
+
+    @Test
+    public void testRequestBatchIsGzipped() throws Exception {
+        JSONArray requests = new JSONArray();
+        requests.put(new JSONObject().put("link", "https://example.com/serve?action=session"));
+        requests.put(new JSONObject().put("link", "https://example.com/serve?action=conversion"));
+
+        JSONArray responses = new TuneUrlRequester().requestBatch(server.getUrl(TuneConstants.BATCH_PATH), requests, false);
+
+        assertNotNull(responses);
+        assertEquals(2, responses.length());
+        assertEquals(1, server.getRequestCount());
+
+        MockTuneServer.Request request = server.getRequests().get(0);
+        assertEquals("POST", request.method);
+        assertEquals(TuneConstants.BATCH_PATH, request.path);
+        assertEquals("gzip", request.header("Content-Encoding"));
+        assertEquals(2, new JSONObject(request.bodyAsString()).getJSONArray(TuneUrlRequester.BATCH_REQUESTS).length());
+    }
+
+    @Test
+    public void testRequestBatchServerErrorRetriesBatch() throws Exception {
+        server.setHandler(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(500, "");
+            }
+        });
+
+        JSONArray requests = new JSONArray();
+        requests.put(new JSONObject().put("link", "https://example.com/serve?action=session"));
+
+        assertNull(new TuneUrlRequester().requestBatch(server.getUrl(TuneConstants.BATCH_PATH), requests, false));
+    }
+
+    @Test
+    public void testQueuedEventsSentInOneRequest() throws Exception {
+        tune.setOnline(false);
+        tune.measureEvent("event1");
+        tune.measureEvent("event2");
+        tune.measureEvent("event3");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(3, queue.getQueueSize());
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.SERVERTEST_SLEEP);
+
+        assertEquals("should have dequeued all requests", 0, queue.getQueueSize());
+        assertEquals("should have sent one batch request", 1, server.getRequestCount());
+        String body = server.getRequests().get(0).bodyAsString();
+        assertEquals(3, new JSONObject(body).getJSONArray(TuneUrlRequester.BATCH_REQUESTS).length());
+    }
+
+    @Test
+    public void testRejectedItemRemovedFromQueue() throws Exception {
+        itemResponses.put(1, new JSONObject().put("status", TuneConstants.BATCH_ITEM_REJECTED));
+
+        tune.setOnline(false);
+        tune.measureEvent("event1");
+        tune.measureEvent("event2");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(2, queue.getQueueSize());
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.SERVERTEST_SLEEP);
+
+        assertEquals("rejected request should not be retried", 0, queue.getQueueSize());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testFailedItemKeptForRetry() throws Exception {
+        itemResponses.put(1, new JSONObject());
+
+        List<JSONObject> events = new ArrayList<>();
+        events.add(buildEvent("session"));
+        events.add(buildEvent("conversion"));
+        events.add(buildEvent("conversion"));
+
+        boolean[] removeFromQueue = tune.makeBatchRequest(events);
+
+        assertEquals(3, removeFromQueue.length);
+        assertTrue(removeFromQueue[0]);
+        assertFalse("empty item response should be retried", removeFromQueue[1]);
+        assertTrue(removeFromQueue[2]);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testResponsesMatchedByIndex() throws Exception {
+        itemResponses.put(0, new JSONObject());
+        omittedResponses.add(1);
+        reverseResponses = true;
+
+        List<JSONObject> events = new ArrayList<>();
+        events.add(buildEvent("session"));
+        events.add(buildEvent("conversion"));
+        events.add(buildEvent("conversion"));
+
+        boolean[] removeFromQueue = tune.makeBatchRequest(events);
+
+        assertFalse("empty item response should be retried", removeFromQueue[0]);
+        assertFalse("item without a response should be retried", removeFromQueue[1]);
+        assertTrue(removeFromQueue[2]);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private JSONObject buildEvent(String action) throws JSONException {
+        JSONObject event = new JSONObject();
+        event.put("link", "https://" + TuneTestConstants.advertiserId + ".engine.mobileapptracking.com/serve?action=" + action);
+        event.put("data", "");
+        event.put("post_body", new JSONObject());
+        event.put("first_session", false);
+        event.put("retry_attempt", 0);
+        return event;
+    }
+}
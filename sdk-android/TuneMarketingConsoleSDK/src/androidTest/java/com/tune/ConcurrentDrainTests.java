@@ -0,0 +1,158 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.http.TuneUrlRequester;
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentDrainTests extends TuneUnitTest {
+    private static final int EVENT_COUNT = 8;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long requestDelay = 250;
+    private MockTuneServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                int current = inFlight.incrementAndGet();
+                while (true) {
+                    int max = maxInFlight.get();
+                    if (current <= max || maxInFlight.compareAndSet(max, current)) {
+                        break;
+                    }
+                }
+
+                sleep((int) requestDelay);
+                inFlight.decrementAndGet();
+
+                if (request.path.contains(TuneUrlKeys.EVENT_NAME + "=poison")) {
+                    return new MockTuneServer.Response(500, "");
+                }
+                return new MockTuneServer.Response(200, "{\"" + TuneConstants.SERVER_RESPONSE_SUCCESS + "\":true}");
+            }
+        });
+
+        // Send the engine postbacks to the local server instead
+        tune.setUrlRequester(new TuneUrlRequester() {
+            @Override
+            public JSONObject requestUrl(String url, JSONObject json, boolean debugMode) {
+                return super.requestUrl(server.getUrl("/serve?" + url.substring(url.indexOf('?') + 1)), json, debugMode);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testWindowKeepsRequestsInFlight() {
+        tune.setQueueDrainWindow(4);
+        queueEvents(EVENT_COUNT);
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        waitForEmptyQueue(TuneTestConstants.SERVERTEST_SLEEP);
+
+        assertEquals("should have dequeued all requests", 0, queue.getQueueSize());
+        assertEquals(EVENT_COUNT, server.getRequestCount());
+        assertTrue("requests should overlap, max in flight was " + maxInFlight.get(), maxInFlight.get() > 1);
+        assertTrue("window should bound requests in flight, max was " + maxInFlight.get(), maxInFlight.get() <= 4);
+    }
+
+    @Test
+    public void testThroughputScalesWithWindow() {
+        long serialTime = timeDrain(1);
+        long windowedTime = timeDrain(4);
+
+        assertTrue("windowed drain took " + windowedTime + "ms, serial drain took " + serialTime + "ms",
+                windowedTime * 2 < serialTime);
+    }
+
+    @Test
+    public void testAddNotBlockedDuringDrain() {
+        requestDelay = 2000;
+        tune.setQueueDrainWindow(2);
+        queueEvents(2);
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        // Both queued requests are still in flight here
+        tune.measureEvent("during_drain");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals("event should be queued while the drain is in flight", 3, queue.getQueueSize());
+
+        waitForEmptyQueue(3 * TuneTestConstants.SERVERTEST_SLEEP);
+        assertEquals("should have dequeued all requests", 0, queue.getQueueSize());
+    }
+
+    @Test
+    public void testFailedEventKeepsRetryAttempt() throws Exception {
+        tune.setQueueDrainWindow(4);
+        tune.setOnline(false);
+        tune.measureEvent("event1");
+        tune.measureEvent("poison");
+        tune.measureEvent("event3");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(3, queue.getQueueSize());
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.SERVERTEST_SLEEP);
+
+        assertEquals("only the failed request should remain", 1, queue.getQueueSize());
+        JSONObject item = queue.getQueueItem(1);
+        assertTrue(item.getString("link"), item.getString("link").contains(TuneUrlKeys.EVENT_NAME + "=poison"));
+        assertEquals(1, item.getInt("retry_attempt"));
+    }
+
+    private void queueEvents(int count) {
+        tune.setOnline(false);
+        for (int i = 0; i < count; i++) {
+            tune.measureEvent("event" + i);
+        }
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(count, queue.getQueueSize());
+    }
+
+    private long timeDrain(int window) {
+        tune.setQueueDrainWindow(window);
+        queueEvents(EVENT_COUNT);
+
+        long start = System.currentTimeMillis();
+        tune.setOnline(true);
+        tune.dumpQueue();
+        waitForEmptyQueue(EVENT_COUNT * requestDelay * 4);
+        assertEquals("should have dequeued all requests", 0, queue.getQueueSize());
+        return System.currentTimeMillis() - start;
+    }
+
+    private void waitForEmptyQueue(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (queue.getQueueSize() > 0 && System.currentTimeMillis() < deadline) {
+            sleep(50);
+        }
+    }
+}
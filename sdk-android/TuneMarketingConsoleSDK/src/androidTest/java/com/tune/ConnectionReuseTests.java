@@ -0,0 +1,88 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.http.TuneUrlRequester;
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ConnectionReuseTests {
+    private MockTuneServer server;
+    private TuneUrlRequester requester;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(200, "{\"success\":true}");
+            }
+        });
+        requester = new TuneUrlRequester();
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void testSequentialRequestsReuseConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            JSONObject response = requester.requestUrl(server.getUrl("/serve?action=conversion&i=" + i), null, false);
+            assertTrue(response.getBoolean("success"));
+        }
+
+        assertEquals(5, server.getRequestCount());
+        assertEquals(5, requester.getRequestCount());
+        assertEquals("requests should share one connection", 1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testPostBodySentOnReusedConnection() throws Exception {
+        JSONObject body = new JSONObject().put("data", new JSONObject().put("item", "sword"));
+        requester.requestUrl(server.getUrl("/serve"), body, false);
+        requester.requestUrl(server.getUrl("/serve"), body, false);
+
+        assertEquals(1, server.getConnectionCount());
+        MockTuneServer.Request request = server.getRequests().get(1);
+        assertEquals("POST", request.method);
+        assertEquals("application/json", request.header("Content-Type"));
+        assertEquals(body.toString(), request.bodyAsString());
+    }
+
+    @Test
+    public void testErrorResponseKeepsConnectionReusable() throws Exception {
+        server.setHandler(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(400, "{\"errors\":[\"bad request\"]}").header("X-MAT-Responder", "mock");
+            }
+        });
+
+        assertNull("400 from our server should not be retried", requester.requestUrl(server.getUrl("/serve"), null, false));
+        assertNull(requester.requestUrl(server.getUrl("/serve"), null, false));
+
+        assertEquals("error stream should be drained so the connection is reused", 1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testPrewarmFailureIsIgnored() throws Exception {
+        String url = server.getUrl("/");
+        server.shutdown();
+
+        requester.prewarm(url);
+
+        assertEquals(0, requester.getRequestCount());
+    }
+}
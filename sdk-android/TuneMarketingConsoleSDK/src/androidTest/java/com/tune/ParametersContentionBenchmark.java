@@ -0,0 +1,145 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNull;
+
+/**
+ * Measures reads of {@link TuneParameters} from several threads while another thread keeps setting parameters,
+ * with every access taking the parameters monitor the way getters and setters did before, and without.
+ * Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParametersContentionBenchmark {
+    private static final String logTag = "TUNE Benchmark";
+    private static final int READERS = 4;
+    private static final int WARMUP = 2000;
+    private static final int ROUNDS = 20000;
+
+    @Test
+    public void benchmarkContendedReads() throws Exception {
+        run("synchronized", true);
+        run("lock-free", false);
+    }
+
+    private void run(String name, final boolean locked) throws Exception {
+        final TuneParameters params = new TuneParameters();
+        write(params, 0, locked);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(READERS);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < WARMUP; i++) {
+                            read(params, locked);
+                        }
+                        start.await();
+                        for (int i = 0; i < ROUNDS; i++) {
+                            read(params, locked);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        // Sets parameters the whole time the readers run, like the UI thread and advertising id lookup do
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; done.getCount() > 0; i++) {
+                    write(params, i, locked);
+                }
+            }
+        });
+        writer.start();
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        writer.join();
+
+        assertNull("reader failed", failure.get());
+        long perRead = nanos / ((long) ROUNDS * READERS);
+        Log.i(logTag, String.format(Locale.US, "%-24s %6d ns per read, %d readers and 1 writer", name, perRead, READERS));
+    }
+
+    /**
+     * Reads the parameters a request reads, each on its own the way the url builder calls getters.
+     */
+    private static int read(TuneParameters params, boolean locked) {
+        int length = 0;
+        length += length(get(params, locked, 0));
+        length += length(get(params, locked, 1));
+        length += length(get(params, locked, 2));
+        length += length(get(params, locked, 3));
+        length += length(get(params, locked, 4));
+        length += length(get(params, locked, 5));
+        return length;
+    }
+
+    private static String get(TuneParameters params, boolean locked, int which) {
+        if (locked) {
+            synchronized (params) {
+                return get(params, which);
+            }
+        }
+        return get(params, which);
+    }
+
+    private static String get(TuneParameters params, int which) {
+        switch (which) {
+            case 0:
+                return params.getConnectionType();
+            case 1:
+                return params.getDeviceModel();
+            case 2:
+                return params.getAppName();
+            case 3:
+                return params.getPurchaseStatus();
+            case 4:
+                return params.getAppAdTrackingEnabled() ? TuneConstants.PREF_SET : TuneConstants.PREF_UNSET;
+            default:
+                return params.getPlatformAdTrackingLimited() ? TuneConstants.PREF_SET : TuneConstants.PREF_UNSET;
+        }
+    }
+
+    private static void write(TuneParameters params, int i, boolean locked) {
+        if (locked) {
+            synchronized (params) {
+                write(params, i);
+            }
+        } else {
+            write(params, i);
+        }
+    }
+
+    private static void write(TuneParameters params, int i) {
+        params.setConnectionType((i & 1) == 0 ? "wifi" : "mobile");
+        params.setDeviceModel("model" + (i & 7));
+        params.setPurchaseStatus(Integer.toString(i & 3));
+        params.setAppAdTrackingEnabled((i & 1) == 0 ? TuneConstants.PREF_SET : TuneConstants.PREF_UNSET);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
@@ -294,6 +294,48 @@ public class ParametersTests extends TuneUnitTest {
         assertFalse(tune.isPrivacyProtectedDueToAge());
     }
 
+    /**
+     * Test the redaction policy is swapped as privacy protection changes.
+     */
+    @Test
+    public void testCOPPA_redactionPolicy() {
+        TuneParameters tuneParams = tune.getTuneParams();
+        TuneRedactionPolicy before = tuneParams.getRedactionPolicy();
+        assertFalse(before.isRedacted(TuneUrlKeys.DEVICE_MODEL));
+
+        tune.setAge(TuneConstants.COPPA_MINIMUM_AGE - 1);
+        TuneRedactionPolicy protectedPolicy = tuneParams.getRedactionPolicy();
+        assertTrue(protectedPolicy.isRedacted(TuneUrlKeys.DEVICE_MODEL));
+        assertTrue(protectedPolicy.getVersion() > before.getVersion());
+
+        tune.setAge(21);
+        assertFalse(tuneParams.getRedactionPolicy().isRedacted(TuneUrlKeys.DEVICE_MODEL));
+    }
+
+    /**
+     * Test the device snapshot is reused until a device parameter or the redaction policy changes.
+     */
+    @Test
+    public void testDeviceSnapshot() {
+        TuneParameters tuneParams = tune.getTuneParams();
+        TuneDeviceSnapshot snapshot = tuneParams.getDeviceSnapshot();
+        assertTrue(snapshot == tuneParams.getDeviceSnapshot());
+
+        // Parameters outside the snapshot leave it as it is
+        tuneParams.setOpenLogId("openLogId");
+        assertTrue(snapshot == tuneParams.getDeviceSnapshot());
+
+        tuneParams.setDeviceModel("snapshotModel");
+        TuneDeviceSnapshot updated = tuneParams.getDeviceSnapshot();
+        assertFalse(snapshot == updated);
+        assertTrue(updated.getQueryFragment().contains("&" + TuneUrlKeys.DEVICE_MODEL + "=snapshotModel"));
+
+        tune.setAge(TuneConstants.COPPA_MINIMUM_AGE - 1);
+        TuneDeviceSnapshot redacted = tuneParams.getDeviceSnapshot();
+        assertFalse(updated == redacted);
+        assertFalse(redacted.getQueryFragment().contains("&" + TuneUrlKeys.DEVICE_MODEL + "="));
+    }
+
     /**
      * Test age and COPPA interactions without specifically setting Age.
      */
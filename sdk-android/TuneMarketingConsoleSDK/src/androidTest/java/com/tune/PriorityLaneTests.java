@@ -0,0 +1,112 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.http.UrlRequester;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PriorityLaneTests extends TuneUnitTest {
+    // Event names or actions of the requests sent, in order
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        tune.setUrlRequester(new UrlRequester() {
+            @Override
+            public void requestDeeplink(String deeplinkURL, String conversionKey, TuneDeeplinkListener listener) {
+            }
+
+            @Override
+            public JSONObject requestUrl(String url, JSONObject json, boolean debugMode) {
+                sent.add(describe(url));
+                JSONObject response = new JSONObject();
+                try {
+                    response.put(TuneConstants.SERVER_RESPONSE_SUCCESS, true);
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+                return response;
+            }
+        });
+    }
+
+    @Test
+    public void testEventPriority() {
+        assertEquals(TuneEventQueue.PRIORITY_HIGH, TuneEventQueue.getPriority(new TuneEvent(TuneEvent.PURCHASE), false));
+        assertEquals(TuneEventQueue.PRIORITY_HIGH, TuneEventQueue.getPriority(new TuneEvent(TuneEvent.NAME_INSTALL), false));
+        assertEquals(TuneEventQueue.PRIORITY_HIGH, TuneEventQueue.getPriority(new TuneEvent("level").withRevenue(0.99), false));
+        assertEquals(TuneEventQueue.PRIORITY_HIGH, TuneEventQueue.getPriority(new TuneEvent(TuneEvent.NAME_SESSION), true));
+        assertEquals(TuneEventQueue.PRIORITY_NORMAL, TuneEventQueue.getPriority(new TuneEvent(TuneEvent.REGISTRATION), false));
+        assertEquals(TuneEventQueue.PRIORITY_LOW, TuneEventQueue.getPriority(new TuneEvent(TuneEvent.NAME_SESSION), false));
+    }
+
+    @Test
+    public void testPurchaseDrainsBeforeSessions() {
+        tune.setOnline(false);
+        tune.measureEvent(TuneEvent.REGISTRATION);
+        tune.measureEvent(TuneEvent.NAME_SESSION);
+        tune.measureEvent(TuneEvent.NAME_SESSION);
+        tune.measureEvent(TuneEvent.PURCHASE);
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(4, queue.getQueueSize());
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals(0, queue.getQueueSize());
+        List<String> expected = new ArrayList<>();
+        expected.add(TuneEvent.PURCHASE);
+        expected.add(TuneEvent.REGISTRATION);
+        expected.add(TuneParameters.ACTION_SESSION);
+        expected.add(TuneParameters.ACTION_SESSION);
+        assertEquals(expected, new ArrayList<>(sent));
+    }
+
+    @Test
+    public void testLowLaneNotStarved() {
+        tune.setOnline(false);
+        tune.measureEvent(TuneEvent.REGISTRATION);
+        tune.measureEvent(TuneEvent.NAME_SESSION);
+        for (int i = 0; i < 3 * TuneConstants.QUEUE_LANE_BURST; i++) {
+            tune.measureEvent(TuneEvent.PURCHASE);
+        }
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals(0, queue.getQueueSize());
+        int registration = sent.indexOf(TuneEvent.REGISTRATION);
+        int session = sent.indexOf(TuneParameters.ACTION_SESSION);
+        assertEquals("normal lane should get a turn after a burst of purchases", TuneConstants.QUEUE_LANE_BURST, registration);
+        assertTrue("low lane should not wait for every purchase, was sent " + session, session <= 2 * TuneConstants.QUEUE_LANE_BURST + 1);
+    }
+
+    private static String describe(String url) {
+        String eventName = "&" + TuneUrlKeys.EVENT_NAME + "=";
+        int start = url.indexOf(eventName);
+        if (start < 0) {
+            return TuneParameters.ACTION_SESSION;
+        }
+        start += eventName.length();
+        int end = url.indexOf('&', start);
+        return end < 0 ? url.substring(start) : url.substring(start, end);
+    }
+}
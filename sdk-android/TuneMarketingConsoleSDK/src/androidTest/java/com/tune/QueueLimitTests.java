@@ -0,0 +1,167 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.mocks.MockUrlRequester;
+import com.tune.queue.BinaryQueueRecordCodec;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class QueueLimitTests extends TuneUnitTest implements ITuneEvictionListener {
+    // Number of evicted events reported to the listener, by reason
+    private final Map<String, Integer> evictions = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        tune.setUrlRequester(new MockUrlRequester());
+        tune.setListener(this);
+    }
+
+    @Test
+    public void testDropOldestKeepsNewestEvents() throws Exception {
+        tune.setQueueLimits(3, TuneConstants.QUEUE_MAX_BYTES, TuneConstants.QUEUE_MAX_AGE);
+        tune.setOnline(false);
+        for (int i = 1; i <= 5; i++) {
+            tune.measureEvent("event" + i);
+        }
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals(3, queue.getQueueSize());
+        assertLinkContains(1, "event3");
+        assertLinkContains(3, "event5");
+        assertEquals(2, getEvictions(TuneEventQueue.EVICTED_OVERFLOW));
+        assertEquals(2, queue.getEvictedEventCount());
+    }
+
+    @Test
+    public void testDropNewestKeepsQueuedEvents() throws Exception {
+        tune.setQueueLimits(3, TuneConstants.QUEUE_MAX_BYTES, TuneConstants.QUEUE_MAX_AGE);
+        tune.setQueueOverflowPolicy(TuneEventQueue.OverflowPolicy.DROP_NEWEST);
+        tune.setOnline(false);
+        for (int i = 1; i <= 5; i++) {
+            tune.measureEvent("event" + i);
+        }
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals(3, queue.getQueueSize());
+        assertLinkContains(1, "event1");
+        assertLinkContains(3, "event3");
+        assertEquals(2, getEvictions(TuneEventQueue.EVICTED_OVERFLOW));
+    }
+
+    @Test
+    public void testCollapseSessionsBeforeDroppingEvents() throws Exception {
+        tune.setQueueLimits(3, TuneConstants.QUEUE_MAX_BYTES, TuneConstants.QUEUE_MAX_AGE);
+        tune.setQueueOverflowPolicy(TuneEventQueue.OverflowPolicy.COLLAPSE_SESSIONS);
+        tune.setOnline(false);
+        tune.measureEvent("purchase");
+        tune.measureEvent("session");
+        tune.measureEvent("session");
+        tune.measureEvent("session");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals("only the newest session should be kept", 2, queue.getQueueSize());
+        assertLinkContains(1, TuneUrlKeys.EVENT_NAME + "=purchase");
+        assertLinkContains(2, TuneUrlKeys.ACTION + "=" + TuneParameters.ACTION_SESSION);
+        assertEquals(2, getEvictions(TuneEventQueue.EVICTED_DUPLICATE_SESSION));
+        assertEquals(0, getEvictions(TuneEventQueue.EVICTED_OVERFLOW));
+    }
+
+    @Test
+    public void testByteLimitEvictsOldestEvents() throws Exception {
+        tune.setOnline(false);
+        tune.measureEvent("event1");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(1, queue.getQueueSize());
+
+        // Room for about two events
+        tune.setQueueLimits(TuneConstants.QUEUE_MAX_EVENTS, 2 * estimateEventBytes() + 100, TuneConstants.QUEUE_MAX_AGE);
+        tune.measureEvent("event2");
+        tune.measureEvent("event3");
+        tune.measureEvent("event4");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals(2, queue.getQueueSize());
+        assertLinkContains(2, "event4");
+        assertEquals(2, getEvictions(TuneEventQueue.EVICTED_OVERFLOW));
+    }
+
+    @Test
+    public void testExpiredEventDroppedInsteadOfSent() throws Exception {
+        JSONObject event = new JSONObject();
+        event.put("link", "https://" + TuneTestConstants.advertiserId + ".engine.mobileapptracking.com/serve?action=conversion");
+        event.put("data", "");
+        event.put("post_body", new JSONObject());
+        event.put("first_session", false);
+        event.put("retry_attempt", 3);
+        event.put("first_enqueue_time", System.currentTimeMillis() - TuneConstants.QUEUE_MAX_AGE - 1000);
+        queue.addQueueItem(event);
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals(0, queue.getQueueSize());
+        assertEquals(1, getEvictions(TuneEventQueue.EVICTED_EXPIRED));
+    }
+
+    @Test
+    public void testDrainSendsWholeQueue() {
+        tune.setOnline(false);
+        for (int i = 0; i < TuneConstants.QUEUE_MAX_EVENTS; i++) {
+            tune.measureEvent("event" + i);
+        }
+        sleep(TuneTestConstants.SERVERTEST_SLEEP);
+        assertEquals(TuneConstants.QUEUE_MAX_EVENTS, queue.getQueueSize());
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.SERVERTEST_SLEEP);
+
+        assertEquals("should have dequeued all requests", 0, queue.getQueueSize());
+        assertEquals(0, queue.getEvictedEventCount());
+    }
+
+    private long estimateEventBytes() throws Exception {
+        return new BinaryQueueRecordCodec().encode(queue.getQueueItem(1)).length;
+    }
+
+    private void assertLinkContains(int index, String expected) throws Exception {
+        String link = queue.getQueueItem(index).getString("link");
+        assertTrue(link, link.contains(expected));
+    }
+
+    private synchronized int getEvictions(String reason) {
+        Integer count = evictions.get(reason);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public void enqueuedRequest(String url, JSONObject postData) {
+    }
+
+    @Override
+    public void didSucceedWithData(String url, JSONObject data) {
+    }
+
+    @Override
+    public void didFailWithError(String url, JSONObject error) {
+    }
+
+    @Override
+    public synchronized void didEvictEvents(int count, String reason) {
+        evictions.put(reason, getEvictions(reason) + count);
+    }
+}
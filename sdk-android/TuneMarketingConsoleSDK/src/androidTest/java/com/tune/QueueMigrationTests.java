@@ -0,0 +1,75 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.utils.TuneSharedPrefsDelegate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class QueueMigrationTests {
+    private File directory;
+    private TuneSharedPrefsDelegate legacyQueue;
+
+    @Before
+    public void setUp() {
+        directory = new File(getContext().getFilesDir(), TuneConstants.QUEUE_DIRECTORY);
+        delete(directory);
+        legacyQueue = new TuneSharedPrefsDelegate(getContext(), TuneConstants.PREFS_QUEUE);
+        legacyQueue.clearSharedPreferences();
+
+        // Queue as written by earlier SDK versions
+        legacyQueue.putInt("queuesize", 2);
+        legacyQueue.putString("1", "{\"link\":\"https://some.url/1\"}");
+        legacyQueue.putString("2", "{\"link\":\"https://some.url/2\"}");
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+        legacyQueue.clearSharedPreferences();
+    }
+
+    @Test
+    public void testLegacyQueueMigrated() {
+        TuneEventQueue queue = new TuneEventQueue(getContext(), null);
+        assertEquals(2, queue.getQueueSize());
+        assertTrue(legacyQueue.getAll().isEmpty());
+    }
+
+    @Test
+    public void testLegacyQueueKeptWhenLogNotPersistent() throws IOException {
+        // A file where the log directory should be stops the log from opening
+        assertTrue(directory.createNewFile());
+
+        TuneEventQueue queue = new TuneEventQueue(getContext(), null);
+        assertEquals(0, queue.getQueueSize());
+        assertEquals("legacy events should stay queued in SharedPreferences", 3, legacyQueue.getAll().size());
+
+        // Migrated once the log can be opened
+        delete(directory);
+        queue = new TuneEventQueue(getContext(), null);
+        assertEquals(2, queue.getQueueSize());
+        assertTrue(legacyQueue.getAll().isEmpty());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
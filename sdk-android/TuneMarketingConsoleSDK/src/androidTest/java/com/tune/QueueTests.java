@@ -202,14 +202,39 @@ public class QueueTests extends TuneUnitTest implements ITuneListener {
             JSONObject item = queue.getQueueItem( 1 );
             String link = item.getString("link");
             assertTrue( "item in queue should be our request, but found " + link, link.contains( "statusCode%5Bcode%5D=500" ) );
-            assertFalse( "retry index should have been incremented", link.contains( "&sdk_retry_attempt=0&" ) );
-            assertTrue( "retry index should have been incremented", link.contains( "&sdk_retry_attempt=1&" ) );
+            assertFalse( "retry index should be kept out of the queued link", link.contains( "sdk_retry_attempt=" ) );
+            assertEquals( "retry index should have been incremented", 1, item.getInt( "retry_attempt" ) );
+            assertTrue( "failure should have been recorded", item.has( "last_error" ) );
+            assertTrue( "first enqueue time should have been kept", item.getLong( "first_enqueue_time" ) > 0 );
         } catch (JSONException e) {
             e.printStackTrace();
             assertTrue( "failed parsing queue item", false );
         }
     }
 
+    @Test
+    public void testRecordKeysStableAfterPartialDrain() throws JSONException {
+        String first = queue.addQueueItem(new JSONObject().put("link", "first"));
+        String second = queue.addQueueItem(new JSONObject().put("link", "second"));
+        String third = queue.addQueueItem(new JSONObject().put("link", "third"));
+
+        // Deliver the middle one, as a partial drain would
+        queue.removeKeyFromQueue(second);
+        String fourth = queue.addQueueItem(new JSONObject().put("link", "fourth"));
+
+        assertEquals( 3, queue.getQueueSize() );
+        assertFalse( "new item should not reuse a key", fourth.equals(second) || fourth.equals(third) );
+        assertEquals( "first", queue.getQueueItem(first).getString("link") );
+        assertEquals( "third", queue.getQueueItem(third).getString("link") );
+        assertEquals( "fourth", queue.getQueueItem(fourth).getString("link") );
+        assertEquals( "new item should be last in the queue", "fourth", queue.getQueueItem(3).getString("link") );
+
+        // Keys keep counting up after the queue is emptied
+        queue.clearQueue();
+        String fifth = queue.addQueueItem(new JSONObject().put("link", "fifth"));
+        assertTrue( Long.parseLong(fifth) > Long.parseLong(fourth) );
+    }
+
     @Test
     public void testInvokeIdLookupBypassesQueue() {
         final Object waitObject = new Object();
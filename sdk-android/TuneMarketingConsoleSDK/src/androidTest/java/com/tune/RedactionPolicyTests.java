@@ -0,0 +1,57 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RedactionPolicyTests {
+    @Test
+    public void testDefaultRedactsAlwaysRedactedKeys() {
+        TuneRedactionPolicy policy = TuneRedactionPolicy.DEFAULT;
+
+        assertEquals(TuneUrlKeys.getAlwaysRedactedUrlKeys(), policy.getRedactedKeys());
+        for (String key : TuneUrlKeys.getAlwaysRedactedUrlKeys()) {
+            assertTrue(key, policy.isRedacted(key));
+        }
+        assertFalse(policy.isRedacted(TuneUrlKeys.DEVICE_MODEL));
+        assertFalse(policy.isRedacted(TuneUrlKeys.ACTION));
+        assertFalse("unknown keys are not redacted", policy.isRedacted("not_a_key"));
+    }
+
+    @Test
+    public void testPrivacyProtectedRedactsPrivacyKeys() {
+        TuneRedactionPolicy policy = TuneRedactionPolicy.DEFAULT.withPrivacyProtected(true);
+
+        Set<String> expected = TuneUrlKeys.getPrivacyRedactedUrlKeys();
+        expected.addAll(TuneUrlKeys.getAlwaysRedactedUrlKeys());
+        assertEquals(expected, policy.getRedactedKeys());
+        assertTrue(policy.isRedacted(TuneUrlKeys.DEVICE_MODEL));
+        assertTrue(policy.isRedacted(TuneUrlKeys.AGE));
+        assertFalse(policy.isRedacted(TuneUrlKeys.ACTION));
+    }
+
+    @Test
+    public void testReplacedOnlyWhenStateChanges() {
+        TuneRedactionPolicy policy = TuneRedactionPolicy.DEFAULT;
+        assertSame(policy, policy.withPrivacyProtected(false));
+
+        TuneRedactionPolicy protectedPolicy = policy.withPrivacyProtected(true);
+        assertNotSame(policy, protectedPolicy);
+        assertTrue(protectedPolicy.isPrivacyProtected());
+        assertEquals(policy.getVersion() + 1, protectedPolicy.getVersion());
+
+        TuneRedactionPolicy unprotected = protectedPolicy.withPrivacyProtected(false);
+        assertFalse(unprotected.isPrivacyProtected());
+        assertEquals(protectedPolicy.getVersion() + 1, unprotected.getVersion());
+    }
+}
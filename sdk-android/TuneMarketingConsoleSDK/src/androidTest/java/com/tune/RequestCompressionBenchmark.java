@@ -0,0 +1,113 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tune.http.TuneUrlRequester;
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the bytes sent per postback by the uncompressed wire format, with hex encrypted data in the url,
+ * and the compressed one, with base64 encrypted data in a gzipped body. Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestCompressionBenchmark extends TuneUnitTest {
+    private static final String logTag = "TUNE Benchmark";
+
+    private MockTuneServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(200, "{\"success\":true}");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+        super.tearDown();
+    }
+
+    @Test
+    public void benchmarkWireFormats() throws Exception {
+        List<TuneEvent> events = new ArrayList<>();
+        events.add(new TuneEvent(TuneEvent.NAME_SESSION));
+        events.add(new TuneEvent(TuneEvent.REGISTRATION));
+        List<TuneEventItem> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            items.add(new TuneEventItem("item" + i).withQuantity(i + 1).withUnitPrice(0.99).withAttribute1("color" + i));
+        }
+        events.add(new TuneEvent(TuneEvent.PURCHASE).withRevenue(2.97).withCurrencyCode("USD").withEventItems(items)
+                .withReceipt("{\"orderId\":\"12999763169054705758.1371079406387615\",\"packageName\":\"com.tune.test\","
+                        + "\"productId\":\"android.test.purchased\",\"purchaseTime\":1345678900000,\"purchaseState\":0}", "c2lnbmF0dXJl"));
+
+        TuneEncryption encryption = new TuneEncryption(TuneTestConstants.conversionKey, "heF9BATUfWuISyO8");
+        long totalUncompressed = 0;
+        long totalCompressed = 0;
+        for (TuneEvent event : events) {
+            TuneParameters tuneParams = tune.getTuneParams();
+            tuneParams.setAction(TuneEvent.NAME_SESSION.equals(event.getEventName()) ? TuneParameters.ACTION_SESSION : TuneParameters.ACTION_CONVERSION);
+            String link = TuneUrlBuilder.buildLink(tuneParams, event, null, false);
+            String data = TuneUrlBuilder.buildDataUnencrypted(tuneParams, event);
+            JSONArray eventItems = new JSONArray();
+            if (event.getEventItems() != null) {
+                for (TuneEventItem item : event.getEventItems()) {
+                    eventItems.put(item.toJson());
+                }
+            }
+            JSONObject postBody = TuneUrlBuilder.buildBody(eventItems, event.getReceiptData(), event.getReceiptSignature());
+            String fullLink = link + "&data=" + TuneUrlBuilder.updateAndEncryptData(tuneParams, data, encryption);
+
+            // Send to the local server, keeping the path and query of the real link
+            String url = server.getUrl(fullLink.substring(fullLink.indexOf("/serve")));
+            long uncompressed = send(url, postBody, false);
+            long compressed = send(url, postBody, true);
+            totalUncompressed += uncompressed;
+            totalCompressed += compressed;
+
+            Log.i(logTag, String.format(Locale.US, "%-12s uncompressed %5d bytes, compressed %5d bytes (%3d%%)",
+                    event.getEventName(), uncompressed, compressed, 100 * compressed / uncompressed));
+        }
+
+        Log.i(logTag, String.format(Locale.US, "%-12s uncompressed %5d bytes, compressed %5d bytes (%3d%%)",
+                "total", totalUncompressed, totalCompressed, 100 * totalCompressed / totalUncompressed));
+        assertTrue("compressed requests should be smaller", totalCompressed < totalUncompressed);
+    }
+
+    /**
+     * @return bytes of the request line, headers and body the server received
+     */
+    private long send(String url, JSONObject postBody, boolean compress) throws Exception {
+        TuneUrlRequester requester = new TuneUrlRequester();
+        requester.setCompressionEnabled(compress);
+        int before = server.getRequestCount();
+        requester.requestUrl(url, postBody, false);
+
+        MockTuneServer.Request request = server.getRequests().get(before);
+        long bytes = (request.method + " " + request.path + " HTTP/1.1\r\n").length();
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            bytes += header.getKey().length() + header.getValue().length() + 4;
+        }
+        return bytes + 2 + request.body.length;
+    }
+}
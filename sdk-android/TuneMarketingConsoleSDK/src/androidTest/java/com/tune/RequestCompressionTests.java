@@ -0,0 +1,95 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Base64;
+
+import com.tune.http.TuneUrlRequester;
+import com.tune.mocks.MockTuneServer;
+import com.tune.utils.TuneUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestCompressionTests {
+    private static final byte[] ENCRYPTED = { 0x01, 0x7f, (byte) 0x80, (byte) 0xff, 0x10, 0x00, 0x42, 0x24 };
+
+    private MockTuneServer server;
+    private TuneUrlRequester requester;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(200, "{\"success\":true}");
+            }
+        });
+        requester = new TuneUrlRequester();
+        requester.setCompressionEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void testDataMovedToGzippedBody() throws Exception {
+        JSONObject postBody = new JSONObject().put(TuneUrlKeys.EVENT_ITEMS, new JSONArray().put(new JSONObject().put("item", "sword")));
+
+        JSONObject response = requester.requestUrl(server.getUrl("/serve?action=conversion&data=" + TuneUtils.bytesToHex(ENCRYPTED) + "&sdk_retry_attempt=0"), postBody, false);
+
+        assertTrue(response.getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+        MockTuneServer.Request request = server.getRequests().get(0);
+        assertEquals("POST", request.method);
+        assertEquals("gzip", request.header("Content-Encoding"));
+        assertEquals("/serve?action=conversion&sdk_retry_attempt=0", request.path);
+
+        JSONObject body = new JSONObject(request.bodyAsString());
+        assertArrayEquals(ENCRYPTED, Base64.decode(body.getString(TuneUrlRequester.BODY_ENCRYPTED_DATA), Base64.NO_WRAP));
+        assertEquals("sword", body.getJSONArray(TuneUrlKeys.EVENT_ITEMS).getJSONObject(0).getString("item"));
+    }
+
+    @Test
+    public void testUnsupportedMediaTypeFallsBackToUncompressed() throws Exception {
+        server.setHandler(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                if ("gzip".equals(request.header("Content-Encoding"))) {
+                    return new MockTuneServer.Response(415, "");
+                }
+                return new MockTuneServer.Response(200, "{\"success\":true}");
+            }
+        });
+        String url = server.getUrl("/serve?action=session&data=" + TuneUtils.bytesToHex(ENCRYPTED));
+
+        JSONObject response = requester.requestUrl(url, null, false);
+
+        assertTrue(response.getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+        assertFalse(requester.isCompressionEnabled());
+        assertEquals(2, server.getRequestCount());
+        MockTuneServer.Request retried = server.getRequests().get(1);
+        assertEquals("GET", retried.method);
+        assertTrue(retried.path.endsWith("&data=" + TuneUtils.bytesToHex(ENCRYPTED)));
+    }
+
+    @Test
+    public void testUnencryptedDataLeftInUrl() throws Exception {
+        JSONObject body = new JSONObject();
+        String url = "https://example.com/serve?action=session&data=connection_type%3Dwifi";
+
+        assertEquals(url, TuneUrlRequester.moveDataToBody(url, body));
+        assertNull(body.optString(TuneUrlRequester.BODY_ENCRYPTED_DATA, null));
+    }
+}
@@ -0,0 +1,163 @@
+package com.tune;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.http.TuneHttpResponse;
+import com.tune.http.TuneRequestBody;
+import com.tune.http.TuneUrlRequester;
+import com.tune.http.UrlRequester;
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RetrySchedulingTests extends TuneUnitTest {
+    private volatile boolean poisonFails = true;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // Fails every request for the "poison" event until told otherwise
+        tune.setUrlRequester(new UrlRequester() {
+            @Override
+            public void requestDeeplink(String deeplinkURL, String conversionKey, TuneDeeplinkListener listener) {
+            }
+
+            @Override
+            public JSONObject requestUrl(String url, JSONObject json, boolean debugMode) {
+                JSONObject response = new JSONObject();
+                if (!poisonFails || !url.contains(TuneUrlKeys.EVENT_NAME + "=poison")) {
+                    try {
+                        response.put(TuneConstants.SERVER_RESPONSE_SUCCESS, true);
+                    } catch (JSONException e) {
+                        e.printStackTrace();
+                    }
+                }
+                return response;
+            }
+        });
+    }
+
+    @Test
+    public void testHealthyEventsFlowWhilePoisonedEventBacksOff() throws Exception {
+        tune.setOnline(false);
+        tune.measureEvent("poison");
+        tune.measureEvent("healthy");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(2, queue.getQueueSize());
+
+        long start = System.currentTimeMillis();
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+        assertEquals("only the failed request should remain", 1, queue.getQueueSize());
+        JSONObject poisoned = queue.getQueueItem(1);
+        assertTrue(poisoned.getString("link").contains(TuneUrlKeys.EVENT_NAME + "=poison"));
+        assertTrue("failed request should back off", poisoned.getLong("next_attempt") >= start + 30 * 1000);
+
+        // The drain is not asleep, so new events go straight out
+        tune.measureEvent("healthy");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals("new request should not wait behind the failed one", 1, queue.getQueueSize());
+    }
+
+    @Test
+    public void testConnectivityRetriesEventsBackingOff() {
+        tune.setOnline(true);
+        tune.measureEvent("poison");
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(1, queue.getQueueSize());
+
+        // Not due yet, so an ordinary drain leaves it alone
+        poisonFails = false;
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals(1, queue.getQueueSize());
+
+        // As when the connectivity receiver fires
+        queue.retryScheduledEvents();
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals("request should be retried once connectivity returns", 0, queue.getQueueSize());
+    }
+
+    @Test
+    public void testDrainResumesWhenRetryIsDue() throws Exception {
+        JSONObject event = new JSONObject();
+        event.put("link", "https://" + TuneTestConstants.advertiserId + ".engine.mobileapptracking.com/serve?action=conversion");
+        event.put("data", "");
+        event.put("post_body", new JSONObject());
+        event.put("first_session", false);
+        event.put("retry_attempt", 1);
+        event.put("retry_timeout", 30);
+        event.put("next_attempt", System.currentTimeMillis() + 1000);
+        queue.addQueueItem(event);
+
+        tune.setOnline(true);
+        tune.dumpQueue();
+        sleep(TuneTestConstants.PARAMTEST_SLEEP);
+        assertEquals("request should wait until it is due", 1, queue.getQueueSize());
+
+        sleep(2000);
+        assertEquals("drain should resume once the request is due", 0, queue.getQueueSize());
+    }
+
+    @Test
+    public void testDrainWaitsAsLongAsServerAsks() throws Exception {
+        final MockTuneServer server = new MockTuneServer(new MockTuneServer.Handler() {
+            private int requests;
+
+            @Override
+            public synchronized MockTuneServer.Response handle(MockTuneServer.Request request) {
+                if (requests++ == 0) {
+                    return new MockTuneServer.Response(TuneHttpResponse.HTTP_TOO_MANY_REQUESTS, "").header("Retry-After", "2");
+                }
+                return new MockTuneServer.Response(200, "{\"success\":true}");
+            }
+        });
+        try {
+            // Send the real requests to the mock server
+            tune.setUrlRequester(new TuneUrlRequester() {
+                @Override
+                protected TuneHttpResponse execute(String method, String url, Map<String, String> headers, TuneRequestBody body, int timeout) throws IOException {
+                    return super.execute(method, server.getUrl(new URL(url).getFile()), headers, body, timeout);
+                }
+            });
+
+            long start = System.currentTimeMillis();
+            tune.setOnline(true);
+            tune.measureEvent("throttled");
+            sleep(TuneTestConstants.PARAMTEST_SLEEP);
+
+            assertEquals(1, queue.getQueueSize());
+            JSONObject throttled = queue.getQueueItem(1);
+            long nextAttempt = throttled.getLong("next_attempt");
+            assertTrue("retry should follow Retry-After, not the 30s ladder step", nextAttempt >= start + 2000 && nextAttempt < start + 30 * 1000);
+            assertEquals("ladder should not move", 0, throttled.optLong("retry_timeout"));
+
+            // Nothing is sent until the server's pause is over
+            tune.measureEvent("held");
+            sleep(TuneTestConstants.PARAMTEST_SLEEP);
+            assertEquals(1, server.getRequestCount());
+
+            sleep(3000);
+            assertEquals("drain should resume once the server's pause is over", 0, queue.getQueueSize());
+            assertEquals(3, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.content.Context;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.List;
+
 public class TuneTestQueue extends TuneEventQueue {
 
     public TuneTestQueue(Context context, TuneInternal mat) {
@@ -19,9 +21,11 @@ public class TuneTestQueue extends TuneEventQueue {
         super.clearQueue();
     }
     
+    /**
+     * @param index position of the item in the queue, 1 for the oldest
+     */
     public synchronized JSONObject getQueueItem( int index ) throws JSONException {
-        String key = Integer.toString(index);
-        String eventJson = getKeyFromQueue(key);
-        return new JSONObject(eventJson);
+        List<String> keys = getQueueKeys();
+        return index <= keys.size() ? getQueueItem(keys.get(index - 1)) : null;
     }
 }
@@ -28,6 +28,7 @@ public class TuneTestWrapper extends TuneInternal {
     }
 
     private boolean retainSharedPrefs;
+    private String batchEndpoint;
 
     public static TuneTestWrapper init(final Context context, final String advertiserId, final String key, String packageName) {
         tune = new TuneTestWrapper(context);
@@ -81,8 +82,8 @@ public class TuneTestWrapper extends TuneInternal {
     }
 
     @Override
-    public void addEventToQueue(String link, String data, JSONObject postBody, boolean firstSession) {
-        super.addEventToQueue(link, data, postBody, false);
+    public void addEventToQueue(String link, String data, JSONObject postBody, boolean firstSession, int priority) {
+        super.addEventToQueue(link, data, postBody, false, priority);
     }
 
     @Override
@@ -110,6 +111,15 @@ public class TuneTestWrapper extends TuneInternal {
         tune.isFirstInstall = isFirstInstall;
     }
 
+    public void setBatchEndpoint(String batchEndpoint) {
+        this.batchEndpoint = batchEndpoint;
+    }
+
+    @Override
+    protected String getBatchEndpoint() {
+        return batchEndpoint != null ? batchEndpoint : super.getBatchEndpoint();
+    }
+
     public void retainSharedPrefs(boolean retain) {
         this.retainSharedPrefs = retain;
     }
@@ -0,0 +1,119 @@
+package com.tune;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tune.utils.TuneQueryEncoder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the allocations and time of encoding the parameters of one measured event with URLEncoder and a
+ * StringBuilder, the way links were built before, and with {@link TuneQueryEncoder}, and measures building
+ * the whole link and data of the event. Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UrlBuilderBenchmark extends TuneUnitTest {
+    private static final String logTag = "TUNE Benchmark";
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 1000;
+
+    private interface Build {
+        int build() throws Exception;
+    }
+
+    @Test
+    public void benchmarkUrlBuilding() throws Exception {
+        final TuneParameters tuneParams = tune.getTuneParams();
+        tuneParams.setAction(TuneParameters.ACTION_CONVERSION);
+        final TuneEvent event = new TuneEvent(TuneEvent.PURCHASE).withRevenue(2.97).withCurrencyCode("USD")
+                .withAttribute1("blue sword").withContentId("sku-1234").withSearchString("swords & shields");
+        final TuneEncryption encryption = new TuneEncryption(TuneTestConstants.conversionKey, "heF9BATUfWuISyO8");
+
+        // The parameters of the event's link and data, to encode again the way they were before
+        final List<String[]> parameters = new ArrayList<>();
+        for (String query : new String[] {
+                TuneUrlBuilder.buildLink(tuneParams, event, null, false), TuneUrlBuilder.buildDataUnencrypted(tuneParams, event) }) {
+            for (String pair : query.substring(query.indexOf('?') + 1).split("&")) {
+                String[] keyValue = pair.split("=", 2);
+                if (keyValue.length == 2) {
+                    parameters.add(new String[] { keyValue[0], URLDecoder.decode(keyValue[1], "UTF-8") });
+                }
+            }
+        }
+
+        long[] legacy = run("URLEncoder + StringBuilder", new Build() {
+            @Override
+            public int build() throws Exception {
+                StringBuilder link = new StringBuilder();
+                for (String[] parameter : parameters) {
+                    link.append("&").append(parameter[0]).append("=").append(URLEncoder.encode(parameter[1], "UTF-8"));
+                }
+                return link.toString().length();
+            }
+        });
+        final TuneQueryEncoder encoder = new TuneQueryEncoder();
+        long[] encoded = run("TuneQueryEncoder", new Build() {
+            @Override
+            public int build() throws Exception {
+                encoder.reset();
+                for (String[] parameter : parameters) {
+                    encoder.appendParameter(parameter[0], parameter[1]);
+                }
+                return encoder.toString().length();
+            }
+        });
+        run("measureEvent link + data", new Build() {
+            @Override
+            public int build() throws Exception {
+                String link = TuneUrlBuilder.buildLink(tuneParams, event, null, false);
+                String data = TuneUrlBuilder.buildDataUnencrypted(tuneParams, event);
+                return link.length() + TuneUrlBuilder.updateAndEncryptData(tuneParams, data, encryption).length();
+            }
+        });
+
+        // Timings vary too much between devices and runs to assert on, so they are only logged
+        Log.i(logTag, String.format(Locale.US, "TuneQueryEncoder took %.2fx the time of URLEncoder", (double) encoded[1] / Math.max(1, legacy[1])));
+        // Allocation counting is not supported by every runtime, only compare when it counted something
+        if (legacy[0] > 0) {
+            assertTrue("encoding parameters should allocate less than URLEncoder", encoded[0] < legacy[0]);
+        }
+    }
+
+    /**
+     * @return bytes allocated per event, and nanoseconds per event
+     */
+    @SuppressWarnings("deprecation")
+    private long[] run(String name, Build build) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            build.build();
+        }
+
+        int length = 0;
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            length = build.build();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = Debug.getThreadAllocSize();
+        long objects = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.i(logTag, String.format(Locale.US, "%-26s %6d bytes, %4d objects, %6d ns per %d char event",
+                name, bytes / ROUNDS, objects / ROUNDS, nanos / ROUNDS, length));
+        return new long[] { bytes / ROUNDS, nanos / ROUNDS };
+    }
+}
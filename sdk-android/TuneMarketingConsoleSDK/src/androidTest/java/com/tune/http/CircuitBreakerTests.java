@@ -0,0 +1,142 @@
+package com.tune.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.TuneConstants;
+import com.tune.mocks.MockTuneServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CircuitBreakerTests {
+    private static final long OPEN_TIME = 100;
+
+    private final List<TuneCircuitBreaker.State> changes = Collections.synchronizedList(new ArrayList<TuneCircuitBreaker.State>());
+    private final TuneCircuitBreaker.Listener listener = new TuneCircuitBreaker.Listener() {
+        @Override
+        public void onStateChanged(TuneCircuitBreaker.State state) {
+            changes.add(state);
+        }
+    };
+
+    private TuneCircuitBreaker newBreaker() {
+        TuneCircuitBreaker breaker = new TuneCircuitBreaker(10, 5, 0.5, OPEN_TIME, OPEN_TIME * 4);
+        breaker.setListener(listener);
+        return breaker;
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        TuneCircuitBreaker breaker = newBreaker();
+
+        // Too few requests to judge the server by
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertEquals(TuneCircuitBreaker.State.CLOSED, breaker.getState());
+
+        // Mostly successful requests keep it closed, 4 of the last 10 failed
+        for (int i = 0; i < 10; i++) {
+            breaker.recordSuccess();
+        }
+        for (int i = 0; i < 4; i++) {
+            breaker.recordFailure();
+        }
+        assertEquals(TuneCircuitBreaker.State.CLOSED, breaker.getState());
+
+        // Half of the last 10 failed
+        breaker.recordFailure();
+        assertEquals(TuneCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRetryDelay() > 0 && breaker.getRetryDelay() <= OPEN_TIME);
+        assertEquals(Arrays.asList(TuneCircuitBreaker.State.OPEN), changes);
+    }
+
+    @Test
+    public void testHalfOpenLetsOneProbeThrough() throws Exception {
+        TuneCircuitBreaker breaker = newBreaker();
+        open(breaker);
+
+        Thread.sleep(OPEN_TIME + 20);
+        assertEquals(0, breaker.getRetryDelay());
+        assertTrue(breaker.allowRequest());
+        assertEquals(TuneCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse("only one probe at a time", breaker.allowRequest());
+        assertTrue(breaker.getRetryDelay() > 0);
+
+        breaker.recordSuccess();
+        assertEquals(TuneCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(Arrays.asList(TuneCircuitBreaker.State.OPEN, TuneCircuitBreaker.State.HALF_OPEN, TuneCircuitBreaker.State.CLOSED), changes);
+
+        // Recent failures were forgotten, so a single failure doesn't open it again
+        breaker.recordFailure();
+        assertEquals(TuneCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailedProbeBacksOff() throws Exception {
+        TuneCircuitBreaker breaker = newBreaker();
+        open(breaker);
+
+        Thread.sleep(OPEN_TIME + 20);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(TuneCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue("open time should double, was " + breaker.getRetryDelay(), breaker.getRetryDelay() > OPEN_TIME);
+
+        breaker.reset();
+        assertEquals(TuneCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRetryDelay());
+    }
+
+    @Test
+    public void testRequesterStopsSendingToFailingServer() throws Exception {
+        final int[] status = { 503 };
+        MockTuneServer server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(status[0], "");
+            }
+        });
+        try {
+            TuneUrlRequester requester = new TuneUrlRequester();
+            requester.getCircuitBreaker().setListener(listener);
+
+            for (int i = 0; i < 20; i++) {
+                assertEquals(0, requester.requestUrl(server.getUrl("/serve"), null, false).length());
+            }
+            assertEquals("requests should stop once the breaker opens", TuneConstants.CIRCUIT_MIN_REQUESTS, server.getRequestCount());
+            assertEquals(Arrays.asList(TuneCircuitBreaker.State.OPEN), changes);
+            assertTrue(requester.getCircuitBreaker().getRetryDelay() > TuneConstants.CIRCUIT_OPEN_TIME / 2);
+
+            // Client errors are not the server failing
+            status[0] = 400;
+            requester.getCircuitBreaker().reset();
+            for (int i = 0; i < 10; i++) {
+                requester.requestUrl(server.getUrl("/serve"), null, false);
+            }
+            assertEquals(TuneCircuitBreaker.State.CLOSED, requester.getCircuitBreaker().getState());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static void open(TuneCircuitBreaker breaker) {
+        for (int i = 0; i < 5; i++) {
+            breaker.recordFailure();
+        }
+        assertEquals(TuneCircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,95 @@
+package com.tune.http;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares throughput and latency of draining postbacks over kept-alive HTTP/1.1 connections and over one
+ * multiplexed HTTP/2 connection, against a local server. Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class Http2Benchmark {
+    private static final String logTag = "TUNE Benchmark";
+    private static final int REQUESTS = 200;
+    private static final int RESPONSE_DELAY = 20;
+    // A postback url of the usual length, most of it the same on every request
+    private static final String QUERY = "/serve?action=conversion&advertiser_id=877&package_name=com.tune.test&sdk=android"
+            + "&ver=6.1.2&transaction_id=2c5a1b1e-7f65-4a08-b1d6-7a1c3c9d2b41&response_format=json&data=";
+
+    @Test
+    public void benchmarkHttp2Requests() throws Exception {
+        long[] http1 = run("HTTP/1.1 keep-alive", Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1), new TuneUrlRequester());
+        long[] http2 = run("HTTP/2", Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE), new TuneHttp2UrlRequester(true));
+
+        assertEquals("HTTP/2 should use a single connection", 1, http2[2]);
+        // Timings vary too much between devices and runs to assert on, so they are only logged
+        Log.i(logTag, String.format(Locale.US, "HTTP/2 took %.2fx the time of keep-alive HTTP/1.1", (double) http2[0] / Math.max(1, http1[0])));
+    }
+
+    /**
+     * @return total milliseconds, mean latency in microseconds, and connections opened
+     */
+    private long[] run(String name, List<Protocol> protocols, TuneUrlRequester requester) throws Exception {
+        final AtomicInteger connections = new AtomicInteger();
+        MockWebServer server = new MockWebServer();
+        server.setProtocols(protocols);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getSequenceNumber() == 0) {
+                    connections.incrementAndGet();
+                }
+                return new MockResponse().setBody("{\"success\":true}").setHeadersDelay(RESPONSE_DELAY, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+
+        try {
+            final CountDownLatch done = new CountDownLatch(REQUESTS);
+            final AtomicLong latency = new AtomicLong();
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                final long sent = System.nanoTime();
+                requester.requestUrlAsync(server.url(QUERY + Integer.toHexString(i * 7919)).toString(), null, false, new AsyncUrlRequester.Callback() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        latency.addAndGet(System.nanoTime() - sent);
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long meanMicros = TimeUnit.NANOSECONDS.toMicros(latency.get() / REQUESTS);
+
+            Log.i(logTag, String.format(Locale.US, "%-16s %5d ms for %d requests, %6.1f requests/s, mean latency %6d us, %d connections",
+                    name, totalMillis, REQUESTS, REQUESTS * 1000.0 / Math.max(1, totalMillis), meanMicros, connections.get()));
+            return new long[] { totalMillis, meanMicros, connections.get() };
+        } finally {
+            requester.shutdown();
+            server.shutdown();
+        }
+    }
+}
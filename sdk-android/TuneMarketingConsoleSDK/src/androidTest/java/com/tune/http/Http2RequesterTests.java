@@ -0,0 +1,142 @@
+package com.tune.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.TuneConstants;
+import com.tune.TuneDeeplinkListener;
+
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class Http2RequesterTests {
+    private static final int RESPONSE_DELAY = 200;
+
+    private MockWebServer server;
+    private TuneHttp2UrlRequester requester;
+    // Requests that opened a new connection
+    private final AtomicInteger connections = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getSequenceNumber() == 0) {
+                    connections.incrementAndGet();
+                }
+                if (request.getPath().startsWith("/deeplink")) {
+                    return new MockResponse().setBody("testapp://deeplink");
+                }
+                return new MockResponse().setBody("{\"success\":true}").setHeadersDelay(RESPONSE_DELAY, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+
+        requester = new TuneHttp2UrlRequester(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        requester.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testAvailable() {
+        assertTrue(TuneHttp2UrlRequester.isAvailable());
+    }
+
+    @Test
+    public void testMultiplexesConcurrentRequests() throws Exception {
+        long start = System.currentTimeMillis();
+        List<Future<JSONObject>> responses = new ArrayList<>();
+        for (int i = 0; i < TuneConstants.REQUEST_THREADS; i++) {
+            responses.add(requester.requestUrlAsync(server.url("/serve?action=conversion&i=" + i).toString(), null, false, null));
+        }
+        for (Future<JSONObject> response : responses) {
+            assertTrue(response.get(5, TimeUnit.SECONDS).getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(TuneConstants.REQUEST_THREADS, server.getRequestCount());
+        assertEquals("requests should share one connection", 1, connections.get());
+        assertTrue("requests should be in flight together, took " + elapsed + "ms", elapsed < 2 * RESPONSE_DELAY);
+    }
+
+    @Test
+    public void testPostsBody() throws Exception {
+        JSONObject body = new JSONObject().put("data", "value");
+
+        JSONObject response = requester.requestUrl(server.url("/serve?action=conversion").toString(), body, false);
+
+        assertTrue(response.getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+        RecordedRequest request = server.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
+    }
+
+    @Test
+    public void testChangingTimeoutKeepsConnection() throws Exception {
+        // Every request gets a different connect timeout
+        requester.setTimeoutEstimator(new TuneTimeoutEstimator() {
+            private int timeout = TuneConstants.TIMEOUT_INITIAL;
+
+            @Override
+            public synchronized int getTimeout(String host, String connectionType) {
+                timeout += 1000;
+                return timeout;
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(requester.requestUrl(server.url("/serve?action=conversion&i=" + i).toString(), null, false)
+                    .getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+        }
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals("requests with different timeouts should share one connection", 1, connections.get());
+    }
+
+    @Test
+    public void testDeeplinkSharesConnection() throws Exception {
+        assertTrue(requester.requestUrl(server.url("/serve?action=session").toString(), null, false).getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+
+        final List<String> deeplinks = new ArrayList<>();
+        requester.requestDeeplink(server.url("/deeplink?advertiser_id=1").toString(), "key", new TuneDeeplinkListener() {
+            @Override
+            public void didReceiveDeeplink(String deeplink) {
+                deeplinks.add(deeplink);
+            }
+
+            @Override
+            public void didFailDeeplink(String error) {
+                deeplinks.add("failed: " + error);
+            }
+        });
+
+        assertEquals(Collections.singletonList("testapp://deeplink"), deeplinks);
+        assertEquals(1, connections.get());
+    }
+}
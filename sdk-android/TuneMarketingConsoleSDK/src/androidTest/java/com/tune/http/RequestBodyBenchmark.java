@@ -0,0 +1,131 @@
+package com.tune.http;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tune.utils.TuneUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the allocations and time per purchase event of building a request body through toString() and
+ * getBytes(), against serializing it into a reused {@link TuneRequestBody}, both plain and gzipped.
+ * Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestBodyBenchmark {
+    private static final String logTag = "TUNE Benchmark";
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 1000;
+
+    private interface Build {
+        int build(JSONObject json) throws Exception;
+    }
+
+    @Test
+    public void benchmarkRequestBodies() throws Exception {
+        JSONObject json = buildPurchase();
+        // Stands in for the connection, which the body is written to either way
+        final ByteArrayOutputStream connection = new ByteArrayOutputStream(16 * 1024);
+
+        long[] copied = run("toString + getBytes", json, new Build() {
+            @Override
+            public int build(JSONObject json) throws Exception {
+                byte[] body = json.toString().getBytes("UTF-8");
+                connection.reset();
+                connection.write(body);
+                return body.length;
+            }
+        });
+        long[] reused = run("TuneRequestBody", json, new Build() {
+            @Override
+            public int build(JSONObject json) throws Exception {
+                TuneRequestBody body = TuneRequestBody.json(json);
+                connection.reset();
+                body.writeTo(connection);
+                return body.getLength();
+            }
+        });
+        long[] compressed = run("TuneUtils.compress", json, new Build() {
+            @Override
+            public int build(JSONObject json) throws Exception {
+                byte[] body = TuneUtils.compress(json.toString());
+                connection.reset();
+                connection.write(body);
+                return body.length;
+            }
+        });
+        long[] gzipped = run("TuneRequestBody gzipped", json, new Build() {
+            @Override
+            public int build(JSONObject json) throws Exception {
+                TuneRequestBody body = TuneRequestBody.gzippedJson(json, null, null);
+                connection.reset();
+                body.writeTo(connection);
+                return body.getLength();
+            }
+        });
+
+        // Allocation counting is not supported by every runtime, only compare when it counted something
+        if (copied[0] > 0) {
+            assertTrue("reused body should allocate less", reused[0] < copied[0]);
+            assertTrue("reused gzipped body should allocate less", gzipped[0] < compressed[0]);
+        }
+    }
+
+    /**
+     * @return bytes allocated per body, and nanoseconds per body
+     */
+    @SuppressWarnings("deprecation")
+    private long[] run(String name, JSONObject json, Build build) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            build.build(json);
+        }
+
+        int length = 0;
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            length = build.build(json);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = Debug.getThreadAllocSize();
+        long objects = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.i(logTag, String.format(Locale.US, "%-24s %6d bytes, %4d objects, %6d ns per %d byte body",
+                name, bytes / ROUNDS, objects / ROUNDS, nanos / ROUNDS, length));
+        return new long[] { bytes / ROUNDS, nanos / ROUNDS };
+    }
+
+    /**
+     * @return the POST body of a purchase event with event items and a store receipt of the usual size
+     */
+    private static JSONObject buildPurchase() throws Exception {
+        char[] signature = new char[344];
+        Arrays.fill(signature, 'A');
+        StringBuilder receipt = new StringBuilder("{\"orderId\":\"GPA.3371-2239-8547-12345\",\"packageName\":\"com.tune.test\",");
+        receipt.append("\"productId\":\"com.tune.test.sword\",\"purchaseTime\":1520512496000,\"purchaseState\":0,\"purchaseToken\":\"");
+        for (int i = 0; i < 8; i++) {
+            receipt.append("kcnlmghbfimdmmjfnhgjlpfn.AO-J1Oy");
+        }
+        receipt.append("\"}");
+
+        JSONObject item = new JSONObject().put("item", "sword").put("quantity", 1).put("unit_price", 1.99).put("revenue", 1.99);
+        return new JSONObject()
+                .put("data", new JSONArray().put(item).put(new JSONObject(item.toString()).put("item", "shield")))
+                .put("store_iap_data", receipt.toString())
+                .put("store_iap_signature", new String(signature));
+    }
+}
@@ -0,0 +1,74 @@
+package com.tune.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.utils.TuneUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestBodyTests {
+    @Test
+    public void testJsonMatchesToString() throws Exception {
+        JSONObject json = new JSONObject()
+                .put("data", new JSONObject().put("item", "sword").put("quantity", 2).put("unit_price", 1.99).put("gift", false))
+                .put("list", new JSONArray().put(1).put(JSONObject.NULL).put("two").put(new JSONArray()))
+                .put("escaped", "quote \" backslash \\ tab \t newline \n control \u0001")
+                .put("unicode", "café € 😀");
+
+        TuneRequestBody body = TuneRequestBody.json(json);
+
+        assertTrue(Arrays.equals(json.toString().getBytes("UTF-8"), body.toByteArray()));
+    }
+
+    @Test
+    public void testJsonRoundTrips() throws Exception {
+        JSONObject json = new JSONObject().put("receipt", "https://example.com/a/b?c=d").put("empty", new JSONObject());
+
+        JSONObject sent = new JSONObject(new String(TuneRequestBody.json(json).toByteArray(), "UTF-8"));
+
+        assertEquals("https://example.com/a/b?c=d", sent.getString("receipt"));
+        assertEquals(0, sent.getJSONObject("empty").length());
+    }
+
+    @Test
+    public void testGzippedJsonWithExtraMember() throws Exception {
+        JSONObject json = new JSONObject().put("data", new JSONObject().put("item", "sword")).put("encrypted_data", "stale");
+
+        TuneRequestBody body = TuneRequestBody.gzippedJson(json, "encrypted_data", "q83vEjRWeJA=");
+
+        JSONObject sent = new JSONObject(TuneUtils.decompress(body.toByteArray()));
+        assertEquals("q83vEjRWeJA=", sent.getString("encrypted_data"));
+        assertEquals("sword", sent.getJSONObject("data").getString("item"));
+        assertEquals(2, sent.length());
+        assertEquals("stale", json.getString("encrypted_data"));
+
+        // Without an extra value the object is sent as it is
+        sent = new JSONObject(TuneUtils.decompress(TuneRequestBody.gzippedJson(json, "encrypted_data", null).toByteArray()));
+        assertEquals("stale", sent.getString("encrypted_data"));
+    }
+
+    @Test
+    public void testBufferReusedAndGrown() throws Exception {
+        byte[] buffer = TuneRequestBody.json(new JSONObject().put("a", 1)).getBuffer();
+        assertSame("small bodies should reuse the thread's buffer", buffer, TuneRequestBody.json(new JSONObject().put("b", 2)).getBuffer());
+
+        char[] receipt = new char[10 * 1024];
+        Arrays.fill(receipt, 'x');
+        JSONObject large = new JSONObject().put("receipt", new String(receipt));
+        TuneRequestBody body = TuneRequestBody.json(large);
+        assertEquals(large.toString().length(), body.getLength());
+
+        body = TuneRequestBody.gzippedJson(large, null, null);
+        assertEquals(large.toString(), TuneUtils.decompress(body.toByteArray()));
+    }
+}
@@ -0,0 +1,111 @@
+package com.tune.http;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.tune.TuneConstants;
+import com.tune.utils.TuneUtils;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the allocations and time per response of reading a whole postback response into a string and
+ * parsing it, against pulling out the fields the SDK reads with {@link TuneResponseParser}.
+ * Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResponseParserBenchmark {
+    private static final String logTag = "TUNE Benchmark";
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 1000;
+
+    private interface Parse {
+        JSONObject parse(InputStream stream) throws Exception;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void benchmarkResponseParsing() throws Exception {
+        byte[] response = buildResponse().getBytes("UTF-8");
+
+        long[] whole = run("readStream + JSONObject", response, new Parse() {
+            @Override
+            public JSONObject parse(InputStream stream) throws Exception {
+                return new JSONObject(new JSONTokener(TuneUtils.readStream(stream)));
+            }
+        });
+
+        final TuneResponseParser parser = new TuneResponseParser(TuneConstants.SERVER_RESPONSE_SUCCESS,
+                TuneConstants.SERVER_RESPONSE_SITE_EVENT_TYPE, TuneConstants.SERVER_RESPONSE_LOG_ID, TuneConstants.KEY_INVOKE_URL);
+        long[] streamed = run("TuneResponseParser", response, new Parse() {
+            @Override
+            public JSONObject parse(InputStream stream) throws Exception {
+                return parser.parse(stream, TuneConstants.MAX_RESPONSE_SIZE);
+            }
+        });
+
+        // Timings vary too much between devices and runs to assert on, so they are only logged
+        Log.i(logTag, String.format(Locale.US, "TuneResponseParser took %.2fx the time of readStream + JSONObject",
+                (double) streamed[1] / Math.max(1, whole[1])));
+        // Allocation counting is not supported by every runtime, only compare when it counted something
+        if (whole[0] > 0) {
+            assertTrue("streaming parse should allocate less", streamed[0] < whole[0]);
+        }
+    }
+
+    /**
+     * @return bytes allocated per response, and nanoseconds per response
+     */
+    @SuppressWarnings("deprecation")
+    private long[] run(String name, byte[] response, Parse parse) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            parse.parse(new ByteArrayInputStream(response));
+        }
+
+        ByteArrayInputStream[] streams = new ByteArrayInputStream[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            streams[i] = new ByteArrayInputStream(response);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            if (!parse.parse(streams[i]).getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS)) {
+                throw new AssertionError("parse failed");
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = Debug.getThreadAllocSize();
+        long objects = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.i(logTag, String.format(Locale.US, "%-24s %6d bytes, %4d objects, %6d ns per %d byte response",
+                name, bytes / ROUNDS, objects / ROUNDS, nanos / ROUNDS, response.length));
+        return new long[] { bytes / ROUNDS, nanos / ROUNDS };
+    }
+
+    /**
+     * @return a conversion response of the usual shape and size
+     */
+    private static String buildResponse() {
+        return "{\"success\":true,\"site_event_id\":\"1234567\",\"site_event_type\":\"open\",\"site_event_name\":\"open\","
+                + "\"log_id\":\"4a1c2bd3-9e1f-4b6e-8f0e-3c2b1a0f9e8d\",\"tracking_id\":\"6b7d8f0a-1c2e-4d3f-a5b6-c7d8e9f0a1b2\","
+                + "\"log_action\":{\"conversion\":{\"status\":\"approved\",\"status_code\":\"\",\"id\":\"9876543\","
+                + "\"attributable_type\":\"organic\",\"publisher_id\":\"0\",\"campaign_id\":\"0\",\"created\":\"2018-03-08 12:34:56\"}},"
+                + "\"options\":{\"conversion_status\":\"approved\",\"conversion_user_agent\":\"Mozilla/5.0 (Linux; Android 8.1.0; Pixel 2 Build/OPM1.171019.011)"
+                + " AppleWebKit/537.36 (KHTML, like Gecko) Chrome/65.0.3325.109 Mobile Safari/537.36\"},"
+                + "\"errors\":[],\"debug\":{\"server\":\"engine-12\",\"timing\":[0.001,0.004,0.012],\"cache\":{\"hit\":true}}}";
+    }
+}
@@ -0,0 +1,120 @@
+package com.tune.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.TuneConstants;
+import com.tune.mocks.MockTuneServer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RetryAfterTests {
+    private static final long NOW = 1500000000000L;
+
+    @Test
+    public void testRetryAfterSeconds() {
+        assertEquals(120 * 1000, response(429, "Retry-After", "120").getRetryDelay(NOW));
+        assertEquals(5 * 1000, response(503, "retry-after", " 5 ").getRetryDelay(NOW));
+        assertEquals(0, response(429, "Retry-After", "-3").getRetryDelay(NOW));
+    }
+
+    @Test
+    public void testRetryAfterDate() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        String date = format.format(new Date(NOW + 90 * 1000));
+
+        assertEquals(90 * 1000, response(503, "Retry-After", date).getRetryDelay(NOW));
+        assertEquals(-1, response(503, "Retry-After", "soon").getRetryDelay(NOW));
+    }
+
+    @Test
+    public void testRetryAfterOnlyReadFromRejectedRequests() {
+        assertEquals(-1, response(500, "Retry-After", "120").getRetryDelay(NOW));
+        assertEquals(-1, response(200, "Retry-After", "120").getRetryDelay(NOW));
+        assertEquals(-1, response(429).getRetryDelay(NOW));
+    }
+
+    @Test
+    public void testRateLimitReset() {
+        // Rate limited without Retry-After
+        assertEquals(30 * 1000, response(429, "RateLimit-Reset", "30").getRetryDelay(NOW));
+
+        // Accepted, but no requests are left until the reset
+        assertEquals(30 * 1000, response(200, "RateLimit-Remaining", "0", "RateLimit-Reset", "30").getRetryDelay(NOW));
+        assertEquals(-1, response(200, "RateLimit-Remaining", "12", "RateLimit-Reset", "30").getRetryDelay(NOW));
+
+        // Older headers give the reset in seconds since the epoch
+        String reset = Long.toString(NOW / 1000 + 45);
+        assertEquals(45 * 1000, response(200, "X-RateLimit-Remaining", "0", "X-RateLimit-Reset", reset).getRetryDelay(NOW));
+    }
+
+    @Test
+    public void testRequesterHoldsRequestsForRetryAfter() throws Exception {
+        final String[] retryAfter = { "1" };
+        MockTuneServer server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                if (retryAfter[0] != null) {
+                    return new MockTuneServer.Response(TuneHttpResponse.HTTP_TOO_MANY_REQUESTS, "").header("Retry-After", retryAfter[0]);
+                }
+                return new MockTuneServer.Response(200, "{\"success\":true}");
+            }
+        });
+        try {
+            TuneUrlRequester requester = new TuneUrlRequester();
+            assertEquals(0, requester.requestUrl(server.getUrl("/serve"), null, false).length());
+            long delay = requester.getRetryDelay();
+            assertTrue("should hold requests for about a second, was " + delay, delay > 500 && delay <= 1000);
+            assertEquals("rate limiting is not the server failing", TuneCircuitBreaker.State.CLOSED, requester.getCircuitBreaker().getState());
+
+            // Held requests are not sent, and are retried later
+            retryAfter[0] = null;
+            assertEquals(0, requester.requestUrl(server.getUrl("/serve"), null, false).length());
+            assertEquals(1, server.getRequestCount());
+
+            Thread.sleep(delay + 100);
+            assertEquals(0, requester.getRetryDelay());
+            assertTrue(requester.requestUrl(server.getUrl("/serve"), null, false).getBoolean(TuneConstants.SERVER_RESPONSE_SUCCESS));
+            assertEquals(2, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testRequesterCapsServerPause() throws Exception {
+        MockTuneServer server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(503, "").header("Retry-After", "99999999");
+            }
+        });
+        try {
+            TuneUrlRequester requester = new TuneUrlRequester();
+            requester.requestUrl(server.getUrl("/serve"), null, false);
+            assertTrue(requester.getRetryDelay() <= TuneConstants.MAX_SERVER_RETRY_DELAY);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static TuneHttpResponse response(int status, String... headers) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i].toLowerCase(Locale.US), headers[i + 1]);
+        }
+        return new TuneHttpResponse(status, map, null);
+    }
+}
@@ -0,0 +1,123 @@
+package com.tune.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.TuneConstants;
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TimeoutEstimatorTests {
+    private static final String HOST = "engine.mobileapptracking.com";
+
+    @Test
+    public void testInitialTimeout() {
+        TuneTimeoutEstimator estimator = new TuneTimeoutEstimator();
+
+        assertEquals(TuneConstants.TIMEOUT_INITIAL, estimator.getTimeout(HOST, "wifi"));
+    }
+
+    @Test
+    public void testTimeoutFollowsResponseTimes() {
+        TuneTimeoutEstimator estimator = new TuneTimeoutEstimator(10000, 100, 60000);
+
+        // First sample: srtt = 400, rttvar = 200, timeout = 400 + 4 * 200
+        estimator.recordResponse(HOST, "wifi", 400);
+        assertEquals(1200, estimator.getTimeout(HOST, "wifi"));
+
+        // Steady response times shrink the variation and the timeout with it
+        for (int i = 0; i < 50; i++) {
+            estimator.recordResponse(HOST, "wifi", 400);
+        }
+        int steady = estimator.getTimeout(HOST, "wifi");
+        assertTrue("timeout should settle near the response time, was " + steady, steady >= 400 && steady < 450);
+
+        // A jittery network widens it again
+        estimator.recordResponse(HOST, "wifi", 2000);
+        assertTrue(estimator.getTimeout(HOST, "wifi") > steady + 1000);
+    }
+
+    @Test
+    public void testTimeoutClampedToLimits() {
+        TuneTimeoutEstimator estimator = new TuneTimeoutEstimator(10000, 2000, 60000);
+
+        estimator.recordResponse(HOST, "wifi", 10);
+        assertEquals(2000, estimator.getTimeout(HOST, "wifi"));
+
+        estimator.recordResponse(HOST, "mobile", 50000);
+        assertEquals(60000, estimator.getTimeout(HOST, "mobile"));
+    }
+
+    @Test
+    public void testEstimatesKeptPerHostAndConnectionType() {
+        TuneTimeoutEstimator estimator = new TuneTimeoutEstimator(10000, 100, 60000);
+
+        estimator.recordResponse(HOST, "wifi", 200);
+        estimator.recordResponse(HOST, "mobile", 2000);
+
+        assertEquals(600, estimator.getTimeout(HOST, "wifi"));
+        assertEquals(6000, estimator.getTimeout(HOST, "mobile"));
+        assertEquals(10000, estimator.getTimeout("other.example.com", "wifi"));
+        assertEquals(10000, estimator.getTimeout(HOST, null));
+    }
+
+    @Test
+    public void testTimeoutBacksOffUntilResponse() {
+        TuneTimeoutEstimator estimator = new TuneTimeoutEstimator(10000, 100, 60000);
+        estimator.recordResponse(HOST, "wifi", 400);
+
+        estimator.recordTimeout(HOST, "wifi");
+        assertEquals(2400, estimator.getTimeout(HOST, "wifi"));
+        estimator.recordTimeout(HOST, "wifi");
+        assertEquals(4800, estimator.getTimeout(HOST, "wifi"));
+        for (int i = 0; i < 40; i++) {
+            estimator.recordTimeout(HOST, "wifi");
+        }
+        assertEquals(60000, estimator.getTimeout(HOST, "wifi"));
+
+        estimator.recordResponse(HOST, "wifi", 400);
+        assertTrue(estimator.getTimeout(HOST, "wifi") < 2400);
+
+        // With nothing measured a timeout backs off from the initial timeout
+        estimator.recordTimeout(HOST, "mobile");
+        assertEquals(20000, estimator.getTimeout(HOST, "mobile"));
+    }
+
+    @Test
+    public void testRequesterAdaptsConnectTimeoutOnly() throws Exception {
+        final int[] delay = { 0 };
+        MockTuneServer server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(200, "{\"success\":true}").delay(delay[0]);
+            }
+        });
+        try {
+            TuneTimeoutEstimator estimator = new TuneTimeoutEstimator(10000, 200, 60000);
+            TuneUrlRequester requester = new TuneUrlRequester();
+            requester.setTimeoutEstimator(estimator);
+            requester.setConnectionType("wifi");
+
+            for (int i = 0; i < 10; i++) {
+                assertTrue(requester.requestUrl(server.getUrl("/serve"), null, false).getBoolean("success"));
+            }
+            String host = "127.0.0.1";
+            int timeout = estimator.getTimeout(host, "wifi");
+            assertTrue("timeout should adapt to a fast server, was " + timeout, timeout < 1000);
+
+            // A server slow to answer may already have recorded the event, so its response is still waited for
+            delay[0] = 3000;
+            JSONObject response = requester.requestUrl(server.getUrl("/serve"), null, false);
+            assertTrue("slow response should be read, not timed out and sent again", response.getBoolean("success"));
+            assertEquals(11, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
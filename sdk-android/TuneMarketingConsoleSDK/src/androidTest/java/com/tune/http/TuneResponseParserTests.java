@@ -0,0 +1,138 @@
+package com.tune.http;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.tune.mocks.MockTuneServer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class TuneResponseParserTests {
+    private final TuneResponseParser parser = new TuneResponseParser("success", "site_event_type", "log_id", "invoke_url");
+
+    @Test
+    public void testReadsWantedFieldsAndSkipsTheRest() throws Exception {
+        String response = "{\"options\": {\"conversion_status\": \"approved\", \"nested\": [1, {\"a\": \"}]\"}]},"
+                + " \"log_action\": null, \"errors\": [\"say \\\"hi\\\" {\"],"
+                + " \"success\": true, \"site_event_type\": \"open\", \"log_id\": \"1234-abcd\"}";
+
+        JSONObject result = parse(response);
+
+        assertEquals(3, result.length());
+        assertTrue(result.getBoolean("success"));
+        assertEquals("open", result.getString("site_event_type"));
+        assertEquals("1234-abcd", result.getString("log_id"));
+        assertFalse(result.has("options"));
+    }
+
+    @Test
+    public void testStopsOnceEveryFieldIsRead() throws Exception {
+        String response = "{\"success\":true,\"site_event_type\":\"open\",\"log_id\":\"1\",\"invoke_url\":\"app://x\",\"rest\":\"" + pad(2000) + "\"}";
+        InputStream stream = new ByteArrayInputStream(response.getBytes("UTF-8"));
+
+        JSONObject result = parser.parse(stream, response.length());
+
+        assertEquals("app://x", result.getString("invoke_url"));
+        assertTrue("rest of the response should be left unread", stream.available() > 0);
+    }
+
+    @Test
+    public void testDecodesEscapesAndUtf8() throws Exception {
+        JSONObject result = parse("{\"invoke_url\": \"app://café/\\u00e9\\n\\/€\"}");
+
+        assertEquals("app://café/é\n/€", result.getString("invoke_url"));
+    }
+
+    @Test
+    public void testReadsLiteralAndNestedValues() throws Exception {
+        JSONObject result = parse("{\"success\": false, \"log_id\": 42, \"site_event_type\": null, \"invoke_url\": {\"u\": \"é\"}}");
+
+        assertFalse(result.getBoolean("success"));
+        assertEquals(42, result.getInt("log_id"));
+        assertTrue(result.isNull("site_event_type"));
+        assertEquals("é", result.getJSONObject("invoke_url").getString("u"));
+    }
+
+    @Test
+    public void testEmptyObject() throws Exception {
+        assertEquals(0, parse(" { } ").length());
+    }
+
+    @Test
+    public void testResponseLargerThanMaxSizeFails() throws Exception {
+        String response = "{\"padding\":\"" + pad(2000) + "\",\"success\":true}";
+        try {
+            parser.parse(new ByteArrayInputStream(response.getBytes("UTF-8")), 1000);
+            fail("should not read past the max size");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // The parser is reusable after a failure
+        assertTrue(parse("{\"success\":true}").getBoolean("success"));
+    }
+
+    @Test
+    public void testMalformedResponseFails() throws Exception {
+        String[] malformed = { "", "[]", "<html>", "{\"success\" true}", "{\"success\": \"tru", "{\"a\": {\"b\": 1}" };
+        for (String response : malformed) {
+            try {
+                parse(response);
+                fail("should reject " + response);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRequesterParsesOnlyReadFields() throws Exception {
+        MockTuneServer server = new MockTuneServer(new MockTuneServer.Handler() {
+            @Override
+            public MockTuneServer.Response handle(MockTuneServer.Request request) {
+                return new MockTuneServer.Response(200, "{\"success\":true,\"options\":{\"conversion_status\":\"approved\"},\"log_id\":\"7\"}");
+            }
+        });
+        try {
+            TuneUrlRequester requester = new TuneUrlRequester();
+            JSONObject full = requester.requestUrl(server.getUrl("/serve"), null, false);
+            assertTrue(full.has("options"));
+
+            requester.setFullResponsesEnabled(false);
+            JSONObject streamed = requester.requestUrl(server.getUrl("/serve"), null, false);
+            assertTrue(streamed.getBoolean("success"));
+            assertEquals("7", streamed.getString("log_id"));
+            assertFalse(streamed.has("options"));
+
+            // Debug mode logs the whole response
+            assertTrue(requester.requestUrl(server.getUrl("/serve"), null, true).has("options"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private JSONObject parse(String response) throws Exception {
+        byte[] bytes = response.getBytes("UTF-8");
+        return parser.parse(new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    private static String pad(int length) {
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < length) {
+            padding.append('x');
+        }
+        return padding.toString();
+    }
+}
@@ -0,0 +1,249 @@
+package com.tune.mocks;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Minimal local HTTP/1.1 server standing in for the TUNE endpoints in tests.
+ * Supports keep-alive connections, Content-Length bodies and gzip request bodies.
+ */
+public class MockTuneServer {
+
+    public interface Handler {
+        Response handle(Request request);
+    }
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        public final Map<String, String> headers;
+        public final byte[] body;
+
+        Request(String method, String path, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String header(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        /**
+         * @return the request body as a string, gunzipped if it was sent with gzip content encoding
+         */
+        public String bodyAsString() throws IOException {
+            byte[] bytes = body;
+            if ("gzip".equalsIgnoreCase(header("Content-Encoding"))) {
+                bytes = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+            }
+            return new String(bytes, "UTF-8");
+        }
+    }
+
+    public static class Response {
+        public final int status;
+        public final String body;
+        public final Map<String, String> headers = new HashMap<>();
+        public long delayMillis;
+
+        public Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response delay(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final List<Socket> openSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private volatile Handler handler;
+    private volatile boolean running = true;
+
+    public MockTuneServer(Handler handler) throws IOException {
+        this.handler = handler;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    public List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    public int getRequestCount() {
+        return requests.size();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                openSockets.add(socket);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // server socket closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (running) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    break;
+                }
+                String[] parts = requestLine.split(" ");
+
+                Map<String, String> headers = new HashMap<>();
+                for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+                    }
+                }
+
+                byte[] body = new byte[0];
+                String contentLength = headers.get("content-length");
+                if (contentLength != null) {
+                    body = new byte[Integer.parseInt(contentLength)];
+                    int read = 0;
+                    while (read < body.length) {
+                        int count = in.read(body, read, body.length - read);
+                        if (count < 0) {
+                            break;
+                        }
+                        read += count;
+                    }
+                }
+
+                Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers, body);
+                requests.add(request);
+
+                Response response = handler.handle(request);
+                if (response.delayMillis > 0) {
+                    Thread.sleep(response.delayMillis);
+                }
+
+                byte[] responseBody = response.body == null ? new byte[0] : response.body.getBytes("UTF-8");
+                StringBuilder head = new StringBuilder();
+                head.append("HTTP/1.1 ").append(response.status).append(" Mock\r\n");
+                head.append("Content-Type: application/json\r\n");
+                head.append("Content-Length: ").append(responseBody.length).append("\r\n");
+                for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                    head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+                }
+                head.append("\r\n");
+                out.write(head.toString().getBytes("UTF-8"));
+                out.write(responseBody);
+                out.flush();
+
+                if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // connection dropped or server shut down
+        } finally {
+            openSockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
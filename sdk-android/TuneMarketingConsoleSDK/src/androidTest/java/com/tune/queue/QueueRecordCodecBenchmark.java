@@ -0,0 +1,116 @@
+package com.tune.queue;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the stored size and encode/decode time of the queue record codecs over realistic events.
+ * Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueueRecordCodecBenchmark {
+    private static final String logTag = "TUNE Benchmark";
+    private static final int EVENT_COUNT = 200;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void benchmarkCodecs() throws Exception {
+        List<JSONObject> events = new ArrayList<>();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            events.add(buildEvent(i));
+        }
+
+        long jsonBytes = run("json", new JsonQueueRecordCodec(), events);
+        long binaryBytes = run("binary", new BinaryQueueRecordCodec(false), events);
+        long deflatedBytes = run("binary+deflate", new BinaryQueueRecordCodec(true), events);
+
+        assertTrue(binaryBytes < jsonBytes);
+        assertTrue(deflatedBytes < binaryBytes);
+    }
+
+    private static long run(String name, QueueRecordCodec codec, List<JSONObject> events) throws Exception {
+        List<byte[]> encoded = new ArrayList<>(events.size());
+        long bytes = 0;
+        for (JSONObject event : events) {
+            byte[] record = codec.encode(event);
+            encoded.add(record);
+            bytes += record.length;
+        }
+
+        // Warm up, then time
+        for (byte[] record : encoded) {
+            codec.decode(record);
+        }
+
+        long encodeStart = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (JSONObject event : events) {
+                codec.encode(event);
+            }
+        }
+        long encodeNanos = (System.nanoTime() - encodeStart) / (ROUNDS * events.size());
+
+        long decodeStart = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (byte[] record : encoded) {
+                codec.decode(record);
+            }
+        }
+        long decodeNanos = (System.nanoTime() - decodeStart) / (ROUNDS * events.size());
+
+        Log.i(logTag, String.format(Locale.US, "%-15s %7d bytes (%5d per event)  encode %7d ns  decode %7d ns",
+                name, bytes, bytes / events.size(), encodeNanos, decodeNanos));
+        return bytes;
+    }
+
+    /**
+     * Builds a queued event shaped like the ones TuneUrlBuilder produces.
+     */
+    static JSONObject buildEvent(int i) throws JSONException {
+        String action = i % 5 == 0 ? "conversion" : "session";
+        String link = "https://877.engine.mobileapptracking.com/serve?ver=6.0.0"
+                + "&transaction_id=" + UUID.randomUUID()
+                + "&sdk=android&action=" + action + "&advertiser_id=877&package_name=com.tune.benchmark"
+                + (i % 5 == 0 ? "&site_event_name=purchase" : "")
+                + "&response_format=json";
+
+        String data = "&app_name=Benchmark%20App&app_version=42&app_version_name=4.2.0&connection_type=mobile"
+                + "&country_code=US&currency_code=USD&device_brand=Google&device_build=OPM1.171019.011"
+                + "&device_carrier=T-Mobile&device_cpu_type=arm64-v8a&device_model=Pixel%202&google_aid=4e45e24e-8f30-4651-98ec-a80c0fb08eb5"
+                + "&google_ad_tracking_disabled=0&insdate=1539820800&installer=com.android.vending&language=en"
+                + "&locale=en_US&mobile_country_code=310&mobile_network_code=260&os_version=8.1.0"
+                + "&screen_density=2.625&screen_layout_size=1080x1920&sdk_version=6.0.0&system_date=" + (1539820800 + i)
+                + "&user_agent=Mozilla%2F5.0%20%28Linux%3B%20Android%208.1.0%3B%20Pixel%202%20Build%2FOPM1.171019.011%3B%20wv%29"
+                + "%20AppleWebKit%2F537.36%20%28KHTML%2C%20like%20Gecko%29%20Version%2F4.0%20Chrome%2F69.0.3497.100%20Mobile%20Safari%2F537.36"
+                + (i % 5 == 0 ? "&revenue=4.99" : "");
+
+        JSONObject postBody = new JSONObject();
+        if (i % 5 == 0) {
+            JSONArray items = new JSONArray();
+            items.put(new JSONObject().put("item", "gems").put("quantity", "500").put("unit_price", "4.99").put("revenue", "4.99"));
+            postBody.put("data", items);
+        }
+
+        JSONObject event = new JSONObject();
+        event.put("link", link);
+        event.put("data", data);
+        event.put("post_body", postBody);
+        event.put("first_session", i == 0);
+        event.put("retry_attempt", i % 3);
+        event.put("first_enqueue_time", 1539820800000L + i * 1000L);
+        return event;
+    }
+}
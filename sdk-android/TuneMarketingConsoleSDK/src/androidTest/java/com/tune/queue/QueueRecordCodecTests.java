@@ -0,0 +1,123 @@
+package com.tune.queue;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class QueueRecordCodecTests {
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        assertRoundTrip(new JsonQueueRecordCodec(), buildRecord());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        assertRoundTrip(new BinaryQueueRecordCodec(false), buildRecord());
+        assertRoundTrip(new BinaryQueueRecordCodec(true), buildRecord());
+    }
+
+    @Test
+    public void testBinaryKeepsUnknownAndMistypedFields() throws Exception {
+        JSONObject record = buildRecord();
+        record.put("future_field", "value");
+        record.put("retry_attempt", "not a number");
+
+        JSONObject decoded = assertRoundTrip(new BinaryQueueRecordCodec(), record);
+        assertEquals("value", decoded.getString("future_field"));
+        assertEquals("not a number", decoded.getString("retry_attempt"));
+    }
+
+    @Test
+    public void testBinaryKeepsMissingFieldsMissing() throws Exception {
+        JSONObject record = new JSONObject();
+        record.put("link", "https://example.com/serve?action=session");
+
+        JSONObject decoded = assertRoundTrip(new BinaryQueueRecordCodec(), record);
+        assertEquals(1, decoded.length());
+        assertFalse(decoded.has("retry_attempt"));
+    }
+
+    @Test
+    public void testCodecsRecognizeTheirOwnRecords() throws Exception {
+        QueueRecordCodec json = new JsonQueueRecordCodec();
+        QueueRecordCodec binary = new BinaryQueueRecordCodec();
+        JSONObject record = buildRecord();
+
+        assertTrue(json.canDecode(json.encode(record)));
+        assertFalse(binary.canDecode(json.encode(record)));
+        assertTrue(binary.canDecode(binary.encode(record)));
+        assertFalse(json.canDecode(binary.encode(record)));
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanJson() throws Exception {
+        JSONObject record = buildRecord();
+        int jsonSize = new JsonQueueRecordCodec().encode(record).length;
+
+        assertTrue(new BinaryQueueRecordCodec(false).encode(record).length < jsonSize);
+        assertTrue(new BinaryQueueRecordCodec(true).encode(record).length < new BinaryQueueRecordCodec(false).encode(record).length);
+    }
+
+    @Test
+    public void testCorruptBinaryRecordRejected() throws Exception {
+        BinaryQueueRecordCodec codec = new BinaryQueueRecordCodec();
+        byte[] encoded = codec.encode(buildRecord());
+
+        byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        assertDecodeFails(codec, truncated);
+
+        byte[] newerVersion = encoded.clone();
+        newerVersion[1] = BinaryQueueRecordCodec.VERSION + 1;
+        assertDecodeFails(codec, newerVersion);
+    }
+
+    private static JSONObject assertRoundTrip(QueueRecordCodec codec, JSONObject record) throws Exception {
+        JSONObject decoded = codec.decode(codec.encode(record));
+        assertEquals(record.length(), decoded.length());
+        JSONArray names = record.names();
+        for (int i = 0; i < names.length(); i++) {
+            String name = names.getString(i);
+            assertEquals(name, record.get(name).toString(), decoded.get(name).toString());
+        }
+        return decoded;
+    }
+
+    private static void assertDecodeFails(QueueRecordCodec codec, byte[] bytes) {
+        try {
+            codec.decode(bytes);
+            fail("decoding should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static JSONObject buildRecord() throws JSONException {
+        JSONObject record = new JSONObject();
+        record.put("link", "https://877.engine.mobileapptracking.com/serve?ver=6.0.0&transaction_id=4e45e24e-8f30&action=conversion"
+                + "&advertiser_id=877&package_name=com.tune.test&site_event_name=purchase");
+        record.put("data", "&connection_type=wifi&device_brand=Google&device_model=Pixel&language=en&os_version=8.1.0"
+                + "&revenue=1.99&currency_code=USD&system_date=1539820800&country_code=US&app_name=Test%20App");
+        record.put("post_body", new JSONObject().put("data", new JSONArray().put(new JSONObject().put("item", "sword").put("quantity", 2))));
+        record.put("first_session", false);
+        record.put("retry_attempt", 3);
+        record.put("first_enqueue_time", 1539820800123L);
+        record.put("retry_timeout", 600L);
+        record.put("next_attempt", 1539821400456L);
+        record.put("last_error", "{\"error\":\"error\"}");
+        return record;
+    }
+}
@@ -0,0 +1,93 @@
+package com.tune.queue;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Locale;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long incremental compaction of the queue log takes, per step and in total, on a log
+ * fragmented the way partial drains leave it: a few long-lived events spread across many segments.
+ * Results are logged under the "TUNE Benchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TuneSegmentLogCompactionBenchmark {
+    private static final String logTag = "TUNE Benchmark";
+    private static final int EVENT_SIZE = 1024;
+    private static final int EVENT_COUNT = 2000;
+    // One event in this many is left undelivered
+    private static final int PINNED_EVERY = 50;
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(getContext().getCacheDir(), "segment_log_benchmark");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void benchmarkCompaction() {
+        for (int batch : new int[] { 1, 16, 64 }) {
+            run(batch);
+        }
+    }
+
+    private void run(int batch) {
+        deleteDirectory();
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        byte[] value = new byte[EVENT_SIZE];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            String key = Integer.toString(i);
+            log.put(key, value);
+            if (i % PINNED_EVERY != 0) {
+                log.remove(key);
+            }
+        }
+        int segmentsBefore = log.segmentCount();
+
+        int steps = 0;
+        long maxStepNanos = 0;
+        long start = System.nanoTime();
+        while (true) {
+            long stepStart = System.nanoTime();
+            boolean more = log.compactStep(batch);
+            maxStepNanos = Math.max(maxStepNanos, System.nanoTime() - stepStart);
+            steps++;
+            if (!more) {
+                break;
+            }
+        }
+        long totalNanos = System.nanoTime() - start;
+
+        Log.i(logTag, String.format(Locale.US, "compaction batch %3d: %3d -> %3d segments in %4d steps, total %6d us, mean step %5d us, max step %5d us",
+                batch, segmentsBefore, log.segmentCount(), steps, totalNanos / 1000, totalNanos / steps / 1000, maxStepNanos / 1000));
+
+        assertTrue("compaction should release segments", log.segmentCount() < segmentsBefore);
+        assertTrue(new TuneSegmentLog(directory).size() == EVENT_COUNT / PINNED_EVERY);
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,244 @@
+package com.tune.queue;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Fault-injection harness for the queue log. Runs a queue workload, killing the writer at every point
+ * of every write in turn, and checks the log reopens holding exactly the queue from just before or
+ * just after the interrupted operation, with no lost or duplicated events.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TuneSegmentLogCrashTests {
+    private static final String NEXT_ID = "next_id";
+    // Large enough for the workload to roll and release several segments
+    private static final int EVENT_SIZE = TuneSegmentLog.SEGMENT_SIZE / 10;
+
+    private File directory;
+
+    /**
+     * Thrown at the injected crash point, abandoning the log as a killed process would.
+     */
+    private static class SimulatedCrash extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Crashes when the given write step is reached.
+     */
+    private static class CrashAt implements TuneSegmentLog.CrashPoint {
+        private final int step;
+        private int reached;
+        private String point;
+
+        CrashAt(int step) {
+            this.step = step;
+        }
+
+        @Override
+        public void reached(String point) {
+            if (++reached == step) {
+                this.point = point;
+                throw new SimulatedCrash();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        directory = new File(getContext().getCacheDir(), "segment_log_crash_test");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void testCrashAtEveryWriteStep() {
+        int crashes = 0;
+        for (int step = 1; ; step++) {
+            deleteDirectory();
+            Workload workload = new Workload(new TuneSegmentLog(directory));
+            CrashAt crash = new CrashAt(step);
+            workload.log.setCrashPoint(crash);
+            try {
+                workload.run();
+            } catch (SimulatedCrash e) {
+                crashes++;
+                workload.checkRecovered(new TuneSegmentLog(directory), "crash at step " + step + " (" + crash.point + ")");
+                continue;
+            }
+
+            // The workload finished before reaching this step, so every step has been crashed at
+            workload.checkRecovered(new TuneSegmentLog(directory), "no crash");
+            assertTrue("workload should have compacted the log", workload.compactions > 0);
+            break;
+        }
+        assertTrue("should have crashed at many points, crashed at " + crashes, crashes > 100);
+    }
+
+    @Test
+    public void testQueueUsableAfterCrash() {
+        Workload workload = new Workload(new TuneSegmentLog(directory));
+        workload.log.setCrashPoint(new CrashAt(50));
+        try {
+            workload.run();
+            fail("workload should have crashed");
+        } catch (SimulatedCrash e) {
+            // expected
+        }
+
+        Workload resumed = new Workload(new TuneSegmentLog(directory));
+        resumed.run();
+        resumed.checkRecovered(new TuneSegmentLog(directory), "resumed workload");
+    }
+
+    /**
+     * Adds, drains and compacts events the way the event queue does, tracking the queue contents it expects
+     * before and after each operation.
+     */
+    private static class Workload {
+        private final TuneSegmentLog log;
+        // Expected contents before and after the operation in progress, by key
+        private Map<String, String> before;
+        private Map<String, String> after;
+        private int nextEvent;
+        private int compactions;
+
+        Workload(TuneSegmentLog log) {
+            this.log = log;
+            after = read(log);
+            before = after;
+        }
+
+        void run() {
+            for (int round = 0; round < 6; round++) {
+                for (int i = 0; i < 8; i++) {
+                    add("event" + nextEvent++);
+                }
+                // Deliver every other event
+                List<String> keys = new ArrayList<>(log.keySet());
+                keys.remove(NEXT_ID);
+                Collections.sort(keys);
+                for (int i = 0; i < keys.size(); i += 2) {
+                    discard(keys.get(i));
+                }
+                // Move the entries left in the oldest segments, without changing the queue
+                while (log.needsCompaction()) {
+                    begin(after);
+                    log.compactStep(2);
+                    compactions++;
+                }
+            }
+            clear();
+            add("event" + nextEvent++);
+        }
+
+        private void add(String event) {
+            long id = Long.parseLong(log.getString(NEXT_ID, "1"));
+            String key = String.format(Locale.US, "%08d", id);
+            Map<String, String> expected = new HashMap<>(after);
+            expected.put(NEXT_ID, Long.toString(id + 1));
+            expected.put(key, pad(event));
+            begin(expected);
+            log.commit(new TuneSegmentLog.Batch()
+                    .putString(NEXT_ID, Long.toString(id + 1))
+                    .putString(key, pad(event)));
+        }
+
+        private void discard(String key) {
+            Map<String, String> expected = new HashMap<>(after);
+            expected.remove(key);
+            begin(expected);
+            log.remove(key);
+        }
+
+        private void clear() {
+            begin(new HashMap<String, String>());
+            log.clear();
+        }
+
+        private void begin(Map<String, String> expected) {
+            before = after;
+            after = expected;
+        }
+
+        /**
+         * Checks a reopened log holds the queue from just before or just after the interrupted operation.
+         */
+        void checkRecovered(TuneSegmentLog reopened, String message) {
+            Map<String, String> recovered = read(reopened);
+            if (!recovered.equals(before) && !recovered.equals(after)) {
+                fail(message + ": recovered " + describe(recovered) + ", expected " + describe(before) + " or " + describe(after));
+            }
+
+            // No item with an ID that will be handed out again, and no event stored twice
+            long nextId = Long.parseLong(reopened.getString(NEXT_ID, "1"));
+            List<String> events = new ArrayList<>();
+            for (Map.Entry<String, String> entry : recovered.entrySet()) {
+                if (!entry.getKey().equals(NEXT_ID)) {
+                    assertTrue(message + ": item " + entry.getKey() + " not below next ID " + nextId, Long.parseLong(entry.getKey()) < nextId);
+                    assertTrue(message + ": duplicate " + entry.getValue().trim(), !events.contains(entry.getValue()));
+                    events.add(entry.getValue());
+                }
+            }
+
+            // The reopened log must take new writes
+            reopened.putString(NEXT_ID, Long.toString(nextId));
+            assertEquals(Long.toString(nextId), reopened.getString(NEXT_ID, null));
+        }
+
+        private static Map<String, String> read(TuneSegmentLog log) {
+            Map<String, String> contents = new HashMap<>();
+            for (String key : log.keySet()) {
+                contents.put(key, log.getString(key, null));
+            }
+            return contents;
+        }
+
+        private static String describe(Map<String, String> contents) {
+            StringBuilder description = new StringBuilder("{");
+            for (Map.Entry<String, String> entry : contents.entrySet()) {
+                description.append(entry.getKey()).append('=').append(entry.getValue().trim()).append(' ');
+            }
+            return description.append('}').toString();
+        }
+
+        private static String pad(String event) {
+            StringBuilder padded = new StringBuilder(event);
+            while (padded.length() < EVENT_SIZE) {
+                padded.append(' ');
+            }
+            return padded.toString();
+        }
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
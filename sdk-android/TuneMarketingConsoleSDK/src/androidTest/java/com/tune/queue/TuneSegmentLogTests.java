@@ -0,0 +1,229 @@
+package com.tune.queue;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TuneSegmentLogTests {
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(getContext().getCacheDir(), "segment_log_test");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        assertTrue(log.wasCreated());
+        assertTrue(log.isPersistent());
+
+        log.putString("1", "first");
+        log.putInt("queuesize", 1);
+        assertEquals("first", log.getString("1", null));
+        assertEquals(1, log.getInt("queuesize", 0));
+
+        log.remove("1");
+        assertNull(log.getString("1", null));
+        assertEquals(1, log.size());
+    }
+
+    @Test
+    public void testReopenReplaysRecords() {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        log.putString("1", "first");
+        log.putString("2", "second");
+        log.putString("1", "updated");
+        log.remove("2");
+
+        TuneSegmentLog reopened = new TuneSegmentLog(directory);
+        assertFalse(reopened.wasCreated());
+        assertEquals("updated", reopened.getString("1", null));
+        assertFalse(reopened.contains("2"));
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    public void testSegmentsRollAndHeadIsReleased() {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        byte[] value = new byte[TuneSegmentLog.SEGMENT_SIZE / 4];
+        for (int i = 0; i < 20; i++) {
+            log.put(Integer.toString(i), value);
+        }
+        assertTrue("should have rolled to several segments", countSegments() > 3);
+
+        for (int i = 0; i < 19; i++) {
+            log.remove(Integer.toString(i));
+        }
+        assertTrue("drained segments should be deleted, found " + countSegments(), countSegments() <= 2);
+
+        TuneSegmentLog reopened = new TuneSegmentLog(directory);
+        assertEquals(1, reopened.size());
+        assertArrayEquals(value, reopened.get("19"));
+    }
+
+    @Test
+    public void testCompactionReleasesPinnedHead() {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        log.putString("pinned", "oldest entry");
+        byte[] value = new byte[TuneSegmentLog.SEGMENT_SIZE / 4];
+        for (int i = 0; i < 20; i++) {
+            log.put(Integer.toString(i), value);
+            log.remove(Integer.toString(i));
+        }
+        assertTrue("pinned head should hold segments back, found " + countSegments(), countSegments() > 3);
+        assertTrue(log.needsCompaction());
+
+        while (log.compactStep(1)) {
+            // keep going
+        }
+        assertTrue("compaction should release the head, found " + countSegments(), countSegments() <= TuneSegmentLog.COMPACTION_LAG);
+        assertEquals("oldest entry", log.getString("pinned", null));
+        assertEquals("oldest entry", new TuneSegmentLog(directory).getString("pinned", null));
+    }
+
+    @Test
+    public void testOversizedRecord() {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        byte[] value = new byte[TuneSegmentLog.SEGMENT_SIZE * 2];
+        value[value.length - 1] = 42;
+        log.put("big", value);
+        log.putString("small", "value");
+
+        TuneSegmentLog reopened = new TuneSegmentLog(directory);
+        assertArrayEquals(value, reopened.get("big"));
+        assertEquals("value", reopened.getString("small", null));
+    }
+
+    @Test
+    public void testCorruptTailRecordIsDropped() throws Exception {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        log.putString("1", "first");
+        log.putString("2", "second");
+
+        // Flip a byte in the last record's payload, as a torn write would
+        File segment = new File(directory, "segment-0.log");
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long end = 0;
+        while (true) {
+            raf.seek(end);
+            int length = raf.readInt();
+            if (length == 0) {
+                break;
+            }
+            end += 8 + length;
+        }
+        raf.seek(end - 1);
+        byte last = raf.readByte();
+        raf.seek(end - 1);
+        raf.write(~last);
+        raf.close();
+
+        TuneSegmentLog reopened = new TuneSegmentLog(directory);
+        assertEquals("first", reopened.getString("1", null));
+        assertFalse(reopened.contains("2"));
+
+        // New records appended after the corrupt one must survive another reopen
+        reopened.putString("3", "third");
+        assertEquals("third", new TuneSegmentLog(directory).getString("3", null));
+    }
+
+    @Test
+    public void testBatchCommit() {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        log.putString("1", "first");
+        log.commit(new TuneSegmentLog.Batch()
+                .putInt("queuesize", 2)
+                .putString("2", "second")
+                .remove("1"));
+        assertEquals("second", log.getString("2", null));
+        assertFalse(log.contains("1"));
+
+        TuneSegmentLog reopened = new TuneSegmentLog(directory);
+        assertEquals(2, reopened.getInt("queuesize", 0));
+        assertEquals("second", reopened.getString("2", null));
+        assertFalse(reopened.contains("1"));
+    }
+
+    @Test
+    public void testTornBatchIsDroppedWhole() throws Exception {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        log.putString("1", "first");
+        log.commit(new TuneSegmentLog.Batch()
+                .putInt("queuesize", 2)
+                .putString("2", "second"));
+
+        // Corrupt the last byte of the batch record, which holds the second item
+        File segment = new File(directory, "segment-0.log");
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long end = 0;
+        while (true) {
+            raf.seek(end);
+            int length = raf.readInt();
+            if (length == 0) {
+                break;
+            }
+            end += 8 + length;
+        }
+        raf.seek(end - 1);
+        byte last = raf.readByte();
+        raf.seek(end - 1);
+        raf.write(~last);
+        raf.close();
+
+        TuneSegmentLog reopened = new TuneSegmentLog(directory);
+        assertEquals("first", reopened.getString("1", null));
+        assertFalse("size should not be applied without its item", reopened.contains("queuesize"));
+        assertFalse(reopened.contains("2"));
+    }
+
+    @Test
+    public void testClear() {
+        TuneSegmentLog log = new TuneSegmentLog(directory);
+        log.putString("1", "first");
+        log.clear();
+        assertEquals(0, log.size());
+        assertEquals(0, new TuneSegmentLog(directory).size());
+    }
+
+    private int countSegments() {
+        String[] names = directory.list();
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith("segment-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,51 @@
+package com.tune.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URLEncoder;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class TuneQueryEncoderTests {
+    private static final String[] VALUES = {
+        "plain", "with space", "a+b=c&d", "100%", "~!@#$^*()[]{}|\\:;\"'<>,.?/`-_",
+        "Mozilla/5.0 (Linux; Android 8.1.0; Pixel 2 Build/OPM1.171019.011)",
+        "café", "€5", "日本語", "😀", "unpaired \ud83d", "tab\tnewline\n",
+    };
+
+    @Test
+    public void testEncodesLikeUrlEncoder() throws Exception {
+        TuneQueryEncoder encoder = new TuneQueryEncoder();
+        for (String value : VALUES) {
+            assertEquals(value, URLEncoder.encode(value, "UTF-8"), encoder.reset().appendEncoded(value).toString());
+        }
+    }
+
+    @Test
+    public void testAppendParameter() {
+        TuneQueryEncoder encoder = new TuneQueryEncoder();
+        encoder.append("sdk=android").appendParameter("name", "a b").appendParameter("empty", "").appendParameter("missing", null);
+
+        assertEquals("sdk=android&name=a+b", encoder.toString());
+        assertEquals("connection_type=null", encoder.reset().append("connection_type=").append((String) null).toString());
+    }
+
+    @Test
+    public void testGrowsAndResets() throws Exception {
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            longValue.append("é ");
+        }
+        TuneQueryEncoder encoder = new TuneQueryEncoder();
+
+        String encoded = encoder.reset().appendEncoded(longValue.toString()).toString();
+        assertEquals(URLEncoder.encode(longValue.toString(), "UTF-8"), encoded);
+
+        assertEquals("x=1", encoder.reset().append("x=1").toString());
+        assertEquals(3, encoder.length());
+    }
+}
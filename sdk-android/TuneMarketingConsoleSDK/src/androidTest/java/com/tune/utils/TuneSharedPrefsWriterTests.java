@@ -0,0 +1,111 @@
+package com.tune.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+
+import static android.support.test.InstrumentationRegistry.getContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class TuneSharedPrefsWriterTests {
+    private static final String PREFS_NAME = "com.tune.test.writer";
+
+    private CountingPrefs prefs;
+    private TuneSharedPrefsWriter writer;
+
+    private static class CountingPrefs extends TuneSharedPrefsDelegate {
+        int writes;
+
+        CountingPrefs() {
+            super(getContext(), PREFS_NAME);
+        }
+
+        @Override
+        public synchronized void saveAll(Map<String, ?> values) {
+            writes++;
+            super.saveAll(values);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        prefs = new CountingPrefs();
+        prefs.clearSharedPreferences();
+        // A window long enough that the test, not the timer, decides when values are written
+        writer = new TuneSharedPrefsWriter(prefs, 60 * 1000);
+    }
+
+    @After
+    public void tearDown() {
+        writer.shutdown();
+        prefs.clearSharedPreferences();
+    }
+
+    @Test
+    public void testLoginValuesWrittenOnce() {
+        writer.putString("user_id", "id");
+        writer.putString("user_email", "user@example.com");
+        writer.putString("user_name", "name");
+        writer.putString("is_paying_user", "1");
+        writer.putBoolean("coppa", false);
+        writer.putString("user_id", "changed");
+
+        assertEquals(0, prefs.writes);
+        // Values not written yet are still read back
+        assertEquals("changed", writer.getString("user_id", null));
+        assertFalse(writer.getBoolean("coppa", true));
+        assertNull(prefs.getStringFromSharedPreferences("user_id", null));
+
+        writer.flush();
+        assertEquals(1, prefs.writes);
+        assertEquals("changed", prefs.getStringFromSharedPreferences("user_id", null));
+        assertEquals("user@example.com", prefs.getStringFromSharedPreferences("user_email", null));
+
+        // Nothing left to write
+        writer.flush();
+        assertEquals(1, prefs.writes);
+    }
+
+    @Test
+    public void testRemove() {
+        prefs.saveToSharedPreferences("user_email", "user@example.com");
+
+        writer.remove("user_email");
+        assertEquals("default", writer.getString("user_email", "default"));
+
+        writer.flush();
+        assertFalse(prefs.contains("user_email"));
+    }
+
+    @Test
+    public void testWrittenAfterWindow() throws Exception {
+        TuneSharedPrefsWriter timed = new TuneSharedPrefsWriter(prefs, 50);
+        timed.putString("mat_id", "a");
+        timed.putString("open_log_id", "b");
+
+        Thread.sleep(500);
+        assertEquals(1, prefs.writes);
+        assertEquals("a", prefs.getStringFromSharedPreferences("mat_id", null));
+        timed.shutdown();
+    }
+
+    @Test
+    public void testShutdownWrites() {
+        writer.putString("mat_id", "a");
+        writer.shutdown();
+        assertEquals("a", prefs.getStringFromSharedPreferences("mat_id", null));
+
+        // Once shut down, values are written straight away
+        writer.putString("mat_id", "b");
+        assertEquals(2, prefs.writes);
+        assertEquals("b", prefs.getStringFromSharedPreferences("mat_id", null));
+    }
+}
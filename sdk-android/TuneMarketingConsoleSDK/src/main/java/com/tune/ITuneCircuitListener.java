@@ -0,0 +1,16 @@
+package com.tune;
+
+import com.tune.http.TuneCircuitBreaker;
+
+/**
+ * Optional {@link ITuneListener} that is also told when the circuit breaker around requests to the TUNE server changes state.
+ * This class is used exclusively for testing purposes.
+ */
+public interface ITuneCircuitListener extends ITuneListener {
+    /**
+     * Callback for when the circuit breaker around requests to the TUNE server changes state.
+     * While it is open, queued events are held instead of sent.
+     * @param state New state of the circuit breaker.
+     */
+    void didChangeCircuitState(TuneCircuitBreaker.State state);
+}
@@ -0,0 +1,14 @@
+package com.tune;
+
+/**
+ * Optional {@link ITuneListener} that is also told when queued events are dropped without being sent.
+ * This class is used exclusively for testing purposes.
+ */
+public interface ITuneEvictionListener extends ITuneListener {
+    /**
+     * Callback for when queued events were dropped without being sent, because of the queue limits.
+     * @param count Number of events dropped.
+     * @param reason Why they were dropped, one of the {@code TuneEventQueue.EVICTED_*} reasons.
+     */
+    void didEvictEvents(int count, String reason);
+}
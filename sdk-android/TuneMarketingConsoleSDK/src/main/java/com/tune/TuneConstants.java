@@ -5,6 +5,8 @@ public class TuneConstants {
     public static final String PREFS_TUNE = "com.mobileapptracking";
     // SharedPreferences filename for queued events
     static final String PREFS_QUEUE = "mat_queue";
+    // Directory for the queued events segment log
+    static final String QUEUE_DIRECTORY = "tune_queue";
 
     // Key for install referrer
     static final String KEY_REFERRER = "mat_referrer";
@@ -37,10 +39,16 @@ public class TuneConstants {
 
     // Server domain
     static final String TUNE_DOMAIN = "engine.mobileapptracking.com";
+    // Batch postback path on the server domain
+    static final String BATCH_PATH = "/serve_batch";
     // Deeplink endpoint
     public static final String DEEPLINK_DOMAIN = "deeplink.mobileapptracking.com";
 
     public static final String SERVER_RESPONSE_SUCCESS = "success";
+    public static final String SERVER_RESPONSE_SITE_EVENT_TYPE = "site_event_type";
+    public static final String SERVER_RESPONSE_LOG_ID = "log_id";
+    // Largest server response read, larger responses are treated as failed
+    public static final int MAX_RESPONSE_SIZE = 64 * 1024;
 
     public static final String PREF_UNSET = "0";
     public static final String PREF_SET = "1";
@@ -48,10 +56,36 @@ public class TuneConstants {
     // IS_COPPA Minimum Age restriction (US)
     public static final int COPPA_MINIMUM_AGE = 13;
 
-    // Max number of events to dump when queued
-    static final int MAX_DUMP_SIZE = 50;
-    // Set a network timeout time of 60s
+    // Default max number of events kept in the queue
+    static final int QUEUE_MAX_EVENTS = 50;
+    // Default max total size of events kept in the queue, in bytes
+    static final long QUEUE_MAX_BYTES = 256 * 1024;
+    // Default max age of a queued event before it expires, in milliseconds
+    static final long QUEUE_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+    // Number of queued events sent ahead of a waiting lower priority lane before it gets a turn
+    static final int QUEUE_LANE_BURST = 4;
+    // Queue storage compaction steps run after each drain, and entries moved per step
+    static final int QUEUE_COMPACTION_STEPS = 4;
+    static final int QUEUE_COMPACTION_BATCH = 16;
+    // HTTP status a batch response item carries when the server rejected that event
+    static final int BATCH_ITEM_REJECTED = 400;
+    // Set a network timeout time of 60s, the read timeout of every request and the most an adaptive connect timeout can grow to
     public static final int TIMEOUT = 60000;
+    // Connect timeout before any response time has been measured, and the shortest adaptive connect timeout
+    public static final int TIMEOUT_INITIAL = 15000;
+    public static final int TIMEOUT_MIN = 2000;
+    // Circuit breaker opens when half of the last 10 requests failed, at least 5 of them, and stays open for 30s,
+    // doubling up to 30 minutes while the server keeps failing
+    public static final int CIRCUIT_WINDOW = 10;
+    public static final int CIRCUIT_MIN_REQUESTS = 5;
+    public static final double CIRCUIT_FAILURE_RATE = 0.5;
+    public static final long CIRCUIT_OPEN_TIME = 30 * 1000;
+    public static final long CIRCUIT_MAX_OPEN_TIME = 30 * 60 * 1000;
+    // Longest pause in requests a server's Retry-After or rate limit headers are followed for, a day like the retry ladder
+    public static final long MAX_SERVER_RETRY_DELAY = 24 * 60 * 60 * 1000;
+    // Threads an asynchronous url requester sends requests on, idle ones exit after the keep alive time
+    public static final int REQUEST_THREADS = 4;
+    public static final long REQUEST_THREAD_KEEP_ALIVE = 30 * 1000;
     // First run logic wait time of 1.5s in case Play Referrer lib callback is never invoked
     static final int FIRST_RUN_LOGIC_WAIT_TIME = 2000;
 
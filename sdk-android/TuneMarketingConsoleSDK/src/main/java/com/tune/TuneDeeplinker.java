@@ -3,6 +3,7 @@ package com.tune;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.tune.http.AsyncUrlRequester;
 import com.tune.http.UrlRequester;
 
 import java.util.HashSet;
@@ -116,6 +117,11 @@ public class TuneDeeplinker {
         haveRequestedDeferredDeeplink = true;
 
         final TuneDeeplinkListener listenerRefForNewThread = listener;
+        if (urlRequester instanceof AsyncUrlRequester) {
+            ((AsyncUrlRequester) urlRequester).requestDeeplinkAsync(buildDeferredDeepLinkRequestURL(), conversionKey, listenerRefForNewThread);
+            return;
+        }
+
         new Thread(new Runnable() {
             @Override
             public void run() {
@@ -0,0 +1,89 @@
+package com.tune;
+
+import com.tune.utils.TuneQueryEncoder;
+
+/**
+ * Immutable copy of the device and app parameters that stay the same from event to event, kept as the url-encoded
+ * query fragment they add to every request. {@link TuneParameters} builds a new one after one of them is set,
+ * so building a request only appends the fields that change.
+ */
+final class TuneDeviceSnapshot {
+    private final String fragment;
+    private final int redactionVersion;
+    private final int deviceVersion;
+
+    private TuneDeviceSnapshot(String fragment, int redactionVersion, int deviceVersion) {
+        this.fragment = fragment;
+        this.redactionVersion = redactionVersion;
+        this.deviceVersion = deviceVersion;
+    }
+
+    /**
+     * Reads the parameters. A setter may run meanwhile, so the version must be read before building.
+     * @param params parameters to copy
+     * @param redaction keys to leave out
+     * @param deviceVersion count of changes to the parameters
+     * @return snapshot of the current values
+     */
+    static TuneDeviceSnapshot build(TuneParameters params, TuneRedactionPolicy redaction, int deviceVersion) {
+        // A new encoder, the builder's own may be part way through the request this snapshot is for
+        TuneQueryEncoder query = new TuneQueryEncoder();
+        append(query, redaction, TuneUrlKeys.ANDROID_ID, params.getAndroidId());
+        append(query, redaction, TuneUrlKeys.ANDROID_ID_SHA256, params.getAndroidIdSha256());
+
+        append(query, redaction, TuneUrlKeys.APP_NAME, params.getAppName());
+        append(query, redaction, TuneUrlKeys.APP_VERSION, params.getAppVersion());
+        append(query, redaction, TuneUrlKeys.APP_VERSION_NAME, params.getAppVersionName());
+        append(query, redaction, TuneUrlKeys.COUNTRY_CODE, params.getCountryCode());
+        append(query, redaction, TuneUrlKeys.DEVICE_BRAND, params.getDeviceBrand());
+        append(query, redaction, TuneUrlKeys.DEVICE_BUILD, params.getDeviceBuild());
+        append(query, redaction, TuneUrlKeys.DEVICE_CARRIER, params.getDeviceCarrier());
+        append(query, redaction, TuneUrlKeys.DEVICE_CPU_TYPE, params.getDeviceCpuType());
+        append(query, redaction, TuneUrlKeys.DEVICE_CPU_SUBTYPE, params.getDeviceCpuSubtype());
+        append(query, redaction, TuneUrlKeys.DEVICE_MODEL, params.getDeviceModel());
+        append(query, redaction, TuneUrlKeys.DEVICE_ID, params.getDeviceId());
+        append(query, redaction, TuneUrlKeys.FIRE_AID, params.getFireAdvertisingId());
+        append(query, redaction, TuneUrlKeys.GOOGLE_AID, params.getGoogleAdvertisingId());
+        append(query, redaction, TuneUrlKeys.INSTALL_DATE, params.getInstallDate());
+        append(query, redaction, TuneUrlKeys.INSTALL_BEGIN_TIMESTAMP, params.getInstallBeginTimestampSeconds());
+        append(query, redaction, TuneUrlKeys.REFERRER_CLICK_TIMESTAMP, params.getReferrerClickTimestampSeconds());
+        append(query, redaction, TuneUrlKeys.INSTALLER, params.getInstaller());
+        append(query, redaction, TuneUrlKeys.INSTALL_REFERRER, params.getInstallReferrer());
+        append(query, redaction, TuneUrlKeys.LANGUAGE, params.getLanguage());
+        append(query, redaction, TuneUrlKeys.LOCALE, params.getLocale());
+        append(query, redaction, TuneUrlKeys.MAT_ID, params.getMatId());
+        append(query, redaction, TuneUrlKeys.MOBILE_COUNTRY_CODE, params.getMCC());
+        append(query, redaction, TuneUrlKeys.MOBILE_NETWORK_CODE, params.getMNC());
+        append(query, redaction, TuneUrlKeys.OS_VERSION, params.getOsVersion());
+        append(query, redaction, TuneUrlKeys.SDK_PLUGIN, params.getPluginName());
+        append(query, redaction, TuneUrlKeys.PLATFORM_AID, params.getPlatformAdvertisingId());
+        append(query, redaction, TuneUrlKeys.SCREEN_DENSITY, params.getScreenDensity());
+        append(query, redaction, TuneUrlKeys.SCREEN_LAYOUT_SIZE, params.getScreenWidth() + "x" + params.getScreenHeight());
+        append(query, redaction, TuneUrlKeys.SDK_VERSION, Tune.getSDKVersion());
+        append(query, redaction, TuneUrlKeys.USER_AGENT, params.getUserAgent());
+
+        return new TuneDeviceSnapshot(query.toString(), redaction.getVersion(), deviceVersion);
+    }
+
+    /**
+     * @return the url-encoded parameters, each preceded by '&amp;'
+     */
+    String getQueryFragment() {
+        return fragment;
+    }
+
+    /**
+     * @param redaction the current redaction policy
+     * @param deviceVersion the current count of changes to the parameters
+     * @return true if the snapshot was built with that policy and no parameter has changed since
+     */
+    boolean isBuiltFor(TuneRedactionPolicy redaction, int deviceVersion) {
+        return redactionVersion == redaction.getVersion() && this.deviceVersion == deviceVersion;
+    }
+
+    private static void append(TuneQueryEncoder query, TuneRedactionPolicy redaction, String key, String value) {
+        if (!redaction.isRedacted(key)) {
+            query.appendParameter(key, value);
+        }
+    }
+}
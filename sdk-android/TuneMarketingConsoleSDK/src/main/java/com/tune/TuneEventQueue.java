@@ -2,32 +2,176 @@ package com.tune;
 
 import android.content.Context;
 
+import com.tune.http.AsyncUrlRequester;
+import com.tune.queue.BinaryQueueRecordCodec;
+import com.tune.queue.JsonQueueRecordCodec;
+import com.tune.queue.QueueRecordCodec;
+import com.tune.queue.TuneSegmentLog;
 import com.tune.utils.TuneSharedPrefsDelegate;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class TuneEventQueue {
-    // SharedPreferences for storing events that were not fired
-    private TuneSharedPrefsDelegate eventQueue;
+    /**
+     * What to do when a new event does not fit within the queue limits.
+     */
+    public enum OverflowPolicy {
+        /** Evict the oldest queued events to make room for the new one */
+        DROP_OLDEST,
+        /** Keep the queued events and drop the new one */
+        DROP_NEWEST,
+        /** Keep only the newest queued session, then evict the oldest events if still needed */
+        COLLAPSE_SESSIONS
+    }
+
+    // Priority lanes of queued events, drained in this order
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+    private static final int PRIORITY_LANES = 3;
+
+    // Eviction reasons reported to ITuneEvictionListener#didEvictEvents
+    public static final String EVICTED_OVERFLOW = "overflow";
+    public static final String EVICTED_EXPIRED = "expired";
+    public static final String EVICTED_DUPLICATE_SESSION = "duplicate_session";
+
+    // Segment log for storing events that were not fired, opened on first use
+    private TuneSegmentLog eventQueue;
+    // IDs of the queued events, oldest first. Events are stored under their ID, which never changes.
+    private final TreeSet<Long> queueIds = new TreeSet<>();
+    // IDs of the queued events in each priority lane, oldest first
+    private final List<TreeSet<Long>> laneIds = new ArrayList<>();
+    // IDs of the queued sessions that may be collapsed, oldest first
+    private final TreeSet<Long> sessionIds = new TreeSet<>();
+    // Encoded size of each queued event, and their total, kept so adding an event doesn't read the whole queue
+    private final Map<Long, Integer> recordSizes = new HashMap<>();
+    private long queuedBytes;
+    // ID for the next queued event, also stored under NEXT_ID so IDs are not reused after a restart
+    private long nextId = 1;
+    private static final String NEXT_ID = "next_id";
+    // Size key of the queue format that kept events under their position, 1 to size
+    private static final String LEGACY_QUEUE_SIZE = "queuesize";
+    // Directory holding the segment log
+    private final File queueDirectory;
+    // Legacy SharedPreferences queue, migrated into the segment log when it is first created
+    private final TuneSharedPrefsDelegate legacyQueue;
     
+    // Codec used to store queued events
+    private volatile QueueRecordCodec recordCodec = new BinaryQueueRecordCodec();
+    // Codecs able to read stored events, including the JSON format of earlier SDK versions
+    private final QueueRecordCodec[] readableCodecs = { new BinaryQueueRecordCodec(), new JsonQueueRecordCodec() };
+
     // Binary semaphore for controlling adding to queue/dumping queue
     private Semaphore queueAvailable;
+    // Binary semaphore allowing only one drain at a time, whichever thread it runs on
+    private final Semaphore drainAvailable;
     
     // Instance of tune to make getLink call on (can't use getInstance during testing)
     private TuneInternal tune;
     
-    // current retry timeout, in seconds
-    private static long retryTimeout = 0;
+    // Retry attempt parameter that earlier SDK versions stored in the queued link
+    private static final Pattern LEGACY_RETRY_ATTEMPT = Pattern.compile("&" + TuneUrlKeys.SDK_RETRY_ATTEMPT + "=(\\d+)");
+    // Longest failure description kept on a queued event
+    private static final int MAX_ERROR_LENGTH = 200;
+
+    // Set when connectivity returns, so the next drain also retries events that are backing off
+    private volatile boolean retryScheduledEvents;
+
+    // Queue limits, checked when events are added (count and bytes) and drained (age)
+    private volatile int maxEvents = TuneConstants.QUEUE_MAX_EVENTS;
+    private volatile long maxBytes = TuneConstants.QUEUE_MAX_BYTES;
+    private volatile long maxAge = TuneConstants.QUEUE_MAX_AGE;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    // Total number of events evicted since the queue was created
+    private final AtomicLong evictedEvents = new AtomicLong();
     
     public TuneEventQueue(Context context, TuneInternal tune) {
-        eventQueue = new TuneSharedPrefsDelegate(context, TuneConstants.PREFS_QUEUE);
+        queueDirectory = new File(context.getFilesDir(), TuneConstants.QUEUE_DIRECTORY);
+        legacyQueue = new TuneSharedPrefsDelegate(context, TuneConstants.PREFS_QUEUE);
         queueAvailable = new Semaphore(1, true);
+        drainAvailable = new Semaphore(1);
+        for (int lane = 0; lane < PRIORITY_LANES; lane++) {
+            laneIds.add(new TreeSet<Long>());
+        }
         this.tune = tune;
     }
 
+    /**
+     * Makes the next drain retry every queued event, including those still backing off.
+     */
+    public void retryScheduledEvents() {
+        retryScheduledEvents = true;
+    }
+
+    /**
+     * Sets the codec used to store queued events. Events already stored in another format can still be read.
+     * @param codec queue record codec
+     */
+    public void setRecordCodec(QueueRecordCodec codec) {
+        recordCodec = codec;
+    }
+
+    /**
+     * Sets the limits of the queue. Events over the count or byte limit are handled by the overflow policy
+     * when new events are added; events older than the age limit are dropped instead of sent.
+     * @param maxEvents maximum number of queued events
+     * @param maxBytes maximum total size of queued events, in bytes
+     * @param maxAgeMillis maximum age of a queued event, in milliseconds
+     */
+    public void setLimits(int maxEvents, long maxBytes, long maxAgeMillis) {
+        this.maxEvents = Math.max(1, maxEvents);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxAge = Math.max(0, maxAgeMillis);
+    }
+
+    /**
+     * Sets what to do when a new event does not fit within the queue limits.
+     * @param policy overflow policy
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
+
+    /**
+     * @return total number of events evicted because of the queue limits
+     */
+    public long getEvictedEventCount() {
+        return evictedEvents.get();
+    }
+
+    /**
+     * Decides the priority lane of an event. Installs, purchases and events with revenue go first,
+     * sessions and other routine lifecycle events last.
+     * @param event event being measured
+     * @param firstSession whether this is the first session, which is attributed as the install
+     * @return one of the {@code PRIORITY_*} lanes
+     */
+    static int getPriority(TuneEvent event, boolean firstSession) {
+        String name = event.getEventName();
+        boolean session = TuneEvent.NAME_SESSION.equals(name) || TuneEvent.NAME_OPEN.equals(name) || TuneEvent.NAME_UPDATE.equals(name);
+        if (event.getRevenue() > 0 || TuneEvent.NAME_INSTALL.equals(name) || TuneEvent.PURCHASE.equals(name) || (session && firstSession)) {
+            return PRIORITY_HIGH;
+        }
+        return session ? PRIORITY_LOW : PRIORITY_NORMAL;
+    }
+
     public void acquireLock() throws InterruptedException {
         queueAvailable.acquire();
     }
@@ -35,14 +179,93 @@ public class TuneEventQueue {
     public void releaseLock() {
         queueAvailable.release();
     }
-    
+
+    /**
+     * Returns the queue storage, opening it (and migrating any legacy queue) on first use.
+     * @return the segment log holding queued events
+     */
+    private synchronized TuneSegmentLog getEventQueue() {
+        if (eventQueue == null) {
+            eventQueue = new TuneSegmentLog(queueDirectory);
+            if (eventQueue.size() == 0) {
+                migrateLegacyQueue();
+            }
+            loadQueueIds();
+        }
+        return eventQueue;
+    }
+
     /**
-     * Sets the event queue size to value.
-     * @param size the new queue size
+     * Reads the IDs, lanes and sizes of the stored events. Events stored by position in the earlier format keep
+     * their position as their ID.
      */
-    protected synchronized void setQueueSize(int size) {
-        if (size < 0) size = 0;
-        eventQueue.putInt("queuesize", size);
+    private void loadQueueIds() {
+        long maxId = 0;
+        for (String key : eventQueue.keySet()) {
+            long id = parseId(key);
+            if (id > 0) {
+                JSONObject item = null;
+                try {
+                    item = getQueueItem(key);
+                } catch (JSONException e) {
+                    TuneDebugLog.d("Undecodable queued event " + key);
+                }
+                queueIds.add(id);
+                indexItem(id, item, eventQueue.get(key).length);
+                maxId = Math.max(maxId, id);
+            }
+        }
+        nextId = Math.max(maxId + 1, parseId(eventQueue.getString(NEXT_ID, null)));
+
+        if (eventQueue.contains(LEGACY_QUEUE_SIZE)) {
+            eventQueue.commit(new TuneSegmentLog.Batch()
+                    .putString(NEXT_ID, Long.toString(nextId))
+                    .remove(LEGACY_QUEUE_SIZE));
+        }
+    }
+
+    /**
+     * @param key storage key
+     * @return the event ID stored under the key, or -1 if it is not an event key
+     */
+    private static long parseId(String key) {
+        if (key == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(key);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Copies events queued in SharedPreferences by earlier SDK versions into the segment log.
+     * If the log only holds events in memory they are left in SharedPreferences, to be migrated once it opens.
+     */
+    private void migrateLegacyQueue() {
+        Map<String, ?> legacyItems = legacyQueue.getAll();
+        if (legacyItems.isEmpty()) {
+            return;
+        }
+        if (!eventQueue.isPersistent()) {
+            TuneDebugLog.w("Queue log is not persistent, leaving " + legacyItems.size() + " queue entries in SharedPreferences");
+            return;
+        }
+
+        TuneDebugLog.d("Migrating " + legacyItems.size() + " queue entries from SharedPreferences");
+        TuneSegmentLog.Batch batch = new TuneSegmentLog.Batch();
+        for (Map.Entry<String, ?> item : legacyItems.entrySet()) {
+            Object value = item.getValue();
+            if (value instanceof Integer) {
+                batch.putInt(item.getKey(), (Integer) value);
+            } else if (value instanceof String) {
+                batch.putString(item.getKey(), (String) value);
+            }
+        }
+        // Migrated in one batch, so a crash part-way through leaves the legacy queue to migrate again
+        eventQueue.commit(batch);
+        legacyQueue.clearSharedPreferences();
     }
     
     /**
@@ -50,48 +273,360 @@ public class TuneEventQueue {
      * @return the event queue size
      */
     protected synchronized int getQueueSize() {
-        return eventQueue.getInt("queuesize", 0);
+        getEventQueue();
+        return queueIds.size();
     }
-    
+
     /**
-     * Removes a specific item from the queue.
+     * @return keys of the queued events, oldest first
+     */
+    protected synchronized List<String> getQueueKeys() {
+        getEventQueue();
+        List<String> keys = new ArrayList<>(queueIds.size());
+        for (Long id : queueIds) {
+            keys.add(Long.toString(id));
+        }
+        return keys;
+    }
+
+    /**
+     * Adds an item to the end of the queue.
+     * @param item The item to add.
+     * @return the key of the new item, or null if it could not be stored
+     */
+    protected synchronized String addQueueItem(JSONObject item) {
+        try {
+            return appendRecord(item, recordCodec.encode(item));
+        } catch (IOException e) {
+            TuneDebugLog.w("Failed encoding queued event", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores an encoded item under the next event ID.
+     * @param item item being stored
+     * @param record encoded item
+     * @return the key of the new item
+     */
+    private synchronized String appendRecord(JSONObject item, byte[] record) {
+        TuneSegmentLog queue = getEventQueue();
+        long id = nextId++;
+        String key = Long.toString(id);
+        // ID counter and item are written in one batch, so an ID is never handed out twice
+        queue.commit(new TuneSegmentLog.Batch()
+                .putString(NEXT_ID, Long.toString(nextId))
+                .put(key, record));
+        queueIds.add(id);
+        indexItem(id, item, record.length);
+        return key;
+    }
+
+    /**
+     * Records the lane and size of a queued item, replacing what was recorded for it before.
+     * @param id event ID
+     * @param item queued item, null if it cannot be decoded
+     * @param bytes encoded size of the item
+     */
+    private void indexItem(long id, JSONObject item, int bytes) {
+        unindexItem(id);
+        int lane = PRIORITY_NORMAL;
+        if (item != null) {
+            lane = item.has("priority") ? item.optInt("priority", PRIORITY_NORMAL) : isSession(item) ? PRIORITY_LOW : PRIORITY_NORMAL;
+        }
+        lane = Math.max(0, Math.min(PRIORITY_LANES - 1, lane));
+        laneIds.get(lane).add(id);
+        // High priority sessions, such as the first session, are never collapsed
+        if (item != null && lane != PRIORITY_HIGH && isSession(item)) {
+            sessionIds.add(id);
+        }
+        recordSizes.put(id, bytes);
+        queuedBytes += bytes;
+    }
+
+    /**
+     * Forgets the lane and size of an item no longer queued.
+     * @param id event ID
+     */
+    private void unindexItem(long id) {
+        for (TreeSet<Long> lane : laneIds) {
+            lane.remove(id);
+        }
+        sessionIds.remove(id);
+        Integer bytes = recordSizes.remove(id);
+        if (bytes != null) {
+            queuedBytes -= bytes;
+        }
+    }
+
+    /**
+     * Removes a specific item from the queue. The keys of the other items do not change.
      * @param key The name of the item to remove.
      */
     protected synchronized void removeKeyFromQueue(String key) {
-        setQueueSize(getQueueSize() - 1);
-        eventQueue.remove(key);
+        getEventQueue().remove(key);
+        long id = parseId(key);
+        queueIds.remove(id);
+        unindexItem(id);
     }
 
     /**
-     * Remove all keys from the queue, including the queue size (effectively making the size zero).
+     * Remove all items from the queue. IDs keep counting up from where they were.
      */
     protected synchronized void clearQueue() {
-        eventQueue.clearSharedPreferences();
+        TuneSegmentLog queue = getEventQueue();
+        queue.clear();
+        queueIds.clear();
+        for (TreeSet<Long> lane : laneIds) {
+            lane.clear();
+        }
+        sessionIds.clear();
+        recordSizes.clear();
+        queuedBytes = 0;
+        queue.putString(NEXT_ID, Long.toString(nextId));
     }
-    
+
+    /**
+     * Runs a bounded amount of storage compaction, so space pinned by old log segments is reclaimed
+     * a little at a time after each drain rather than in one long pass.
+     */
+    void compactStorage() {
+        TuneSegmentLog queue = getEventQueue();
+        int step = 0;
+        while (step++ < TuneConstants.QUEUE_COMPACTION_STEPS && queue.compactStep(TuneConstants.QUEUE_COMPACTION_BATCH)) {
+            TuneDebugLog.d("Compacted queue storage, " + queue.segmentCount() + " segments");
+        }
+    }
+
     /**
      * Returns a specific item from the queue, without deleting the item.
      * @param key The name of the item to retrieve.
-     * @return JSONObject of the item
+     * @return JSONObject of the item, null if there is no item for the key
+     * @throws JSONException if the stored item cannot be decoded
      */
-    protected synchronized String getKeyFromQueue(String key) {
-        return eventQueue.getString(key, null);
+    protected synchronized JSONObject getQueueItem(String key) throws JSONException {
+        byte[] bytes = getEventQueue().get(key);
+        if (bytes == null) {
+            return null;
+        }
+
+        for (QueueRecordCodec codec : readableCodecs) {
+            if (codec.canDecode(bytes)) {
+                try {
+                    JSONObject item = codec.decode(bytes);
+                    upgradeEvent(item);
+                    return item;
+                } catch (IOException e) {
+                    throw new JSONException(e.getMessage());
+                }
+            }
+        }
+        throw new JSONException("Unknown queue record format");
     }
     
+    /**
+     * Lists the queue keys in the order they should be drained: higher priority lanes first, oldest first
+     * within a lane. So that a steady stream of higher priority events cannot starve the lower lanes, a lane
+     * that has been passed over for {@link TuneConstants#QUEUE_LANE_BURST} events gets the next turn.
+     * @return queue keys to send
+     */
+    protected synchronized List<String> getDrainOrder() {
+        List<List<String>> lanes = listLanes();
+        List<String> order = new ArrayList<>();
+        int[] passedOver = new int[PRIORITY_LANES];
+        while (true) {
+            // Highest priority lane that is waiting, unless a lower lane has waited its turn
+            int next = -1;
+            for (int lane = 0; lane < PRIORITY_LANES; lane++) {
+                if (lanes.get(lane).isEmpty()) {
+                    continue;
+                }
+                if (next < 0) {
+                    next = lane;
+                } else if (passedOver[lane] >= TuneConstants.QUEUE_LANE_BURST) {
+                    next = lane;
+                    break;
+                }
+            }
+            if (next < 0) {
+                return order;
+            }
+
+            order.add(lanes.get(next).remove(0));
+            passedOver[next] = 0;
+            for (int lane = next + 1; lane < PRIORITY_LANES; lane++) {
+                if (!lanes.get(lane).isEmpty()) {
+                    passedOver[lane]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the queue keys by priority lane, oldest first within each lane.
+     * Items that cannot be decoded are in the normal lane, so the drain finds and drops them.
+     * @return keys in each lane, highest priority lane first
+     */
+    private List<List<String>> listLanes() {
+        getEventQueue();
+        List<List<String>> lanes = new ArrayList<>();
+        for (TreeSet<Long> ids : laneIds) {
+            List<String> keys = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                keys.add(Long.toString(id));
+            }
+            lanes.add(keys);
+        }
+        return lanes;
+    }
+
     /**
      * Sets the values for a particular queue key.
      * @param item The new value for the item.
      * @param key The key to modify.
      */
     protected synchronized void setQueueItemForKey(JSONObject item, String key) {
-        eventQueue.putString(key, item.toString());
+        try {
+            byte[] record = recordCodec.encode(item);
+            getEventQueue().put(key, record);
+            long id = parseId(key);
+            if (queueIds.contains(id)) {
+                indexItem(id, item, record.length);
+            }
+        } catch (IOException e) {
+            TuneDebugLog.w("Failed encoding queued event", e);
+        }
+    }
+
+    /**
+     * Saves changes to an item that is still in the queue. Items evicted meanwhile are not brought back.
+     * @param item The new value for the item.
+     * @param key The key to modify.
+     */
+    protected synchronized void updateQueueItem(JSONObject item, String key) {
+        if (getEventQueue().contains(key)) {
+            setQueueItemForKey(item, key);
+        }
+    }
+
+    /**
+     * @param event queued event
+     * @return true if the event has been queued for longer than the age limit
+     */
+    private boolean isExpired(JSONObject event) {
+        long firstEnqueueTime = event.optLong("first_enqueue_time", 0);
+        return firstEnqueueTime > 0 && System.currentTimeMillis() - firstEnqueueTime > maxAge;
+    }
+
+    /**
+     * @param event queued event
+     * @return true if the event is a session
+     */
+    private static boolean isSession(JSONObject event) {
+        return event.optString("link").contains("&" + TuneUrlKeys.ACTION + "=" + TuneParameters.ACTION_SESSION);
+    }
+
+    /**
+     * Counts evicted events and reports them.
+     * @param count number of events evicted
+     * @param reason why they were evicted
+     */
+    private void evict(int count, String reason) {
+        if (count <= 0) {
+            return;
+        }
+        evictedEvents.addAndGet(count);
+        TuneDebugLog.d("Evicted " + count + " queued events: " + reason);
+        if (tune != null) {
+            tune.reportEvictedEvents(count, reason);
+        }
+    }
+
+    /**
+     * Evicts queued events until an event of the given size fits within the queue limits.
+     * Events in the lowest priority lane are evicted first. Must be called with the queue lock held.
+     * @param newBytes encoded size of the new event
+     * @param newSession whether the new event is a session
+     * @return false if the new event should be dropped instead
+     */
+    private boolean makeRoom(int newBytes, boolean newSession) {
+        getEventQueue();
+        if (queueIds.size() < maxEvents && queuedBytes + newBytes <= maxBytes) {
+            return true;
+        }
+
+        OverflowPolicy policy = overflowPolicy;
+        if (policy == OverflowPolicy.DROP_NEWEST) {
+            evict(1, EVICTED_OVERFLOW);
+            return false;
+        }
+
+        if (policy == OverflowPolicy.COLLAPSE_SESSIONS) {
+            // Keep only the newest session, unless the new event is one
+            int keep = newSession ? 0 : 1;
+            int collapsed = 0;
+            while (sessionIds.size() > keep) {
+                removeKeyFromQueue(Long.toString(sessionIds.first()));
+                collapsed++;
+            }
+            evict(collapsed, EVICTED_DUPLICATE_SESSION);
+        }
+
+        // Evict from the lowest priority lane first, oldest first within a lane
+        int dropped = 0;
+        while (!queueIds.isEmpty() && (queueIds.size() >= maxEvents || queuedBytes + newBytes > maxBytes)) {
+            int lane = PRIORITY_LANES - 1;
+            while (laneIds.get(lane).isEmpty()) {
+                lane--;
+            }
+            removeKeyFromQueue(Long.toString(laneIds.get(lane).first()));
+            dropped++;
+        }
+        evict(dropped, EVICTED_OVERFLOW);
+
+        if (queuedBytes + newBytes > maxBytes) {
+            // The new event is larger than the whole queue may be
+            evict(1, EVICTED_OVERFLOW);
+            return false;
+        }
+        return true;
     }
     
+    /**
+     * Moves the retry attempt of an event queued by an earlier SDK version out of its link and into
+     * the "retry_attempt" field, where it is kept from now on. Events queued without a priority lane
+     * get one from their action.
+     * @param event queued event
+     * @throws JSONException if the event has no link
+     */
+    static void upgradeEvent(JSONObject event) throws JSONException {
+        if (!event.has("priority")) {
+            event.put("priority", isSession(event) ? PRIORITY_LOW : PRIORITY_NORMAL);
+        }
+        if (event.has("retry_attempt")) {
+            return;
+        }
+
+        String link = event.getString("link");
+        int attempt = 0;
+        Matcher matcher = LEGACY_RETRY_ATTEMPT.matcher(link);
+        if (matcher.find()) {
+            try {
+                attempt = Integer.parseInt(matcher.group(1));
+            } catch (NumberFormatException e) {
+                TuneDebugLog.d("Invalid legacy retry attempt in " + link);
+            }
+            event.put("link", matcher.replaceFirst(""));
+        }
+        event.put("retry_attempt", attempt);
+    }
+
     protected class Add implements Runnable {
         private String link = null;
         private String data = null;
         private JSONObject postBody = null;
         private boolean firstSession = false;
+        private int priority = PRIORITY_NORMAL;
         
         /**
          * Saves an event to the queue.
@@ -99,14 +634,16 @@ public class TuneEventQueue {
          * @param data URL data
          * @param postBody the body of the POST request
          * @param firstSession whether event should wait for advertising ID/referrer to be received
+         * @param priority priority lane of the event, one of the {@code PRIORITY_*} lanes
          */
-        protected Add(String link, String data, JSONObject postBody, boolean firstSession) {
+        protected Add(String link, String data, JSONObject postBody, boolean firstSession, int priority) {
             TuneDebugLog.d("Add() created");
 
             this.link = link;
             this.data = data;
             this.postBody = postBody;
             this.firstSession = firstSession;
+            this.priority = priority;
         }
 
         public void run() {
@@ -114,21 +651,33 @@ public class TuneEventQueue {
                 // Acquire semaphore before modifying queue
                 acquireLock();
                 
-                // JSON-serialize the link and json to store in Shared Preferences as a string
+                // Collect the link and json into a record to store in the queue
                 JSONObject jsonEvent = new JSONObject();
                 try {
                     jsonEvent.put("link", link);
                     jsonEvent.put("data", data);
                     jsonEvent.put("post_body", postBody);
                     jsonEvent.put("first_session", firstSession);
+                    jsonEvent.put("priority", priority);
+                    jsonEvent.put("retry_attempt", 0);
+                    jsonEvent.put("first_enqueue_time", System.currentTimeMillis());
                 } catch (JSONException e) {
                     TuneDebugLog.w("Failed creating event for queueing", e);
                     return;
                 }
-                int count = getQueueSize() + 1;
-                setQueueSize(count);
-                String eventIndex = Integer.toString(count);
-                setQueueItemForKey(jsonEvent, eventIndex);
+                byte[] record;
+                try {
+                    record = recordCodec.encode(jsonEvent);
+                } catch (IOException e) {
+                    TuneDebugLog.w("Failed encoding queued event", e);
+                    return;
+                }
+                if (!makeRoom(record.length, isSession(jsonEvent))) {
+                    TuneDebugLog.d("Queue is full, dropping new event");
+                    return;
+                }
+
+                appendRecord(jsonEvent, record);
             } catch (InterruptedException e) {
                 TuneDebugLog.w("Interrupted adding event to queue", e);
             } finally {
@@ -138,129 +687,58 @@ public class TuneEventQueue {
     }
     
     protected class Dump implements Runnable {
+        // Whether to retry events that are still backing off
+        private boolean retryAll;
+        // Earliest time an event left in the queue is due to be retried, in milliseconds
+        private long earliestRetry = Long.MAX_VALUE;
+
         public Dump() {
         }
 
         public void run() {
-            int size = getQueueSize();
-            if (size > 0) {
+            try {
+                drainAvailable.acquire();
+            } catch (InterruptedException e) {
+                TuneDebugLog.d("Dump run Interrupted exception", e);
+                return;
+            }
+
+            try {
+                retryAll = retryScheduledEvents;
+                retryScheduledEvents = false;
+
+                if (tune != null && !tune.isBatchUploadEnabled() && tune.getQueueDrainWindow() > 1) {
+                    dumpWindowed(tune.getQueueDrainWindow());
+                } else {
+                    dumpLocked();
+                }
+
+                // Come back when the first event that is backing off is due
+                if (tune != null && earliestRetry != Long.MAX_VALUE) {
+                    tune.scheduleDumpQueue(Math.max(0, earliestRetry - System.currentTimeMillis()));
+                }
+
+                compactStorage();
+            } finally {
+                drainAvailable.release();
+            }
+        }
+
+        /**
+         * Drains the queue while holding the queue lock, so no events can be added meanwhile.
+         */
+        private void dumpLocked() {
+            if (getQueueSize() > 0) {
                 try {
                     acquireLock();
 
-                    int index = 1;
-                    if (size > TuneConstants.MAX_DUMP_SIZE) {
-                        index = 1 + (size - TuneConstants.MAX_DUMP_SIZE);
+                    // Drain the whole queue; its limits are enforced when events are added
+                    List<String> keys = getDrainOrder();
+                    if (tune != null && tune.isBatchUploadEnabled()) {
+                        dumpBatch(keys);
+                    } else {
+                        dumpSerial(keys);
                     }
-
-                    // Iterate through events and do postbacks for each, using GetLink
-                    for (; index <= size; index++) {
-                        String key = Integer.toString(index);
-                        String eventJson = getKeyFromQueue(key);
-
-                        if (eventJson != null) {
-                            String link = null;
-                            String data = null;
-                            JSONObject postBody = null;
-                            boolean firstSession = false;
-                            try {
-                                // De-serialize the stored string from the queue to get URL and json values
-                                JSONObject event = new JSONObject(eventJson);
-                                link = event.getString("link");
-                                data = event.getString("data");
-                                postBody = event.getJSONObject("post_body");
-                                firstSession = event.getBoolean("first_session");
-                            } catch (JSONException e) {
-                                TuneDebugLog.d("Dump run exception", e);
-
-                                // Can't rebuild saved request, remove from queue and return
-                                removeKeyFromQueue(key);
-                                return;
-                            }
-
-                            // For first session, try to wait for Google AID and install referrer before sending
-                            if (firstSession) {
-                                tune.waitForFirstRunData(TuneConstants.FIRST_RUN_LOGIC_WAIT_TIME);
-                            }
-
-                            if (tune != null) {
-                                boolean success = tune.makeRequest(link, data, postBody);
-
-                                if (success) {
-                                    removeKeyFromQueue(key);
-                                    retryTimeout = 0; // reset retry timeout after success
-                                } else {
-                                    // repeat this call
-                                    index--;
-                                    // update retry parameter
-                                    // maybe try a regex parse instead...
-                                    final String paramString = "&" + TuneUrlKeys.SDK_RETRY_ATTEMPT + "=";
-                                    int retryStart = link.indexOf(paramString);
-                                    if (retryStart > 0) {
-                                        // find the longest substring that legally parses as an int
-                                        int attempt = -1;
-                                        int parseStart = retryStart + paramString.length();
-                                        int parseEnd = parseStart + 1;
-                                        while (true) {
-                                            String attemptString = null;
-                                            try {
-                                                attemptString = link.substring(parseStart, parseEnd);
-                                            } catch (StringIndexOutOfBoundsException e) {
-                                                break; // use last successfully parsed value
-                                            }
-                                            try {
-                                                attempt = Integer.parseInt(attemptString);
-                                                parseEnd++;
-                                            } catch (NumberFormatException e) {
-                                                break; // use last successfully parsed value
-                                            }
-                                        }
-                                        attempt++;
-                                        // 'attempt' will always be at least 0 here
-                                        link = link.replaceFirst(paramString + "\\d+", paramString + attempt);
-
-                                        // save updated link back to queue
-                                        try {
-                                            JSONObject event = new JSONObject(eventJson);
-                                            event.put("link", link);
-                                            setQueueItemForKey(event, key);
-                                        } catch (JSONException e) {
-                                            // error saving modified retry parameter, ignore
-                                            TuneDebugLog.d("Dump run exception saving retry parameter");
-                                        }
-                                    }
-                                    // choose new retry timeout, in seconds
-                                    if (retryTimeout == 0) {
-                                        retryTimeout = 30;
-                                    } else if (retryTimeout <= 30) {
-                                        retryTimeout = 90;
-                                    } else if (retryTimeout <= 90) {
-                                        retryTimeout = 10 * 60;
-                                    } else if (retryTimeout <= 10 * 60) {
-                                        retryTimeout = 60 * 60;
-                                    } else if (retryTimeout <= 60 * 60) {
-                                        retryTimeout = 6 * 60 * 60;
-                                    } else {
-                                        retryTimeout = 24 * 60 * 60;
-                                    }
-                                    // randomize and convert to milliseconds
-                                    double timeoutMs = (1 + 0.1 * Math.random()) * retryTimeout * 1000.;
-                                    // sleep this thread for awhile
-                                    try {
-                                        TuneDebugLog.d("Dump() Sleeping " + timeoutMs + " milliseconds");
-                                        Thread.sleep((long) timeoutMs);
-                                    } catch (InterruptedException e) {
-                                    }
-                                }
-                            } else {
-                                TuneDebugLog.d("Dropping queued request because no TUNE object was found");
-                                removeKeyFromQueue(key);
-                            }
-                        } else {
-                            // eventJson null, queued event value was lost somehow
-                            TuneDebugLog.d("Null request skipped from queue");
-                            removeKeyFromQueue(key);
-                        }
-                    } // for each item in queue
                 } catch (InterruptedException e) {
                     TuneDebugLog.d("Dump run Interrupted exception", e);
                 } finally {
@@ -268,6 +746,393 @@ public class TuneEventQueue {
                 }
             }
         }
-        
+
+        /**
+         * Sends each queued event that is due in its own request, in order.
+         * @param keys queue keys to send, in drain order
+         */
+        private void dumpSerial(List<String> keys) {
+            // Iterate through events and do postbacks for each, using GetLink
+            for (String key : keys) {
+                JSONObject event;
+                String link = null;
+                String data = null;
+                JSONObject postBody = null;
+                boolean firstSession = false;
+                try {
+                    // Decode the stored record from the queue to get URL and json values
+                    event = getQueueItem(key);
+                    if (event != null) {
+                        link = event.getString("link");
+                        data = event.getString("data");
+                        postBody = event.getJSONObject("post_body");
+                        firstSession = event.getBoolean("first_session");
+                    }
+                } catch (JSONException e) {
+                    TuneDebugLog.d("Dump run exception", e);
+
+                    // Can't rebuild saved request, remove from queue and return
+                    removeKeyFromQueue(key);
+                    return;
+                }
+
+                if (event != null) {
+                    if (discardIfExpired(key, event) || !isDue(event)) {
+                        continue;
+                    }
+
+                    if (isHoldingRequests()) {
+                        return;
+                    }
+
+                    if (tune != null) {
+                        // For first session, try to wait for Google AID and install referrer before sending
+                        if (firstSession) {
+                            tune.waitForFirstRunData(TuneConstants.FIRST_RUN_LOGIC_WAIT_TIME);
+                        }
+
+                        link = TuneUrlBuilder.appendRetryAttempt(link, event.optInt("retry_attempt"));
+                        String fullLink = tune.prepareRequest(link, data, postBody);
+                        JSONObject response = tune.sendRequest(fullLink, postBody);
+
+                        if (tune.processResponse(link, fullLink, response)) {
+                            removeKeyFromQueue(key);
+                        } else {
+                            // leave it in place and move on to the next event
+                            scheduleRetry(key, event, describeFailure(response));
+                        }
+                    } else {
+                        TuneDebugLog.d("Dropping queued request because no TUNE object was found");
+                        removeKeyFromQueue(key);
+                    }
+                } else {
+                    // event null, queued event value was lost somehow
+                    TuneDebugLog.d("Null request skipped from queue");
+                }
+            } // for each item in queue
+        }
+
+        /**
+         * Sends the queued events that are due together in one batch request.
+         * @param queueKeys queue keys to send, in drain order
+         */
+        private void dumpBatch(List<String> queueKeys) {
+            List<String> keys = new ArrayList<>();
+            List<JSONObject> events = new ArrayList<>();
+            boolean firstSession = false;
+
+            for (String key : queueKeys) {
+                try {
+                    JSONObject event = getQueueItem(key);
+                    if (event == null) {
+                        // queued event value was lost somehow
+                        TuneDebugLog.d("Null request skipped from queue");
+                        continue;
+                    }
+
+                    // Make sure the saved request can be rebuilt before batching it
+                    event.getString("link");
+                    event.getString("data");
+                    event.getJSONObject("post_body");
+
+                    if (!discardIfExpired(key, event) && isDue(event)) {
+                        firstSession |= event.getBoolean("first_session");
+                        keys.add(key);
+                        events.add(event);
+                    }
+                } catch (JSONException e) {
+                    TuneDebugLog.d("Dump batch exception", e);
+                    removeKeyFromQueue(key);
+                }
+            }
+
+            if (keys.isEmpty()) {
+                return;
+            }
+
+            if (tune == null) {
+                TuneDebugLog.d("Dropping queued requests because no TUNE object was found");
+                for (String key : keys) {
+                    removeKeyFromQueue(key);
+                }
+                return;
+            }
+
+            // For first session, try to wait for Google AID and install referrer before sending
+            if (firstSession) {
+                tune.waitForFirstRunData(TuneConstants.FIRST_RUN_LOGIC_WAIT_TIME);
+            }
+
+            if (isHoldingRequests()) {
+                return;
+            }
+
+            boolean[] removeFromQueue = tune.makeBatchRequest(events);
+            for (int i = 0; i < keys.size(); i++) {
+                if (removeFromQueue[i]) {
+                    removeKeyFromQueue(keys.get(i));
+                } else {
+                    scheduleRetry(keys.get(i), events.get(i), "Batch request failed");
+                }
+            }
+        }
+
+        /**
+         * Sends the queued events that are due with up to {@code window} requests in flight at once.
+         * The queue lock is not held while requests are in flight, so events can still be added.
+         * @param window maximum number of concurrent requests
+         */
+        private void dumpWindowed(int window) {
+            List<String> keys = getDrainOrder();
+            if (!keys.isEmpty()) {
+                sendWindow(keys, window);
+            }
+        }
+
+        /**
+         * Sends one pass over the given queue keys, keeping up to {@code window} requests in flight.
+         * Responses are handled on the calling thread as they complete.
+         * @param keys queue keys to send
+         * @param window maximum number of concurrent requests
+         */
+        private void sendWindow(List<String> keys, int window) {
+            BlockingQueue<PendingRequest> completed = new LinkedBlockingQueue<>();
+            int inFlight = 0;
+
+            try {
+                Iterator<String> pending = keys.iterator();
+                while (pending.hasNext() || inFlight > 0) {
+                    // Fill the window
+                    while (inFlight < window && pending.hasNext() && !isHoldingRequests()) {
+                        PendingRequest request = prepare(pending.next());
+                        if (request != null) {
+                            request.send(completed);
+                            inFlight++;
+                        }
+                    }
+
+                    if (inFlight == 0) {
+                        break;
+                    }
+
+                    PendingRequest done = completed.take();
+                    inFlight--;
+
+                    if (tune.processResponse(done.link, done.fullLink, done.response)) {
+                        removeKeyFromQueue(done.key);
+                    } else {
+                        scheduleRetry(done.key, done.event, describeFailure(done.response));
+                    }
+                }
+            } catch (InterruptedException e) {
+                TuneDebugLog.d("Dump window Interrupted exception", e);
+            }
+        }
+
+        /**
+         * Reads a queued event and prepares its request.
+         * @param key queue key of the event
+         * @return the request to send, or null if the event was dropped from the queue or is not due yet
+         */
+        private PendingRequest prepare(String key) {
+            JSONObject event;
+            String link;
+            String data;
+            JSONObject postBody;
+            boolean firstSession;
+            try {
+                // Decode the stored record from the queue to get URL and json values
+                event = getQueueItem(key);
+                if (event == null) {
+                    // queued event value was lost somehow
+                    TuneDebugLog.d("Null request skipped from queue");
+                    return null;
+                }
+                link = event.getString("link");
+                data = event.getString("data");
+                postBody = event.getJSONObject("post_body");
+                firstSession = event.getBoolean("first_session");
+            } catch (JSONException e) {
+                TuneDebugLog.d("Dump window exception", e);
+
+                // Can't rebuild saved request, remove from queue
+                removeKeyFromQueue(key);
+                return null;
+            }
+
+            if (discardIfExpired(key, event) || !isDue(event)) {
+                return null;
+            }
+
+            if (tune == null) {
+                TuneDebugLog.d("Dropping queued request because no TUNE object was found");
+                removeKeyFromQueue(key);
+                return null;
+            }
+
+            // For first session, try to wait for Google AID and install referrer before sending
+            if (firstSession) {
+                tune.waitForFirstRunData(TuneConstants.FIRST_RUN_LOGIC_WAIT_TIME);
+            }
+
+            link = TuneUrlBuilder.appendRetryAttempt(link, event.optInt("retry_attempt"));
+            return new PendingRequest(key, event, link, tune.prepareRequest(link, data, postBody), postBody);
+        }
+
+        /**
+         * Checks whether requests are being held back, because the server asked for a pause or the circuit breaker
+         * is open, noting when to come back if they are.
+         * @return true if the rest of the queue should be left until requests are sent again
+         */
+        private boolean isHoldingRequests() {
+            long delay = tune != null ? tune.getRequestRetryDelay() : 0;
+            if (delay <= 0) {
+                return false;
+            }
+            TuneDebugLog.d("Requests held back, holding queued events for " + delay + " milliseconds");
+            earliestRetry = Math.min(earliestRetry, System.currentTimeMillis() + delay);
+            return true;
+        }
+
+        /**
+         * Drops a queued event that is older than the age limit instead of sending it.
+         * @param key queue key of the event
+         * @param event queued event
+         * @return true if the event expired and was removed from the queue
+         */
+        private boolean discardIfExpired(String key, JSONObject event) {
+            if (!isExpired(event)) {
+                return false;
+            }
+            removeKeyFromQueue(key);
+            evict(1, EVICTED_EXPIRED);
+            return true;
+        }
+
+        /**
+         * Checks whether a queued event should be sent in this drain, noting when it is due otherwise.
+         * @param event queued event
+         * @return true if the event is not backing off, or backing off is being skipped
+         */
+        private boolean isDue(JSONObject event) {
+            long nextAttempt = event.optLong("next_attempt", 0);
+            if (retryAll || nextAttempt <= System.currentTimeMillis()) {
+                return true;
+            }
+            earliestRetry = Math.min(earliestRetry, nextAttempt);
+            return false;
+        }
+
+        /**
+         * Records a failed attempt on a queued event, moves it to the next step of its retry timeout ladder
+         * and saves it back to the queue. While requests are held back, because the server asked for a pause
+         * or the circuit breaker is open, the event is retried as soon as they are let through instead.
+         * @param key queue key of the event
+         * @param event the queued event
+         * @param error description of the failure
+         */
+        private void scheduleRetry(String key, JSONObject event, String error) {
+            long nextAttempt;
+            long retryTimeout = event.optLong("retry_timeout", 0);
+            long heldFor = tune != null ? tune.getRequestRetryDelay() : 0;
+            if (heldFor > 0) {
+                // Come back exactly when requests are let through again, without moving up the ladder
+                nextAttempt = System.currentTimeMillis() + heldFor;
+                TuneDebugLog.d("Dump() Retrying held back event in " + heldFor + " milliseconds");
+            } else {
+                // choose new retry timeout, in seconds
+                retryTimeout = nextRetryTimeout(retryTimeout);
+                // randomize and convert to milliseconds
+                double timeoutMs = (1 + 0.1 * Math.random()) * retryTimeout * 1000.;
+                nextAttempt = System.currentTimeMillis() + (long) timeoutMs;
+                TuneDebugLog.d("Dump() Retrying event in " + timeoutMs + " milliseconds");
+            }
+
+            // save retry metadata back to queue
+            try {
+                event.put("retry_attempt", event.optInt("retry_attempt") + 1);
+                event.put("last_error", error);
+                event.put("retry_timeout", retryTimeout);
+                event.put("next_attempt", nextAttempt);
+                updateQueueItem(event, key);
+            } catch (JSONException e) {
+                // error saving modified retry parameter, ignore
+                TuneDebugLog.d("Dump run exception saving retry parameter");
+            }
+            earliestRetry = Math.min(earliestRetry, nextAttempt);
+        }
+
+        /**
+         * @param retryTimeout current retry timeout of an event, in seconds, 0 if it has not failed yet
+         * @return the next step up the retry timeout ladder, in seconds
+         */
+        private long nextRetryTimeout(long retryTimeout) {
+            if (retryTimeout == 0) {
+                retryTimeout = 30;
+            } else if (retryTimeout <= 30) {
+                retryTimeout = 90;
+            } else if (retryTimeout <= 90) {
+                retryTimeout = 10 * 60;
+            } else if (retryTimeout <= 10 * 60) {
+                retryTimeout = 60 * 60;
+            } else if (retryTimeout <= 60 * 60) {
+                retryTimeout = 6 * 60 * 60;
+            } else {
+                retryTimeout = 24 * 60 * 60;
+            }
+            return retryTimeout;
+        }
+
+        /**
+         * @param response server response to a failed request
+         * @return short description of the failure
+         */
+        private String describeFailure(JSONObject response) {
+            if (response == null || response.length() == 0) {
+                return "No response";
+            }
+            String description = response.toString();
+            return description.length() > MAX_ERROR_LENGTH ? description.substring(0, MAX_ERROR_LENGTH) : description;
+        }
+    }
+
+    /**
+     * A queued event request sent by a windowed drain.
+     */
+    private class PendingRequest {
+        private final String key;
+        private final JSONObject event;
+        private final String link;
+        private final String fullLink;
+        private final JSONObject postBody;
+        private volatile JSONObject response;
+
+        PendingRequest(String key, JSONObject event, String link, String fullLink, JSONObject postBody) {
+            this.key = key;
+            this.event = event;
+            this.link = link;
+            this.fullLink = fullLink;
+            this.postBody = postBody;
+        }
+
+        /**
+         * Starts sending the request, adding it to the given queue once the response is in.
+         * @param completed queue of requests whose responses are in
+         */
+        void send(final BlockingQueue<PendingRequest> completed) {
+            try {
+                tune.sendRequestAsync(fullLink, postBody, new AsyncUrlRequester.Callback() {
+                    @Override
+                    public void onResponse(JSONObject result) {
+                        response = result;
+                        completed.add(PendingRequest.this);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down, leave the event queued for retry
+                response = new JSONObject();
+                completed.add(this);
+            }
+        }
     }
 }
@@ -5,12 +5,16 @@ import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.res.Configuration;
 import android.location.Location;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
@@ -19,6 +23,10 @@ import android.support.annotation.Nullable;
 import android.util.Patterns;
 import android.widget.Toast;
 
+import com.tune.http.AsyncUrlRequester;
+import com.tune.http.BatchUrlRequester;
+import com.tune.http.TuneCircuitBreaker;
+import com.tune.http.TuneHttp2UrlRequester;
 import com.tune.http.TuneUrlRequester;
 import com.tune.http.UrlRequester;
 import com.tune.integrations.facebook.TuneFBBridge;
@@ -35,11 +43,23 @@ import java.lang.ref.WeakReference;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * @author andyp@tune.com
@@ -75,6 +95,14 @@ public class TuneInternal implements ITune {
 
     // Interface for making url requests
     private UrlRequester urlRequester;
+    // Opens TLS connections with a session cache kept on disk, so handshakes resume sessions from earlier launches
+    private SSLSocketFactory sslSocketFactory;
+    // Whether queued events are uploaded together in batch requests
+    private volatile boolean batchUpload;
+    // Whether requests are sent compressed
+    private volatile boolean compressRequests;
+    // Number of queued requests the drain keeps in flight at once
+    private volatile int queueDrainWindow = 1;
     // Encryptor for url
     private TuneEncryption encryption;
     // Interface for reading platform response to tracking calls
@@ -95,6 +123,9 @@ public class TuneInternal implements ITune {
     // Time that SDK was initialized
     private long initTime;
 
+    // Milliseconds from init until the server first answered a postback, -1 until it has
+    private final AtomicLong timeToFirstPostback = new AtomicLong(-1);
+
     // TODO: REFACTOR into FirstRun Logic
     // Time SDK last measuredSession
     protected long timeLastMeasuredSession;
@@ -104,6 +135,32 @@ public class TuneInternal implements ITune {
 
     // Thread pool for running the request Runnables
     private final ExecutorService pool;
+    // Thread for running windowed queue drains, so that adding to the queue is not blocked by them
+    private final ExecutorService drainPool;
+    // Threads sending asynchronous requests through a UrlRequester that can only block, and connecting ahead of them
+    private final ThreadPoolExecutor requestPool;
+    // Timer for waking the queue drain when the next queued event is due to be retried
+    private final ScheduledExecutorService retryScheduler;
+    // Pending retry wakeup, if any
+    private ScheduledFuture<?> scheduledDump;
+
+    // Saves parameters set in the last moments when the app goes to the background, where it can be killed
+    private final ComponentCallbacks2 backgroundCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN && params != null) {
+                params.flush();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    };
 
     private static volatile TuneInternal sTuneInstance = null;
 
@@ -120,6 +177,19 @@ public class TuneInternal implements ITune {
 
         mApplicationReference = new WeakReference<>(applicationContext);
         pool = Executors.newSingleThreadExecutor();
+        drainPool = Executors.newSingleThreadExecutor();
+        // Requests beyond the thread count wait in the queue, as they do in TuneUrlRequester
+        requestPool = new ThreadPoolExecutor(TuneConstants.REQUEST_THREADS, TuneConstants.REQUEST_THREADS,
+                TuneConstants.REQUEST_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "TuneRequest");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        requestPool.allowCoreThreadTimeOut(true);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor();
         firstRunLogic = new TuneFirstRunLogic();
 
         // Create a default TuneListener
@@ -175,6 +245,18 @@ public class TuneInternal implements ITune {
             }
 
             pubQueue.shutdownNow();
+            drainPool.shutdownNow();
+            requestPool.shutdownNow();
+            retryScheduler.shutdownNow();
+
+            if (urlRequester instanceof TuneUrlRequester) {
+                ((TuneUrlRequester) urlRequester).shutdown();
+            }
+
+            Context context = mApplicationReference.get();
+            if (context != null) {
+                context.unregisterComponentCallbacks(backgroundCallbacks);
+            }
         } else {
             TuneDebugLog.d("Tune already shut down");
         }
@@ -235,15 +317,24 @@ public class TuneInternal implements ITune {
         // Apply the package name to the rest of the SDK
         applyPackageName(packageName);
 
+        sslSocketFactory = SSLCertificateSocketFactory.getDefault(TuneConstants.TIMEOUT, new SSLSessionCache(context));
+
         initLocalVariables(conversionKey);
 
         eventQueue = new TuneEventQueue(context, this);
 
+        prewarmConnection();
+
         // Set up connectivity listener so we dump the queue when re-connected to Internet
         BroadcastReceiver networkStateReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 if (isRegistered) {
+                    // Requests on the new network get timeouts estimated for that network
+                    params.updateConnectionType(context);
+                    configureUrlRequester();
+                    // Don't make events that failed while offline wait out their back-off
+                    eventQueue.retryScheduledEvents();
                     dumpQueue();
                 }
             }
@@ -263,18 +354,43 @@ public class TuneInternal implements ITune {
         context.registerReceiver(networkStateReceiver, filter);
         isRegistered = true;
 
+        context.registerComponentCallbacks(backgroundCallbacks);
+
         if (!params.hasInstallFlagBeenSet()) {
             isFirstInstall = true;
             params.setInstallFlag();
         }
     }
 
+    /**
+     * Connects to the engine in the background while the app starts up, so the first postback
+     * doesn't wait for the DNS lookup and the TCP and TLS handshakes.
+     */
+    private void prewarmConnection() {
+        if (!(urlRequester instanceof TuneUrlRequester) || !isOnline()) {
+            return;
+        }
+        final TuneUrlRequester requester = (TuneUrlRequester) urlRequester;
+        final String url = TuneUrlBuilder.buildEngineLink(params);
+        try {
+            requestPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    requester.prewarm(url);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            TuneDebugLog.d("Tune is shut down, not connecting ahead of requests");
+        }
+    }
+
     /**
      * Initialize class variables.
      * @param key the conversion key
      */
     private void initLocalVariables(String key) {
         urlRequester = new TuneUrlRequester();
+        configureUrlRequester();
         encryption = new TuneEncryption(key.trim(), IV);
 
         initTime = System.currentTimeMillis();
@@ -315,12 +431,16 @@ public class TuneInternal implements ITune {
     }
 
     protected synchronized void addEventToQueue(String link, String data, JSONObject postBody, boolean firstSession) {
+        addEventToQueue(link, data, postBody, firstSession, TuneEventQueue.PRIORITY_NORMAL);
+    }
+
+    protected synchronized void addEventToQueue(String link, String data, JSONObject postBody, boolean firstSession, int priority) {
         synchronized (pool) {
             if (pool.isShutdown()) {
                 return;
             }
 
-            pool.execute(eventQueue.new Add(link, data, postBody, firstSession));
+            pool.execute(eventQueue.new Add(link, data, postBody, firstSession, priority));
         }
     }
 
@@ -334,7 +454,47 @@ public class TuneInternal implements ITune {
                 return;
             }
 
-            pool.execute(eventQueue.new Dump());
+            if (queueDrainWindow > 1) {
+                // Hand off through the pool so the drain sees every event added before this call
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!drainPool.isShutdown()) {
+                            drainPool.execute(eventQueue.new Dump());
+                        }
+                    }
+                });
+            } else {
+                pool.execute(eventQueue.new Dump());
+            }
+        }
+    }
+
+    /**
+     * Drains the queue again after the given delay, when a queued event is due to be retried.
+     * An earlier pending wakeup is kept.
+     * @param delayMillis delay in milliseconds
+     */
+    void scheduleDumpQueue(long delayMillis) {
+        synchronized (pool) {
+            if (pool.isShutdown()) {
+                return;
+            }
+
+            if (scheduledDump != null && !scheduledDump.isDone()) {
+                if (scheduledDump.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+                    return;
+                }
+                scheduledDump.cancel(false);
+            }
+
+            TuneDebugLog.d("Queue drain scheduled in " + delayMillis + " milliseconds");
+            scheduledDump = retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    dumpQueue();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -370,6 +530,7 @@ public class TuneInternal implements ITune {
      */
     public void setListener(ITuneListener listener) {
         tuneListener = listener;
+        configureUrlRequester();
     }
 
     protected void setTestRequest(final TuneTestRequest request) {
@@ -479,7 +640,7 @@ public class TuneInternal implements ITune {
                     tuneRequest.constructedRequest(link, data, postBody);
                 }
 
-                addEventToQueue(link, data, postBody, firstSession);
+                addEventToQueue(link, data, postBody, firstSession, TuneEventQueue.getPriority(eventData, firstSession));
                 // Mark firstSession false
                 firstSession = false;
                 dumpQueue();
@@ -498,7 +659,6 @@ public class TuneInternal implements ITune {
         TuneDebugLog.d("Sending event to server...");
 
         final boolean removeRequestFromQueue = true;
-        final boolean retryRequestInQueue = false;
 
         if (link == null) { // This is an internal method and link should always be set, but for customer stability we will prevent NPEs
             TuneDebugLog.e("CRITICAL internal Tune request link is null");
@@ -506,6 +666,20 @@ public class TuneInternal implements ITune {
             return removeRequestFromQueue;
         }
 
+        String fullLink = prepareRequest(link, data, postBody);
+        JSONObject response = sendRequest(fullLink, postBody);
+
+        return processResponse(link, fullLink, response);
+    }
+
+    /**
+     * Encrypts the request data and notifies the listener that the request is being sent.
+     * @param link Url address
+     * @param data Url data to encrypt
+     * @param postBody Request POST body
+     * @return Url address with encrypted data
+     */
+    String prepareRequest(String link, String data, JSONObject postBody) {
         updateLocation(); // If location not set before sending, try to get location again
 
         String encData = TuneUrlBuilder.updateAndEncryptData(params, data, encryption);
@@ -515,7 +689,127 @@ public class TuneInternal implements ITune {
             tuneListener.enqueuedRequest(fullLink, postBody);
         }
 
-        JSONObject response = urlRequester.requestUrl(fullLink, postBody, debugMode);
+        return fullLink;
+    }
+
+    /**
+     * Sends a prepared request to the server.  This may be called from several threads at once.
+     * @param fullLink Url address with encrypted data
+     * @param postBody Request POST body
+     * @return server response, see {@link UrlRequester#requestUrl(String, JSONObject, boolean)}
+     */
+    JSONObject sendRequest(String fullLink, JSONObject postBody) {
+        return urlRequester.requestUrl(fullLink, postBody, debugMode);
+    }
+
+    /**
+     * Starts sending a prepared request to the server without blocking.
+     * Requests go through {@link AsyncUrlRequester#requestUrlAsync} when the current {@link UrlRequester} supports it,
+     * and are otherwise sent on a thread of our own.
+     * @param fullLink Url address with encrypted data
+     * @param postBody Request POST body
+     * @param callback notified with the server response when the request completes
+     * @return future of the server response, see {@link UrlRequester#requestUrl(String, JSONObject, boolean)}
+     */
+    Future<JSONObject> sendRequestAsync(final String fullLink, final JSONObject postBody, final AsyncUrlRequester.Callback callback) {
+        final UrlRequester requester = urlRequester;
+        if (requester instanceof AsyncUrlRequester) {
+            return ((AsyncUrlRequester) requester).requestUrlAsync(fullLink, postBody, debugMode, callback);
+        }
+
+        return requestPool.submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() {
+                JSONObject response = new JSONObject(); // retry if the requester throws
+                try {
+                    response = requester.requestUrl(fullLink, postBody, debugMode);
+                } finally {
+                    callback.onResponse(response);
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Helper function for sending several queued requests in one batch request.
+     * @param events queued events, each with "link", "data" and "post_body" values
+     * @return for each event, true if it was handled and should be removed from the queue
+     */
+    protected boolean[] makeBatchRequest(List<JSONObject> events) {
+        TuneDebugLog.d("Sending batch of " + events.size() + " events to server...");
+
+        boolean[] removeFromQueue = new boolean[events.size()];
+        String[] links = new String[events.size()];
+        String[] fullLinks = new String[events.size()];
+        JSONArray requests = new JSONArray();
+
+        for (int i = 0; i < events.size(); i++) {
+            JSONObject event = events.get(i);
+            String link = event.optString("link", null);
+            if (link == null) { // This is an internal method and link should always be set, but for customer stability we will prevent NPEs
+                TuneDebugLog.e("CRITICAL internal Tune request link is null");
+                safeReportFailureToTuneListener("", "Internal Tune request link is null");
+                removeFromQueue[i] = true;
+                continue;
+            }
+
+            links[i] = TuneUrlBuilder.appendRetryAttempt(link, event.optInt("retry_attempt"));
+            JSONObject postBody = event.optJSONObject("post_body");
+            fullLinks[i] = prepareRequest(links[i], event.optString("data"), postBody);
+
+            try {
+                JSONObject request = new JSONObject();
+                request.put("link", fullLinks[i]);
+                if (postBody != null && postBody.length() > 0) {
+                    request.put("post_body", postBody);
+                }
+                request.put("index", i);
+                requests.put(request);
+            } catch (JSONException e) {
+                TuneDebugLog.e("Could not add event to batch request", e);
+            }
+        }
+
+        if (requests.length() == 0) {
+            return removeFromQueue;
+        }
+
+        JSONArray responses = ((BatchUrlRequester) urlRequester).requestBatch(getBatchEndpoint(), requests, debugMode);
+
+        // The server may answer out of order or leave items out, so responses are matched by the index they carry
+        Map<Integer, JSONObject> responsesByIndex = new HashMap<>();
+        for (int i = 0; responses != null && i < responses.length(); i++) {
+            JSONObject response = responses.optJSONObject(i);
+            if (response != null && response.has("index")) {
+                responsesByIndex.put(response.optInt("index"), response);
+            }
+        }
+
+        for (int i = 0; i < requests.length(); i++) {
+            int index = requests.optJSONObject(i).optInt("index");
+            JSONObject response = responsesByIndex.get(index);
+            if (response == null) {
+                response = new JSONObject(); // no response for this item, retry it
+            } else if (response.optInt("status") == TuneConstants.BATCH_ITEM_REJECTED) {
+                response = null; // rejected by *our server*, do not retry
+            }
+            removeFromQueue[index] = processResponse(links[index], fullLinks[index], response);
+        }
+
+        return removeFromQueue;
+    }
+
+    /**
+     * Handles the server response to a request, notifying the listener.
+     * @param link Url address
+     * @param fullLink Url address with encrypted data
+     * @param response server response, null if the server rejected the request
+     * @return true if the request was handled and should be removed from queue
+     */
+    boolean processResponse(String link, String fullLink, JSONObject response) {
+        final boolean removeRequestFromQueue = true;
+        final boolean retryRequestInQueue = false;
 
         if (response == null) { // The only way we get null from TuneUrlRequester is if *our server* returned HTTP 400. Do not retry.
             safeReportFailureToTuneListener(fullLink, "Error 400 response from Tune");
@@ -528,6 +822,8 @@ public class TuneInternal implements ITune {
             return retryRequestInQueue;
         }
 
+        recordFirstPostback();
+
         checkForExpandedTuneLinks(link, response);
 
         // notify tuneListener of success or failure
@@ -546,6 +842,23 @@ public class TuneInternal implements ITune {
         return removeRequestFromQueue;
     }
 
+    /**
+     * Records how long after init the server first answered a postback, the delay a first launch sees before it is measured.
+     */
+    private void recordFirstPostback() {
+        long elapsed = System.currentTimeMillis() - initTime;
+        if (timeToFirstPostback.compareAndSet(-1, elapsed)) {
+            TuneDebugLog.i("Time to first postback: " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * @return milliseconds from init until the server first answered a postback, -1 if it has not yet
+     */
+    public long getTimeToFirstPostback() {
+        return timeToFirstPostback.get();
+    }
+
     private void safeReportSuccessOrFailureToTuneListener(String url, JSONObject response, boolean success) {
         if (success) {
             safeReportSuccessToTuneListener(url, response);
@@ -566,6 +879,32 @@ public class TuneInternal implements ITune {
         }
     }
 
+    /**
+     * @return milliseconds until requests are sent again, after a pause the server asked for
+     * or while the circuit breaker is open, 0 if they are sent now
+     */
+    long getRequestRetryDelay() {
+        UrlRequester requester = urlRequester;
+        if (requester instanceof TuneUrlRequester) {
+            return ((TuneUrlRequester) requester).getRetryDelay();
+        }
+        return 0;
+    }
+
+    /**
+     * Reports queued events dropped because of the queue limits.
+     * @param count number of events dropped
+     * @param reason why they were dropped
+     */
+    void reportEvictedEvents(int count, String reason) {
+        if (debugMode) {
+            TuneDebugLog.w("Dropped " + count + " queued events: " + reason);
+        }
+        if (tuneListener instanceof ITuneEvictionListener) {
+            ((ITuneEvictionListener) tuneListener).didEvictEvents(count, reason);
+        }
+    }
+
     private void safeReportFailureToTuneListener(String url, String errorMessage) {
         Map<String, String> errors = new HashMap<>();
         errors.put("error", errorMessage);
@@ -574,9 +913,9 @@ public class TuneInternal implements ITune {
 
     private void saveOpenLogId(JSONObject response) {
         try {
-            String eventType = response.optString("site_event_type");
+            String eventType = response.optString(TuneConstants.SERVER_RESPONSE_SITE_EVENT_TYPE);
             if ("open".equals(eventType)) {
-                String logId = response.getString("log_id");
+                String logId = response.getString(TuneConstants.SERVER_RESPONSE_LOG_ID);
                 if ("".equals(getOpenLogId())) {
                     params.setOpenLogId(logId);
                 }
@@ -1184,6 +1523,22 @@ public class TuneInternal implements ITune {
         }
     };
 
+    // Reports circuit breaker changes, and drains the queue as soon as the server is back
+    private final TuneCircuitBreaker.Listener circuitListener = new TuneCircuitBreaker.Listener() {
+        @Override
+        public void onStateChanged(TuneCircuitBreaker.State state) {
+            if (debugMode) {
+                TuneDebugLog.w("Circuit breaker " + state);
+            }
+            if (tuneListener instanceof ITuneCircuitListener) {
+                ((ITuneCircuitListener) tuneListener).didChangeCircuitState(state);
+            }
+            if (state == TuneCircuitBreaker.State.CLOSED) {
+                dumpQueue();
+            }
+        }
+    };
+
     /* ========================================================================================== */
     /* Deeplink API                                                                               */
     /* ========================================================================================== */
@@ -1220,12 +1575,124 @@ public class TuneInternal implements ITune {
         }
     }
 
+    /**
+     * Enable or disable uploading queued events together in batch requests.
+     * Batching is only used when the current {@link UrlRequester} supports it.
+     * @param enabled whether to batch queued events
+     */
+    public void setBatchUploadEnabled(boolean enabled) {
+        batchUpload = enabled;
+    }
+
+    /**
+     * Enable or disable sending event data compressed, as base64 in a gzipped POST body instead of hex in the url.
+     * Compression is only used when the current {@link UrlRequester} is a {@link TuneUrlRequester}, and is
+     * turned off again if the server does not accept compressed requests.
+     * @param enabled whether to compress requests
+     */
+    public void setCompressedRequestsEnabled(boolean enabled) {
+        compressRequests = enabled;
+        if (urlRequester instanceof TuneUrlRequester) {
+            ((TuneUrlRequester) urlRequester).setCompressionEnabled(enabled);
+        }
+    }
+
+    /**
+     * Enable or disable sending requests over HTTP/2, which multiplexes concurrent requests on one connection.
+     * HTTP/2 needs the app to include OkHttp 3, without it requests stay on HTTP/1.1.
+     * @param enabled whether to send requests over HTTP/2
+     */
+    public void setHttp2Enabled(boolean enabled) {
+        UrlRequester previous = urlRequester;
+        if (enabled == previous instanceof TuneHttp2UrlRequester) {
+            return;
+        }
+        if (enabled && !TuneHttp2UrlRequester.isAvailable()) {
+            TuneDebugLog.w("HTTP/2 needs OkHttp 3 to be included in the app, requests will use HTTP/1.1");
+            return;
+        }
+
+        setUrlRequester(enabled ? new TuneHttp2UrlRequester() : new TuneUrlRequester());
+    }
+
+    /**
+     * Applies the request settings to the current {@link UrlRequester}, if it is a {@link TuneUrlRequester}.
+     */
+    private void configureUrlRequester() {
+        if (urlRequester instanceof TuneUrlRequester) {
+            TuneUrlRequester requester = (TuneUrlRequester) urlRequester;
+            if (compressRequests) {
+                requester.setCompressionEnabled(true);
+            }
+            // An app's own listener is given the whole server response, otherwise only the fields we read are parsed
+            requester.setFullResponsesEnabled(tuneListener != null && tuneListener != defaultTuneListener);
+            if (params != null) {
+                requester.setConnectionType(params.getConnectionType());
+            }
+            requester.getCircuitBreaker().setListener(circuitListener);
+            // Keep a factory an app set on its own requester
+            if (sslSocketFactory != null && requester.getSSLSocketFactory() == null) {
+                requester.setSSLSocketFactory(sslSocketFactory);
+            }
+        }
+    }
+
+    /**
+     * @return true if queued events should be sent in batch requests
+     */
+    boolean isBatchUploadEnabled() {
+        return batchUpload && urlRequester instanceof BatchUrlRequester;
+    }
+
+    /**
+     * Set the number of queued requests to keep in flight at once while draining the queue.
+     * A window greater than 1 drains on a separate thread, so new events can be queued meanwhile.
+     * @param window maximum number of concurrent requests, 1 to send queued events one at a time
+     */
+    public void setQueueDrainWindow(int window) {
+        queueDrainWindow = Math.max(1, window);
+    }
+
+    /**
+     * @return the maximum number of queued requests in flight at once
+     */
+    int getQueueDrainWindow() {
+        return queueDrainWindow;
+    }
+
+    /**
+     * Set the limits of the event queue. When a new event does not fit, the overflow policy decides
+     * which events are dropped; events older than the age limit are dropped instead of sent.
+     * @param maxEvents maximum number of queued events
+     * @param maxBytes maximum total size of queued events, in bytes
+     * @param maxAgeMillis maximum age of a queued event, in milliseconds
+     */
+    public void setQueueLimits(int maxEvents, long maxBytes, long maxAgeMillis) {
+        eventQueue.setLimits(maxEvents, maxBytes, maxAgeMillis);
+    }
+
+    /**
+     * Set what to do when a new event does not fit within the event queue limits.
+     * @param policy overflow policy
+     */
+    public void setQueueOverflowPolicy(TuneEventQueue.OverflowPolicy policy) {
+        eventQueue.setOverflowPolicy(policy);
+    }
+
+    /**
+     * @return the URL queued events are batched to
+     */
+    protected String getBatchEndpoint() {
+        return TuneUrlBuilder.buildBatchLink(params);
+    }
+
     /**
      * Set the Url Requester.
      * @param urlRequester UrlRequester
      */
     protected void setUrlRequester(final UrlRequester urlRequester) {
         this.urlRequester = urlRequester;
+        configureUrlRequester();
     }
 
 }
@@ -20,6 +20,7 @@ import android.webkit.WebView;
 
 import com.tune.utils.TuneScreenUtils;
 import com.tune.utils.TuneSharedPrefsDelegate;
+import com.tune.utils.TuneSharedPrefsWriter;
 import com.tune.utils.TuneStringUtils;
 import com.tune.utils.TuneUtils;
 
@@ -30,15 +31,13 @@ import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TuneParameters {
     // Tune SDK instance
     private ITune mTune;
-    // Executor Service
-    private ExecutorService mExecutor;
 
 
     // Actions
@@ -46,7 +45,8 @@ public class TuneParameters {
     public static final String ACTION_CLICK = "click";
     public static final String ACTION_CONVERSION = "conversion";
 
-    private TuneSharedPrefsDelegate mPrefs;
+    // Saved parameters, written a short while after they are set so values set together are written together
+    private TuneSharedPrefsWriter mPrefsWriter;
     private CountDownLatch initializationComplete;
 
     TuneParameters() {
@@ -57,12 +57,11 @@ public class TuneParameters {
 
         // Only instantiate and populate common params the first time
         INSTANCE.mTune = tune;
-        INSTANCE.mExecutor = Executors.newSingleThreadExecutor();
 
         // Two primary threads that need to complete
         INSTANCE.initializationComplete = new CountDownLatch(2);
 
-        INSTANCE.mPrefs = new TuneSharedPrefsDelegate(context, TuneConstants.PREFS_TUNE);
+        INSTANCE.mPrefsWriter = new TuneSharedPrefsWriter(new TuneSharedPrefsDelegate(context, TuneConstants.PREFS_TUNE));
         INSTANCE.populateParams(context, advertiserId, conversionKey, packageName);
 
         INSTANCE.initializationComplete.countDown();
@@ -71,16 +70,16 @@ public class TuneParameters {
     }
     
     public void destroy() {
-        mExecutor.shutdown();
-        try {
-            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        mPrefsWriter.shutdown();
+    }
 
-            // The executor is done, however it may have posted events.  It is difficult to know
-            // when those are done, but without a sleep() here, they generally are *not* done.
-            Thread.sleep(100);
-        } catch (InterruptedException e) {
+    /**
+     * Writes parameters that were set but not saved yet, such as when the app goes to the background.
+     */
+    public void flush() {
+        if (mPrefsWriter != null) {
+            mPrefsWriter.flush();
         }
-        mExecutor = null;
     }
 
     /**
@@ -174,17 +173,7 @@ public class TuneParameters {
             setScreenHeight(Integer.toString(TuneScreenUtils.getScreenHeightPixels(context)));
 
             // Set the device connection type, wifi or mobile
-            ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-            if (connManager != null) {
-                NetworkInfo mWifi = connManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
-                if (mWifi != null) {
-                    if (mWifi.isConnected()) {
-                        setConnectionType("wifi");
-                    } else {
-                        setConnectionType("mobile");
-                    }
-                }
-            }
+            updateConnectionType(context);
 
             // Network and locale info
             // Manually format locale, AdWords sample code is wrong...
@@ -221,6 +210,24 @@ public class TuneParameters {
         }
     }
     
+    /**
+     * Determine whether the device is on wifi or mobile and set the connection type field.
+     * @param context the application context
+     */
+    public void updateConnectionType(Context context) {
+        ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connManager != null) {
+            NetworkInfo mWifi = connManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
+            if (mWifi != null) {
+                if (mWifi.isConnected()) {
+                    setConnectionType("wifi");
+                } else {
+                    setConnectionType("mobile");
+                }
+            }
+        }
+    }
+
     /**
      * Determine the device's user agent and set the corresponding field.
      */
@@ -354,29 +361,32 @@ public class TuneParameters {
     
     /*
      * Param storage
+     *
+     * Getters never take a lock: each parameter is volatile, or atomic where a saved value is read on first use.
+     * Setters that change a value together with its hash, or the privacy protection state, take the monitor.
      */
 
-    private String mAction = null;
-    public synchronized String getAction() {
+    private volatile String mAction = null;
+    public String getAction() {
         return mAction;
     }
-    public synchronized void setAction(String action) {
+    public void setAction(String action) {
         mAction = action;
     }
 
-    private String mAdvertiserId = null;
-    public synchronized String getAdvertiserId() {
+    private volatile String mAdvertiserId = null;
+    public String getAdvertiserId() {
         return mAdvertiserId;
     }
-    public synchronized void setAdvertiserId(String advertiserId) {
+    public void setAdvertiserId(String advertiserId) {
         mAdvertiserId = advertiserId;
     }
     
-    private String mAge = null;
-    public synchronized String getAge() {
+    private volatile String mAge = null;
+    public String getAge() {
         return mAge;
     }
-    public synchronized int getAgeNumeric() {
+    public int getAgeNumeric() {
         String ageString = getAge();
         int age = 0;
         if (ageString != null) {
@@ -395,8 +405,8 @@ public class TuneParameters {
         savePrivacyProtectionState();
     }
     
-    private String mAndroidId = null;
-    public synchronized String getAndroidId() {
+    private volatile String mAndroidId = null;
+    public String getAndroidId() {
         return mAndroidId;
     }
 
@@ -404,20 +414,22 @@ public class TuneParameters {
     // use it if we can collect a better ID later.
     public synchronized void setAndroidId(String androidId) {
         mAndroidId = androidId;
+        invalidateDeviceSnapshot();
 
         // Also set the hash
         setAndroidIdSha256(TuneUtils.sha256(androidId));
     }
     
-    private String mAndroidIdSha256 = null;
-    public synchronized String getAndroidIdSha256() {
+    private volatile String mAndroidIdSha256 = null;
+    public String getAndroidIdSha256() {
         return mAndroidIdSha256;
     }
-    public synchronized void setAndroidIdSha256(String androidIdSha256) {
+    public void setAndroidIdSha256(String androidIdSha256) {
         mAndroidIdSha256 = androidIdSha256;
+        invalidateDeviceSnapshot();
     }
     
-    private String mAppAdTracking = null;
+    private volatile String mAppAdTracking = null;
 
     // Need to know if AppAdTracking was ever set, because the server default is "true" if undefined.
     public boolean isAppAdTrackingSet() {
@@ -425,164 +437,177 @@ public class TuneParameters {
     }
 
     // COPPA rules apply
-    public synchronized boolean getAppAdTrackingEnabled() {
-        if (!isAppAdTrackingSet()) {
+    public boolean getAppAdTrackingEnabled() {
+        String appAdTracking = mAppAdTracking;
+        if (TuneStringUtils.isNullOrEmpty(appAdTracking)) {
             return false;
         }
 
         int adTrackingEnabled = 0;
         try {
-            adTrackingEnabled = Integer.parseInt(mAppAdTracking);
+            adTrackingEnabled = Integer.parseInt(appAdTracking);
         } catch (NumberFormatException e) {
-            TuneDebugLog.e("Error parsing adTrackingEnabled value " + mAppAdTracking, e);
+            TuneDebugLog.e("Error parsing adTrackingEnabled value " + appAdTracking, e);
         }
 
         return (!isPrivacyProtectedDueToAge() && adTrackingEnabled != 0);
     }
-    public synchronized void setAppAdTrackingEnabled(String adTrackingEnabled) {
+    public void setAppAdTrackingEnabled(String adTrackingEnabled) {
         mAppAdTracking = adTrackingEnabled;
     }
 
-    private String mAppName = null;
-    public synchronized String getAppName() {
+    private volatile String mAppName = null;
+    public String getAppName() {
         return mAppName;
     }
-    public synchronized void setAppName(String app_name) {
+    public void setAppName(String app_name) {
         mAppName = app_name;
+        invalidateDeviceSnapshot();
     }
 
-    private String mAppVersion = null;
-    public synchronized String getAppVersion() {
+    private volatile String mAppVersion = null;
+    public String getAppVersion() {
         return mAppVersion;
     }
-    public synchronized void setAppVersion(String appVersion) {
+    public void setAppVersion(String appVersion) {
         mAppVersion = appVersion;
+        invalidateDeviceSnapshot();
     }
 
-    private String mAppVersionName = null;
-    public synchronized String getAppVersionName() {
+    private volatile String mAppVersionName = null;
+    public String getAppVersionName() {
         return mAppVersionName;
     }
-    public synchronized void setAppVersionName(String appVersionName) {
+    public void setAppVersionName(String appVersionName) {
         mAppVersionName = appVersionName;
+        invalidateDeviceSnapshot();
     }
 
-    private String mConnectionType = null;
-    public synchronized String getConnectionType() {
+    private volatile String mConnectionType = null;
+    public String getConnectionType() {
         return mConnectionType;
     }
-    public synchronized void setConnectionType(String connection_type) {
+    public void setConnectionType(String connection_type) {
         mConnectionType = connection_type;
     }
 
-    private String mConversionKey = null;
-    public synchronized String getConversionKey() {
+    private volatile String mConversionKey = null;
+    public String getConversionKey() {
         return mConversionKey;
     }
-    public synchronized void setConversionKey(String conversionKey) {
+    public void setConversionKey(String conversionKey) {
         mConversionKey = conversionKey;
         //NOTE: We don't need to track this for TMA + it isn't used as a URL param for MAT
     }
 
-    private String mCountryCode = null;
-    public synchronized String getCountryCode() {
+    private volatile String mCountryCode = null;
+    public String getCountryCode() {
         return mCountryCode;
     }
-    public synchronized void setCountryCode(String countryCode) {
+    public void setCountryCode(String countryCode) {
         mCountryCode = countryCode;
+        invalidateDeviceSnapshot();
     }
 
-    private String mDeviceBrand = null;
-    public synchronized String getDeviceBrand() {
+    private volatile String mDeviceBrand = null;
+    public String getDeviceBrand() {
         return mDeviceBrand;
     }
-    public synchronized void setDeviceBrand(String deviceBrand) {
+    public void setDeviceBrand(String deviceBrand) {
         mDeviceBrand = deviceBrand;
+        invalidateDeviceSnapshot();
     }
 
-    private String mDeviceBuild = null;
-    public synchronized String getDeviceBuild() {
+    private volatile String mDeviceBuild = null;
+    public String getDeviceBuild() {
         return mDeviceBuild;
     }
-    public synchronized void setDeviceBuild(String deviceBuild) {
+    public void setDeviceBuild(String deviceBuild) {
         mDeviceBuild = deviceBuild;
+        invalidateDeviceSnapshot();
     }
 
-    private String mDeviceCarrier = null;
-    public synchronized String getDeviceCarrier() {
+    private volatile String mDeviceCarrier = null;
+    public String getDeviceCarrier() {
         return mDeviceCarrier;
     }
-    public synchronized void setDeviceCarrier(String carrier) {
+    public void setDeviceCarrier(String carrier) {
         mDeviceCarrier = carrier;
+        invalidateDeviceSnapshot();
     }
 
-    private String mDeviceCpuType = null;
-    public synchronized String getDeviceCpuType() {
+    private volatile String mDeviceCpuType = null;
+    public String getDeviceCpuType() {
         return mDeviceCpuType;
     }
-    public synchronized void setDeviceCpuType(String cpuType) {
+    public void setDeviceCpuType(String cpuType) {
         mDeviceCpuType = cpuType;
+        invalidateDeviceSnapshot();
     }
 
-    private String mDeviceCpuSubtype = null;
-    public synchronized String getDeviceCpuSubtype() {
+    private volatile String mDeviceCpuSubtype = null;
+    public String getDeviceCpuSubtype() {
         return mDeviceCpuSubtype;
     }
 
-    public synchronized void setDeviceCpuSubtype(String cpuType) {
+    public void setDeviceCpuSubtype(String cpuType) {
         mDeviceCpuSubtype = cpuType;
+        invalidateDeviceSnapshot();
     }
 
-    private String mDeviceId = null;
-    public synchronized String getDeviceId() {
+    private volatile String mDeviceId = null;
+    public String getDeviceId() {
         return mDeviceId;
     }
-    public synchronized void setDeviceId(String deviceId) {
+    public void setDeviceId(String deviceId) {
         mDeviceId = deviceId;
+        invalidateDeviceSnapshot();
     }
     
-    private String mDeviceModel = null;
-    public synchronized String getDeviceModel() {
+    private volatile String mDeviceModel = null;
+    public String getDeviceModel() {
         return mDeviceModel;
     }
-    public synchronized void setDeviceModel(String model) {
+    public void setDeviceModel(String model) {
         mDeviceModel = model;
+        invalidateDeviceSnapshot();
     }
 
-    private String mExistingUser = null;
-    public synchronized String getExistingUser() {
+    private volatile String mExistingUser = null;
+    public String getExistingUser() {
         return mExistingUser;
     }
-    public synchronized void setExistingUser(String existingUser) {
+    public void setExistingUser(String existingUser) {
         mExistingUser = existingUser;
     }
     
-    private String mFbUserId = null;
-    public synchronized String getFacebookUserId() {
+    private volatile String mFbUserId = null;
+    public String getFacebookUserId() {
         return mFbUserId;
     }
-    public synchronized void setFacebookUserId(String fb_user_id) {
+    public void setFacebookUserId(String fb_user_id) {
         mFbUserId = fb_user_id;
     }
 
-    @Deprecated private String mFireAdvertisingId = null;
-    @Deprecated synchronized String getFireAdvertisingId() {
+    @Deprecated private volatile String mFireAdvertisingId = null;
+    @Deprecated String getFireAdvertisingId() {
         return mFireAdvertisingId;
     }
-    @Deprecated synchronized void setFireAdvertisingId(String adId) {
+    @Deprecated void setFireAdvertisingId(String adId) {
         // Retain FIRE_AID until fully deprecated.
         mFireAdvertisingId = adId;
+        invalidateDeviceSnapshot();
     }
 
-    @Deprecated synchronized void setFireAdTrackingLimited(String limited) {
+    @Deprecated void setFireAdTrackingLimited(String limited) {
         // Retain FIRE_AD_TRACKING Limited until fully deprecated.
     }
 
-    private String mGender = null;
-    public synchronized String getGender() {
+    private volatile String mGender = null;
+    public String getGender() {
         return mGender;
     }
-    public synchronized void setGender(TuneGender gender) {
+    public void setGender(TuneGender gender) {
         switch(gender) {
             case MALE:
                 mGender = "0";
@@ -596,270 +621,228 @@ public class TuneParameters {
         }
     }
 
-    @Deprecated private String mGaid = null;
-    @Deprecated synchronized String getGoogleAdvertisingId() {
+    @Deprecated private volatile String mGaid = null;
+    @Deprecated String getGoogleAdvertisingId() {
         return mGaid;
     }
-    @Deprecated synchronized void setGoogleAdvertisingId(String adId) {
+    @Deprecated void setGoogleAdvertisingId(String adId) {
         // Retain GOOGLE_AID until fully deprecated.
         mGaid = adId;
+        invalidateDeviceSnapshot();
     }
 
-    @Deprecated synchronized void setGoogleAdTrackingLimited(String limited) {
+    @Deprecated void setGoogleAdTrackingLimited(String limited) {
         // Retain GOOGLE_AD_TRACKING_DISABLED Limited until fully deprecated.
     }
     
-    private String mGgUserId = null;
-    public synchronized String getGoogleUserId() {
+    private volatile String mGgUserId = null;
+    public String getGoogleUserId() {
         return mGgUserId;
     }
-    public synchronized void setGoogleUserId(String google_user_id) {
+    public void setGoogleUserId(String google_user_id) {
         mGgUserId = google_user_id;
     }
 
-    private String mInstallDate = null;
-    public synchronized String getInstallDate() {
+    private volatile String mInstallDate = null;
+    public String getInstallDate() {
         return mInstallDate;
     }
-    public synchronized void setInstallDate(String installDate) {
+    public void setInstallDate(String installDate) {
         mInstallDate = installDate;
+        invalidateDeviceSnapshot();
     }
 
-    private String mInstallBeginTimestampSeconds = null;
-    public synchronized String getInstallBeginTimestampSeconds() {
-        if (mInstallBeginTimestampSeconds == null) {
-            mInstallBeginTimestampSeconds = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_INSTALL_BEGIN_TIMESTAMP, null);
-        }
-
-        return mInstallBeginTimestampSeconds;
+    private final AtomicReference<String> mInstallBeginTimestampSeconds = new AtomicReference<>();
+    public String getInstallBeginTimestampSeconds() {
+        return getOrLoad(mInstallBeginTimestampSeconds, TuneConstants.KEY_INSTALL_BEGIN_TIMESTAMP);
     }
-    public synchronized void setInstallBeginTimestampSeconds(long timestampSeconds) {
-        mInstallBeginTimestampSeconds = Long.toString(timestampSeconds);
-        mExecutor.execute(new Runnable() {
-            public void run() {
-            mPrefs.saveToSharedPreferences(TuneConstants.KEY_INSTALL_BEGIN_TIMESTAMP, mInstallBeginTimestampSeconds);
-            }
-        });
+    public void setInstallBeginTimestampSeconds(long timestampSeconds) {
+        String installBeginTimestampSeconds = Long.toString(timestampSeconds);
+        mInstallBeginTimestampSeconds.set(installBeginTimestampSeconds);
+        invalidateDeviceSnapshot();
+        mPrefsWriter.putString(TuneConstants.KEY_INSTALL_BEGIN_TIMESTAMP, installBeginTimestampSeconds);
     }
 
-    private String mReferrerClickTimestampSeconds = null;
-    public synchronized String getReferrerClickTimestampSeconds() {
-        if (mReferrerClickTimestampSeconds == null) {
-            mReferrerClickTimestampSeconds = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_REFERRER_CLICK_TIMESTAMP, null);
-        }
-
-        return mReferrerClickTimestampSeconds;
+    private final AtomicReference<String> mReferrerClickTimestampSeconds = new AtomicReference<>();
+    public String getReferrerClickTimestampSeconds() {
+        return getOrLoad(mReferrerClickTimestampSeconds, TuneConstants.KEY_REFERRER_CLICK_TIMESTAMP);
     }
-    public synchronized void setReferrerClickTimestampSeconds(long timestampSeconds) {
-        mInstallBeginTimestampSeconds = Long.toString(timestampSeconds);
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_REFERRER_CLICK_TIMESTAMP, mInstallBeginTimestampSeconds);
-            }
-        });
+    public void setReferrerClickTimestampSeconds(long timestampSeconds) {
+        String referrerClickTimestampSeconds = Long.toString(timestampSeconds);
+        mInstallBeginTimestampSeconds.set(referrerClickTimestampSeconds);
+        invalidateDeviceSnapshot();
+        mPrefsWriter.putString(TuneConstants.KEY_REFERRER_CLICK_TIMESTAMP, referrerClickTimestampSeconds);
     }
 
-    private String mInstallerPackage = null;
-    public synchronized String getInstaller() {
+    private volatile String mInstallerPackage = null;
+    public String getInstaller() {
         return mInstallerPackage;
     }
-    public synchronized void setInstaller(String installer) {
+    public void setInstaller(String installer) {
         mInstallerPackage = installer;
+        invalidateDeviceSnapshot();
     }
 
-    private String mInstallReferrer;
-    public synchronized String getInstallReferrer() {
-        if (mInstallReferrer == null) {
-            mInstallReferrer = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_REFERRER, null);
-        }
-
-        return mInstallReferrer;
+    private final AtomicReference<String> mInstallReferrer = new AtomicReference<>();
+    public String getInstallReferrer() {
+        return getOrLoad(mInstallReferrer, TuneConstants.KEY_REFERRER);
     }
-    public synchronized void setInstallReferrer(final String installReferrer) {
-        mInstallReferrer = installReferrer;
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_REFERRER, installReferrer);
-            }
-        });
+    public void setInstallReferrer(final String installReferrer) {
+        mInstallReferrer.set(installReferrer);
+        invalidateDeviceSnapshot();
+        mPrefsWriter.putString(TuneConstants.KEY_REFERRER, installReferrer);
     }
 
-    private Boolean mHasInstallFlagBeenSet;
-    public synchronized boolean hasInstallFlagBeenSet() {
-        if (mHasInstallFlagBeenSet == null) {
-            mHasInstallFlagBeenSet = mPrefs.getBooleanFromSharedPreferences(TuneConstants.KEY_INSTALL, false);
+    private final AtomicReference<Boolean> mHasInstallFlagBeenSet = new AtomicReference<>();
+    public boolean hasInstallFlagBeenSet() {
+        if (mHasInstallFlagBeenSet.get() == null) {
+            mHasInstallFlagBeenSet.compareAndSet(null, mPrefsWriter.getBoolean(TuneConstants.KEY_INSTALL, false));
         }
-        return mHasInstallFlagBeenSet;
+        return mHasInstallFlagBeenSet.get();
     }
 
-    public synchronized void setInstallFlag() {
-        mHasInstallFlagBeenSet = Boolean.TRUE;
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveBooleanToSharedPreferences(TuneConstants.KEY_INSTALL, true);
-            }
-        });
+    public void setInstallFlag() {
+        mHasInstallFlagBeenSet.set(Boolean.TRUE);
+        mPrefsWriter.putBoolean(TuneConstants.KEY_INSTALL, true);
     }
 
-    private String mIsPayingUser;
-    public synchronized String isPayingUser() {
-        if (mIsPayingUser == null) {
-            mIsPayingUser = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_PAYING_USER, null);
-        }
-        return mIsPayingUser;
+    private final AtomicReference<String> mIsPayingUser = new AtomicReference<>();
+    public String isPayingUser() {
+        return getOrLoad(mIsPayingUser, TuneConstants.KEY_PAYING_USER);
     }
-    public synchronized void setPayingUser(final String isPayingUser) {
-        mIsPayingUser = isPayingUser;
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_PAYING_USER, isPayingUser);
-            }
-        });
+    public void setPayingUser(final String isPayingUser) {
+        mIsPayingUser.set(isPayingUser);
+        mPrefsWriter.putString(TuneConstants.KEY_PAYING_USER, isPayingUser);
     }
 
-    private String mLanguage = null;
-    public synchronized String getLanguage() {
+    private volatile String mLanguage = null;
+    public String getLanguage() {
         return mLanguage;
     }
-    public synchronized void setLanguage(String language) {
+    public void setLanguage(String language) {
         mLanguage = language;
+        invalidateDeviceSnapshot();
     }
 
-    private String mLastOpenLogId = null;
-    public synchronized String getLastOpenLogId() {
-        if (mLastOpenLogId == null) {
-            mLastOpenLogId = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_LAST_LOG_ID, null);
-        }
-        return mLastOpenLogId;
+    private final AtomicReference<String> mLastOpenLogId = new AtomicReference<>();
+    public String getLastOpenLogId() {
+        return getOrLoad(mLastOpenLogId, TuneConstants.KEY_LAST_LOG_ID);
     }
-    public synchronized void setLastOpenLogId(final String logId) {
-        mLastOpenLogId = logId;
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_LAST_LOG_ID, logId);
-            }
-        });
+    public void setLastOpenLogId(final String logId) {
+        mLastOpenLogId.set(logId);
+        mPrefsWriter.putString(TuneConstants.KEY_LAST_LOG_ID, logId);
     }
 
-    private String mLocale = null;
-    public synchronized String getLocale() {
+    private volatile String mLocale = null;
+    public String getLocale() {
         return mLocale;
     }
-    public synchronized void setLocale(String locale) {
+    public void setLocale(String locale) {
         mLocale = locale;
+        invalidateDeviceSnapshot();
     }
 
-    private Location mLocation = null;
-    private void createLocationIfMissing() {
-        if (mLocation == null) {
-            mLocation = new Location("");
-        }
-    }
+    // Replaced rather than updated in place, so a reader never sees a location half set
+    private volatile Location mLocation = null;
 
     public void setLocation(final Location location) {
         mLocation = new Location(location);
     }
 
     public void setLocation(double latitude, double longitude, double altitude) {
-        createLocationIfMissing();
-        mLocation.setLatitude(latitude);
-        mLocation.setLongitude(longitude);
-        mLocation.setAltitude(altitude);
+        Location location = mLocation != null ? new Location(mLocation) : new Location("");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setAltitude(altitude);
+        mLocation = location;
     }
 
     public final Location getLocation() {
         return mLocation;
     }
 
-    private String mMacAddress = null;
-    public synchronized String getMacAddress() {
+    private volatile String mMacAddress = null;
+    public String getMacAddress() {
         return mMacAddress;
     }
-    public synchronized void setMacAddress(String mac_address) {
+    public void setMacAddress(String mac_address) {
         mMacAddress = mac_address;
     }
 
-    private String mMatId = null;
-    public synchronized String getMatId() {
-        if (mMatId == null) {
-            mMatId = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_TUNE_ID, null);
-        }
-        return mMatId;
+    private final AtomicReference<String> mMatId = new AtomicReference<>();
+    public String getMatId() {
+        return getOrLoad(mMatId, TuneConstants.KEY_TUNE_ID);
     }
-    public synchronized void setMatId(final String matId) {
-        mMatId = matId;
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_TUNE_ID, matId);
-            }
-        });
+    public void setMatId(final String matId) {
+        mMatId.set(matId);
+        invalidateDeviceSnapshot();
+        mPrefsWriter.putString(TuneConstants.KEY_TUNE_ID, matId);
     }
 
-    private String mMCC = null;
-    public synchronized String getMCC() {
+    private volatile String mMCC = null;
+    public String getMCC() {
         return mMCC;
     }
-    public synchronized void setMCC(String mcc) {
+    public void setMCC(String mcc) {
         mMCC = mcc;
+        invalidateDeviceSnapshot();
     }
 
-    private String mMNC = null;
-    public synchronized String getMNC() {
+    private volatile String mMNC = null;
+    public String getMNC() {
         return mMNC;
     }
-    public synchronized void setMNC(String mnc) {
+    public void setMNC(String mnc) {
         mMNC = mnc;
+        invalidateDeviceSnapshot();
     }
 
-    private String mOpenLogId = null;
-    public synchronized String getOpenLogId() {
-        if (mOpenLogId == null) {
-            mOpenLogId = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_LOG_ID, null);
-        }
-        return mOpenLogId;
+    private final AtomicReference<String> mOpenLogId = new AtomicReference<>();
+    public String getOpenLogId() {
+        return getOrLoad(mOpenLogId, TuneConstants.KEY_LOG_ID);
     }
-    public synchronized void setOpenLogId(final String logId) {
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_LOG_ID, logId);
-            }
-        });
+    public void setOpenLogId(final String logId) {
+        mPrefsWriter.putString(TuneConstants.KEY_LOG_ID, logId);
     }
 
-    private String mOsVersion = null;
-    public synchronized String getOsVersion() {
+    private volatile String mOsVersion = null;
+    public String getOsVersion() {
         return mOsVersion;
     }
-    public synchronized void setOsVersion(String osVersion) {
+    public void setOsVersion(String osVersion) {
         mOsVersion = osVersion;
+        invalidateDeviceSnapshot();
     }
 
-    private String mPackageName = null;
-    public synchronized String getPackageName() {
+    private volatile String mPackageName = null;
+    public String getPackageName() {
         return mPackageName;
     }
-    private synchronized void setPackageName(String packageName) {
+    private void setPackageName(String packageName) {
         mPackageName = packageName;
     }
 
-    private String mPhoneNumber = null;
-    public synchronized String getPhoneNumber() {
+    private volatile String mPhoneNumber = null;
+    public String getPhoneNumber() {
         if (mPhoneNumber == null) {
-            setPhoneNumber(mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_PHONE_NUMBER, null));
+            loadPhoneNumber();
         }
         return mPhoneNumber;
     }
+    private synchronized void loadPhoneNumber() {
+        // Unless a setter got there first
+        if (mPhoneNumber == null) {
+            setPhoneNumber(mPrefsWriter.getString(TuneConstants.KEY_PHONE_NUMBER, null));
+        }
+    }
     public synchronized void setPhoneNumber(final String phoneNumber) {
-        mPhoneNumber = normalizePhoneNumber(phoneNumber);
+        String normalized = normalizePhoneNumber(phoneNumber);
+        mPhoneNumber = normalized;
 
         // Also set the hash
-        setPhoneNumberSha256(TuneUtils.sha256(mPhoneNumber));
+        setPhoneNumberSha256(TuneUtils.sha256(normalized));
 
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_PHONE_NUMBER, mPhoneNumber);
-            }
-        });
+        mPrefsWriter.putString(TuneConstants.KEY_PHONE_NUMBER, normalized);
     }
 
     private String normalizePhoneNumber(String phoneNumber) {
@@ -879,25 +862,26 @@ public class TuneParameters {
         return phoneNumber;
     }
     
-    private String mPhoneNumberSha256;
-    public synchronized String getPhoneNumberSha256() {
+    private volatile String mPhoneNumberSha256;
+    public String getPhoneNumberSha256() {
         return mPhoneNumberSha256;
     }
-    public synchronized void setPhoneNumberSha256(String phoneNumberSha256) {
+    public void setPhoneNumberSha256(String phoneNumberSha256) {
         mPhoneNumberSha256 = phoneNumberSha256;
     }
 
-    private String mPlatformAdvertisingId = null;
-    public synchronized String getPlatformAdvertisingId() {
+    private volatile String mPlatformAdvertisingId = null;
+    public String getPlatformAdvertisingId() {
         return mPlatformAdvertisingId;
     }
-    public synchronized void setPlatformAdvertisingId(String adId) {
+    public void setPlatformAdvertisingId(String adId) {
         mPlatformAdvertisingId = adId;
+        invalidateDeviceSnapshot();
     }
 
-    private String mPlatformAdTrackingLimited = null;
+    private volatile String mPlatformAdTrackingLimited = null;
     // COPPA rules apply
-    public synchronized boolean getPlatformAdTrackingLimited() {
+    public boolean getPlatformAdTrackingLimited() {
         String platformAdTrackingLimitedString = getPlatformAdTrackingLimitedParameter();
         if (TuneStringUtils.isNullOrEmpty(platformAdTrackingLimitedString)) {
             return false;
@@ -912,23 +896,56 @@ public class TuneParameters {
 
         return (!isPrivacyProtectedDueToAge() && platformAdTrackingLimited != 0);
     }
-    private synchronized String getPlatformAdTrackingLimitedParameter() {
+    private String getPlatformAdTrackingLimitedParameter() {
         return mPlatformAdTrackingLimited;
     }
-    public synchronized void setPlatformAdTrackingLimited(String limited) {
+    public void setPlatformAdTrackingLimited(String limited) {
         mPlatformAdTrackingLimited = limited;
     }
 
-    private String mPluginName = null;
-    public synchronized String getPluginName() {
+    private volatile String mPluginName = null;
+    public String getPluginName() {
         return mPluginName;
     }
-    public synchronized void setPluginName(String pluginName) {
+    public void setPluginName(String pluginName) {
         mPluginName = pluginName;
+        invalidateDeviceSnapshot();
+    }
+
+    // Keys left out of requests, replaced whenever the privacy protection state changes
+    private volatile TuneRedactionPolicy mRedactionPolicy = TuneRedactionPolicy.DEFAULT;
+    /**
+     * @return the url keys currently left out of requests, without taking the parameters lock
+     */
+    TuneRedactionPolicy getRedactionPolicy() {
+        return mRedactionPolicy;
+    }
+    private synchronized void updateRedactionPolicy() {
+        mRedactionPolicy = mRedactionPolicy.withPrivacyProtected(isPrivacyProtectedDueToAge());
     }
 
-    private boolean mPrivacyExplicitlySetAsProtected = false;
-    private synchronized boolean isPrivacyExplicitlySetAsProtected() {
+    // Encoded device and app parameters, and the count of changes to them that tells when it is out of date
+    private volatile TuneDeviceSnapshot mDeviceSnapshot;
+    private final AtomicInteger mDeviceVersion = new AtomicInteger();
+    /**
+     * @return the device and app parameters as of the last change to any of them, built again only after one changes
+     */
+    TuneDeviceSnapshot getDeviceSnapshot() {
+        TuneRedactionPolicy redaction = mRedactionPolicy;
+        TuneDeviceSnapshot snapshot = mDeviceSnapshot;
+        if (snapshot == null || !snapshot.isBuiltFor(redaction, mDeviceVersion.get())) {
+            // Read the version before the parameters, so a change made while building leaves the snapshot out of date
+            snapshot = TuneDeviceSnapshot.build(this, redaction, mDeviceVersion.get());
+            mDeviceSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+    private void invalidateDeviceSnapshot() {
+        mDeviceVersion.incrementAndGet();
+    }
+
+    private volatile boolean mPrivacyExplicitlySetAsProtected = false;
+    private boolean isPrivacyExplicitlySetAsProtected() {
         return mPrivacyExplicitlySetAsProtected;
     }
     public synchronized void setPrivacyExplicitlySetAsProtected(boolean isSet) {
@@ -936,13 +953,14 @@ public class TuneParameters {
         savePrivacyProtectionState();
     }
     private synchronized void loadPrivacyProtectedSetting() {
-        mPrivacyExplicitlySetAsProtected = mPrefs.getBooleanFromSharedPreferences(TuneConstants.KEY_COPPA);
+        mPrivacyExplicitlySetAsProtected = mPrefsWriter.getBoolean(TuneConstants.KEY_COPPA, false);
+        updateRedactionPolicy();
     }
 
     /**
      * @return True if COPPA rules apply
      */
-    public synchronized boolean isPrivacyProtectedDueToAge() {
+    public boolean isPrivacyProtectedDueToAge() {
         int age = getAgeNumeric();
         boolean isCoppaAgeRestricted = (age > 0 && age < TuneConstants.COPPA_MINIMUM_AGE);
 
@@ -954,42 +972,39 @@ public class TuneParameters {
      */
     private void savePrivacyProtectionState() {
         final boolean isPrivacyProtected = isPrivacyProtectedDueToAge();
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveBooleanToSharedPreferences(TuneConstants.KEY_COPPA, isPrivacyProtected);
-            }
-        });
+        updateRedactionPolicy();
+        mPrefsWriter.putBoolean(TuneConstants.KEY_COPPA, isPrivacyProtected);
     }
 
-    private String mPurchaseStatus = null;
-    public synchronized String getPurchaseStatus() {
+    private volatile String mPurchaseStatus = null;
+    public String getPurchaseStatus() {
         return mPurchaseStatus;
     }
-    public synchronized void setPurchaseStatus(String purchaseStatus) {
+    public void setPurchaseStatus(String purchaseStatus) {
         mPurchaseStatus = purchaseStatus;
     }
 
-    private String mReferralSource = null;
-    public synchronized String getReferralSource() {
+    private volatile String mReferralSource = null;
+    public String getReferralSource() {
         return mReferralSource;
     }
-    public synchronized void setReferralSource(String referralPackage) {
+    public void setReferralSource(String referralPackage) {
         mReferralSource = referralPackage;
     }
 
-    private String mReferralUrl = null;
-    public synchronized String getReferralUrl() {
+    private volatile String mReferralUrl = null;
+    public String getReferralUrl() {
         return mReferralUrl;
     }
-    public synchronized void setReferralUrl(String referralUrl) {
+    public void setReferralUrl(String referralUrl) {
         mReferralUrl = referralUrl;
     }
 
-    private String mReferrerDelay = null;
-    public synchronized String getReferrerDelay() {
+    private volatile String mReferrerDelay = null;
+    public String getReferrerDelay() {
         return mReferrerDelay;
     }
-    public synchronized void setReferrerDelay(long referrerDelay) {
+    public void setReferrerDelay(long referrerDelay) {
         mReferrerDelay = Long.toString(referrerDelay);
     }
 
@@ -1003,167 +1018,183 @@ public class TuneParameters {
         }
     }
 
-    private SDKTYPE mSDKType = SDKTYPE.ANDROID;
-    public synchronized SDKTYPE getSDKType() {
+    private volatile SDKTYPE mSDKType = SDKTYPE.ANDROID;
+    public SDKTYPE getSDKType() {
         return mSDKType;
     }
-    public synchronized void setSDKType(SDKTYPE sdkType) {
+    public void setSDKType(SDKTYPE sdkType) {
         mSDKType = sdkType;
     }
 
-    private String mScreenDensity = null;
-    public synchronized String getScreenDensity() {
+    private volatile String mScreenDensity = null;
+    public String getScreenDensity() {
         return mScreenDensity;
     }
-    public synchronized void setScreenDensity(String density) {
+    public void setScreenDensity(String density) {
         mScreenDensity = density;
+        invalidateDeviceSnapshot();
     }
 
-    private String mScreenHeight = null;
-    public synchronized String getScreenHeight() {
+    private volatile String mScreenHeight = null;
+    public String getScreenHeight() {
         return mScreenHeight;
     }
-    public synchronized void setScreenHeight(String screenheight) {
+    public void setScreenHeight(String screenheight) {
         mScreenHeight = screenheight;
+        invalidateDeviceSnapshot();
     }
 
-    private String mScreenWidth = null;
-    public synchronized String getScreenWidth() {
+    private volatile String mScreenWidth = null;
+    public String getScreenWidth() {
         return mScreenWidth;
     }
-    public synchronized void setScreenWidth(String screenwidth) {
+    public void setScreenWidth(String screenwidth) {
         mScreenWidth = screenwidth;
+        invalidateDeviceSnapshot();
     }
 
-    private String mTimeZone = null;
-    public synchronized String getTimeZone() {
+    private volatile String mTimeZone = null;
+    public String getTimeZone() {
         return mTimeZone;
     }
-    public synchronized void setTimeZone(String timeZone) {
+    public void setTimeZone(String timeZone) {
         mTimeZone = timeZone;
         //TODO: Only Crosspromo uses this, and we track our own timezone stuff through minutesFromGMT
     }
 
-    private String mTrackingId = null;
-    public synchronized String getTrackingId() {
+    private volatile String mTrackingId = null;
+    public String getTrackingId() {
         return mTrackingId;
     }
-    public synchronized void setTrackingId(String trackingId) {
+    public void setTrackingId(String trackingId) {
         mTrackingId = trackingId;
     }
 
-    private String mTrusteId = null;
-    public synchronized String getTRUSTeId() {
+    private volatile String mTrusteId = null;
+    public String getTRUSTeId() {
         return mTrusteId;
     }
-    public synchronized void setTRUSTeId(String tpid) {
+    public void setTRUSTeId(String tpid) {
         mTrusteId = tpid;
     }
     
-    private String mTwUserId = null;
-    public synchronized String getTwitterUserId() {
+    private volatile String mTwUserId = null;
+    public String getTwitterUserId() {
         return mTwUserId;
     }
-    public synchronized void setTwitterUserId(String twitter_user_id) {
+    public void setTwitterUserId(String twitter_user_id) {
         mTwUserId = twitter_user_id;
     }
 
-    private String mUserAgent = null;
-    public synchronized String getUserAgent() {
+    private volatile String mUserAgent = null;
+    public String getUserAgent() {
         return mUserAgent;
     }
-    private synchronized void setUserAgent(String userAgent) {
+    private void setUserAgent(String userAgent) {
         mUserAgent = userAgent;
+        invalidateDeviceSnapshot();
     }
 
-    private String mUserEmail = null;
-    public synchronized String getUserEmail() {
+    private volatile String mUserEmail = null;
+    public String getUserEmail() {
         if (mUserEmail == null) {
-            setUserEmail(mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_USER_EMAIL, null));
+            loadUserEmail();
         }
         return mUserEmail;
     }
+    private synchronized void loadUserEmail() {
+        // Unless a setter got there first
+        if (mUserEmail == null) {
+            setUserEmail(mPrefsWriter.getString(TuneConstants.KEY_USER_EMAIL, null));
+        }
+    }
     public synchronized void setUserEmail(final String userEmail) {
         mUserEmail = userEmail;
 
         // Also set the hash
         setUserEmailSha256(TuneUtils.sha256(userEmail));
 
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_USER_EMAIL, userEmail);
-            }
-        });
+        mPrefsWriter.putString(TuneConstants.KEY_USER_EMAIL, userEmail);
     }
     public synchronized void clearUserEmail() {
         // Obsolete
         mUserEmail = null;
         clearUserEmailSha256();
 
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.remove(TuneConstants.KEY_USER_EMAIL);
-            }
-        });
+        mPrefsWriter.remove(TuneConstants.KEY_USER_EMAIL);
     }
     
-    private String mUserEmailSha256;
-    public synchronized String getUserEmailSha256() {
+    private volatile String mUserEmailSha256;
+    public String getUserEmailSha256() {
         return mUserEmailSha256;
     }
 
-    public synchronized void setUserEmailSha256(String userEmailSha256) {
+    public void setUserEmailSha256(String userEmailSha256) {
         mUserEmailSha256 = userEmailSha256;
     }
 
-    public synchronized void clearUserEmailSha256() {
+    public void clearUserEmailSha256() {
         mUserEmailSha256 = null;
     }
     
-    private String mUserId = null;
-    public synchronized String getUserId() {
-        if (mUserId == null) {
-            mUserId = mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_USER_ID, null);
-        }
-        return mUserId;
+    private final AtomicReference<String> mUserId = new AtomicReference<>();
+    public String getUserId() {
+        return getOrLoad(mUserId, TuneConstants.KEY_USER_ID);
     }
-    public synchronized void setUserId(final String user_id) {
-        mUserId = user_id;
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_USER_ID, user_id);
-            }
-        });
+    public void setUserId(final String user_id) {
+        mUserId.set(user_id);
+        mPrefsWriter.putString(TuneConstants.KEY_USER_ID, user_id);
     }
 
-    private String mUserName = null;
-    public synchronized String getUserName() {
+    private volatile String mUserName = null;
+    public String getUserName() {
         if (mUserName == null) {
-            setUserName(mPrefs.getStringFromSharedPreferences(TuneConstants.KEY_USER_NAME, null));
+            loadUserName();
         }
         return mUserName;
     }
+    private synchronized void loadUserName() {
+        // Unless a setter got there first
+        if (mUserName == null) {
+            setUserName(mPrefsWriter.getString(TuneConstants.KEY_USER_NAME, null));
+        }
+    }
     public synchronized void setUserName(final String userName) {
         mUserName = userName;
 
         // Also set the hash
         setUserNameSha256(TuneUtils.sha256(userName));
 
-        mExecutor.execute(new Runnable() {
-            public void run() {
-                mPrefs.saveToSharedPreferences(TuneConstants.KEY_USER_NAME, userName);
-            }
-        });
+        mPrefsWriter.putString(TuneConstants.KEY_USER_NAME, userName);
     }
     
-    private String mUserNameSha256;
-    public synchronized String getUserNameSha256() {
+    private volatile String mUserNameSha256;
+    public String getUserNameSha256() {
         return mUserNameSha256;
     }
-    public synchronized void setUserNameSha256(String userNameSha256) {
+    public void setUserNameSha256(String userNameSha256) {
         mUserNameSha256 = userNameSha256;
     }
 
+    /**
+     * Reads a saved value into a field that has not been set yet.
+     * @param field the parameter
+     * @param key shared preferences key the parameter is saved under
+     * @return value of the parameter, which a setter racing the read wins over
+     */
+    private String getOrLoad(AtomicReference<String> field, String key) {
+        String value = field.get();
+        if (value == null) {
+            field.compareAndSet(null, mPrefsWriter.getString(key, null));
+            value = field.get();
+        }
+        return value;
+    }
+
+    /**
+     * Builds a new set of the keys left out of requests. Requests are built with {@link #getRedactionPolicy()} instead.
+     * @return the redacted url keys
+     */
     public static Set<String> getRedactedKeys() {
         Set<String> redactKeys = TuneUrlKeys.getAlwaysRedactedUrlKeys();
         if (Tune.getInstance().isPrivacyProtectedDueToAge()) {
@@ -1173,7 +1204,7 @@ public class TuneParameters {
         return redactKeys;
     }
 
-    private boolean mParametersIntializationComplete;
+    private volatile boolean mParametersIntializationComplete;
     public boolean didParametersInitializationComplete() {
         return mParametersIntializationComplete;
     }
@@ -0,0 +1,110 @@
+package com.tune;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable set of the url keys left out of requests, as a bitset indexed by each key's position among all
+ * url keys. A new policy replaces the current one whenever the privacy protection state changes, and its
+ * version tells anything built from an older policy that it is out of date.
+ */
+final class TuneRedactionPolicy {
+    // Position of every known url key in the bitsets, assigned once
+    private static final Map<String, Integer> KEY_INDEX;
+    private static final String[] KEYS;
+    // Keys redacted for every user, and for users protected due to their age
+    private static final long[] ALWAYS_REDACTED;
+    private static final long[] PRIVACY_REDACTED;
+
+    static {
+        Set<String> keys = TuneUrlKeys.getAllUrlKeys();
+        keys.addAll(TuneUrlKeys.getAlwaysRedactedUrlKeys());
+        List<String> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+
+        KEYS = sorted.toArray(new String[sorted.size()]);
+        KEY_INDEX = new HashMap<>();
+        for (int i = 0; i < KEYS.length; i++) {
+            KEY_INDEX.put(KEYS[i], i);
+        }
+
+        ALWAYS_REDACTED = toBits(TuneUrlKeys.getAlwaysRedactedUrlKeys());
+        Set<String> privacyKeys = TuneUrlKeys.getPrivacyRedactedUrlKeys();
+        privacyKeys.addAll(TuneUrlKeys.getAlwaysRedactedUrlKeys());
+        PRIVACY_REDACTED = toBits(privacyKeys);
+    }
+
+    // Policy before privacy protection is known, redacting only the keys that always are
+    static final TuneRedactionPolicy DEFAULT = new TuneRedactionPolicy(false, 0);
+
+    private final boolean privacyProtected;
+    private final int version;
+    private final long[] redacted;
+
+    private TuneRedactionPolicy(boolean privacyProtected, int version) {
+        this.privacyProtected = privacyProtected;
+        this.version = version;
+        this.redacted = privacyProtected ? PRIVACY_REDACTED : ALWAYS_REDACTED;
+    }
+
+    /**
+     * @param privacyProtected whether the user is protected due to their age
+     * @return this policy if it already applies to the privacy protection state, otherwise the next version for it
+     */
+    TuneRedactionPolicy withPrivacyProtected(boolean privacyProtected) {
+        if (privacyProtected == this.privacyProtected) {
+            return this;
+        }
+        return new TuneRedactionPolicy(privacyProtected, version + 1);
+    }
+
+    /**
+     * @param key url key
+     * @return true if values for the key must not be sent
+     */
+    boolean isRedacted(String key) {
+        Integer index = KEY_INDEX.get(key);
+        if (index == null) {
+            return false;
+        }
+        return (redacted[index >> 6] & (1L << index)) != 0;
+    }
+
+    boolean isPrivacyProtected() {
+        return privacyProtected;
+    }
+
+    /**
+     * @return version of the policy, increased each time it is replaced
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a new set of the redacted keys
+     */
+    Set<String> getRedactedKeys() {
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < KEYS.length; i++) {
+            if ((redacted[i >> 6] & (1L << i)) != 0) {
+                keys.add(KEYS[i]);
+            }
+        }
+        return keys;
+    }
+
+    private static long[] toBits(Set<String> keys) {
+        long[] bits = new long[(KEYS.length + 63) / 64];
+        for (String key : keys) {
+            int index = KEY_INDEX.get(key);
+            bits[index >> 6] |= 1L << index;
+        }
+        return bits;
+    }
+}
@@ -3,19 +3,25 @@ package com.tune;
 import android.location.Location;
 import android.net.Uri;
 
+import com.tune.utils.TuneQueryEncoder;
 import com.tune.utils.TuneUtils;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.Date;
-import java.util.Set;
 import java.util.UUID;
 
 class TuneUrlBuilder {
+    // Links are built into an encoder per thread, so building one allocates little more than the finished string
+    private static final ThreadLocal<TuneQueryEncoder> queryEncoder = new ThreadLocal<TuneQueryEncoder>() {
+        @Override
+        protected TuneQueryEncoder initialValue() {
+            return new TuneQueryEncoder();
+        }
+    };
+
     /**
      * Builds a new link string based on parameter values.
      * @return encrypted URL string based on class settings.
@@ -39,14 +45,13 @@ class TuneUrlBuilder {
      * @return encrypted URL string based on class settings.
      */
     static String buildLink(final TuneParameters params, TuneEvent eventData, TunePreloadData preloaded, boolean debugMode) {
-        Set<String> redactKeys = TuneParameters.getRedactedKeys();
+        TuneRedactionPolicy redactKeys = params.getRedactionPolicy();
 
-        StringBuilder link = new StringBuilder("https://").append(params.getAdvertiserId()).append(".");
+        TuneQueryEncoder link = queryEncoder.get().reset().append("https://").append(params.getAdvertiserId()).append('.');
         link.append(TuneConstants.TUNE_DOMAIN);
         link.append("/serve?");
         link.append(TuneUrlKeys.SDK_VER + "=").append(Tune.getSDKVersion());
         link.append("&" + TuneUrlKeys.TRANSACTION_ID + "=").append(UUID.randomUUID().toString());
-        link.append("&" + TuneUrlKeys.SDK_RETRY_ATTEMPT + "=0");
 
         safeAppend(link, redactKeys, TuneUrlKeys.SDK, params.getSDKType().toString());
         safeAppend(link, redactKeys, TuneUrlKeys.ACTION, params.getAction());
@@ -94,57 +99,58 @@ class TuneUrlBuilder {
         return link.toString();
     }
 
+    /**
+     * Appends the retry attempt of a queued request to its link, just before it is sent.
+     * @param link Url address of the queued request
+     * @param retryAttempt number of times the request has been retried
+     * @return Url address with the retry attempt
+     */
+    static String appendRetryAttempt(String link, int retryAttempt) {
+        return link + "&" + TuneUrlKeys.SDK_RETRY_ATTEMPT + "=" + retryAttempt;
+    }
+
+    /**
+     * Builds the root link of the advertiser's engine host, which postbacks are sent to.
+     * @return engine URL string
+     */
+    static String buildEngineLink(final TuneParameters params) {
+        return "https://" + params.getAdvertiserId() + "." + TuneConstants.TUNE_DOMAIN + "/";
+    }
+
+    /**
+     * Builds the link of the batch endpoint that accepts several queued postbacks at once.
+     * @return batch endpoint URL string
+     */
+    static String buildBatchLink(final TuneParameters params) {
+        StringBuilder link = new StringBuilder("https://").append(params.getAdvertiserId()).append(".");
+        link.append(TuneConstants.TUNE_DOMAIN);
+        link.append(TuneConstants.BATCH_PATH).append("?");
+        link.append(TuneUrlKeys.SDK_VER + "=").append(Tune.getSDKVersion());
+        link.append("&" + TuneUrlKeys.ADVERTISER_ID + "=").append(params.getAdvertiserId());
+        return link.toString();
+    }
+
     /**
      * Builds data in conversion link based on class member values, to be encrypted.
      * @return URL-encoded string based on class settings.
      */
-    static synchronized String buildDataUnencrypted(final TuneParameters params, final TuneEvent eventData) {
-        Set<String> redactKeys = TuneParameters.getRedactedKeys();
-        StringBuilder link = new StringBuilder();
+    static String buildDataUnencrypted(final TuneParameters params, final TuneEvent eventData) {
+        TuneRedactionPolicy redactKeys = params.getRedactionPolicy();
+        TuneQueryEncoder link = queryEncoder.get().reset();
 
         link.append(TuneUrlKeys.CONNECTION_TYPE + "=").append(params.getConnectionType());
-        safeAppend(link, redactKeys, TuneUrlKeys.ANDROID_ID, params.getAndroidId());
-        safeAppend(link, redactKeys, TuneUrlKeys.ANDROID_ID_SHA256, params.getAndroidIdSha256());
-
-        safeAppend(link, redactKeys, TuneUrlKeys.APP_NAME, params.getAppName());
-        safeAppend(link, redactKeys, TuneUrlKeys.APP_VERSION, params.getAppVersion());
-        safeAppend(link, redactKeys, TuneUrlKeys.APP_VERSION_NAME, params.getAppVersionName());
-        safeAppend(link, redactKeys, TuneUrlKeys.COUNTRY_CODE, params.getCountryCode());
-        safeAppend(link, redactKeys, TuneUrlKeys.DEVICE_BRAND, params.getDeviceBrand());
-        safeAppend(link, redactKeys, TuneUrlKeys.DEVICE_BUILD, params.getDeviceBuild());
-        safeAppend(link, redactKeys, TuneUrlKeys.DEVICE_CARRIER, params.getDeviceCarrier());
-        safeAppend(link, redactKeys, TuneUrlKeys.DEVICE_CPU_TYPE, params.getDeviceCpuType());
-        safeAppend(link, redactKeys, TuneUrlKeys.DEVICE_CPU_SUBTYPE, params.getDeviceCpuSubtype());
-        safeAppend(link, redactKeys, TuneUrlKeys.DEVICE_MODEL, params.getDeviceModel());
-        safeAppend(link, redactKeys, TuneUrlKeys.DEVICE_ID, params.getDeviceId());
-        safeAppend(link, redactKeys, TuneUrlKeys.FIRE_AID, params.getFireAdvertisingId());
-        safeAppend(link, redactKeys, TuneUrlKeys.GOOGLE_AID, params.getGoogleAdvertisingId());
-        safeAppend(link, redactKeys, TuneUrlKeys.INSTALL_DATE, params.getInstallDate());
-        safeAppend(link, redactKeys, TuneUrlKeys.INSTALL_BEGIN_TIMESTAMP, params.getInstallBeginTimestampSeconds());
-        safeAppend(link, redactKeys, TuneUrlKeys.REFERRER_CLICK_TIMESTAMP, params.getReferrerClickTimestampSeconds());
-        safeAppend(link, redactKeys, TuneUrlKeys.INSTALLER, params.getInstaller());
-        safeAppend(link, redactKeys, TuneUrlKeys.INSTALL_REFERRER, params.getInstallReferrer());
-        safeAppend(link, redactKeys, TuneUrlKeys.LANGUAGE, params.getLanguage());
+        // Device and app parameters, encoded once until one of them changes
+        link.append(params.getDeviceSnapshot().getQueryFragment());
+
         safeAppend(link, redactKeys, TuneUrlKeys.LAST_OPEN_LOG_ID, params.getLastOpenLogId());
         if (params.getLocation() != null) {
             safeAppend(link, redactKeys, TuneUrlKeys.ALTITUDE, Double.toString(params.getLocation().getAltitude()));
             safeAppend(link, redactKeys, TuneUrlKeys.LATITUDE, Double.toString(params.getLocation().getLatitude()));
             safeAppend(link, redactKeys, TuneUrlKeys.LONGITUDE, Double.toString(params.getLocation().getLongitude()));
         }
-        safeAppend(link, redactKeys, TuneUrlKeys.LOCALE, params.getLocale());
-        safeAppend(link, redactKeys, TuneUrlKeys.MAT_ID, params.getMatId());
-        safeAppend(link, redactKeys, TuneUrlKeys.MOBILE_COUNTRY_CODE, params.getMCC());
-        safeAppend(link, redactKeys, TuneUrlKeys.MOBILE_NETWORK_CODE, params.getMNC());
         safeAppend(link, redactKeys, TuneUrlKeys.OPEN_LOG_ID, params.getOpenLogId());
-        safeAppend(link, redactKeys, TuneUrlKeys.OS_VERSION, params.getOsVersion());
-        safeAppend(link, redactKeys, TuneUrlKeys.SDK_PLUGIN, params.getPluginName());
-        safeAppend(link, redactKeys, TuneUrlKeys.PLATFORM_AID, params.getPlatformAdvertisingId());
         safeAppend(link, redactKeys, TuneUrlKeys.PURCHASE_STATUS, params.getPurchaseStatus());
         safeAppend(link, redactKeys, TuneUrlKeys.REFERRER_DELAY, params.getReferrerDelay());
-        safeAppend(link, redactKeys, TuneUrlKeys.SCREEN_DENSITY, params.getScreenDensity());
-        safeAppend(link, redactKeys, TuneUrlKeys.SCREEN_LAYOUT_SIZE, params.getScreenWidth() + "x" + params.getScreenHeight());
-        safeAppend(link, redactKeys, TuneUrlKeys.SDK_VERSION, Tune.getSDKVersion());
-        safeAppend(link, redactKeys, TuneUrlKeys.USER_AGENT, params.getUserAgent());
 
         // Append event-level params
         safeAppend(link, redactKeys, TuneUrlKeys.ATTRIBUTE1, eventData.getAttribute1());
@@ -211,13 +217,13 @@ class TuneUrlBuilder {
      * Update the advertising ID and install referrer, if present, and encrypts the data string.
      * @return encrypted string
      */
-    static synchronized String updateAndEncryptData(final TuneParameters params, String data, final TuneEncryption encryption) {
+    static String updateAndEncryptData(final TuneParameters params, String data, final TuneEncryption encryption) {
         if (data == null) {
             data = "";
         }
 
-        Set<String> redactKeys = TuneParameters.getRedactedKeys();
-        StringBuilder updatedData = new StringBuilder(data);
+        TuneRedactionPolicy redactKeys = params != null ? params.getRedactionPolicy() : TuneRedactionPolicy.DEFAULT;
+        TuneQueryEncoder updatedData = queryEncoder.get().reset().append(data);
 
         if (params != null) {
             String gaid = params.getGoogleAdvertisingId();
@@ -295,7 +301,12 @@ class TuneUrlBuilder {
 
         String updatedDataStr = updatedData.toString();
         try {
-            updatedDataStr = TuneUtils.bytesToHex(encryption.encrypt(updatedDataStr));
+            byte[] encrypted;
+            // The cipher is shared by every request
+            synchronized (encryption) {
+                encrypted = encryption.encrypt(updatedDataStr);
+            }
+            updatedDataStr = TuneUtils.bytesToHex(encrypted);
         } catch (Exception e) {
             TuneDebugLog.d("updateAndEncryptData() exception", e);
         }
@@ -330,17 +341,13 @@ class TuneUrlBuilder {
     /*
      * URL builders
      */
-    private static synchronized void safeAppend(StringBuilder link, Set<String> redactKeys, String key, String value) {
+    private static void safeAppend(TuneQueryEncoder link, TuneRedactionPolicy redactKeys, String key, String value) {
         if (value != null && !value.equals("")) {
-            if (redactKeys.contains(key)) {
+            if (redactKeys.isRedacted(key)) {
                 // Key is redacted, and will not be appended.
                 // TuneDebugLog.d("REDACTED: " + key);
             } else {
-                try {
-                    link.append("&").append(key).append("=").append(URLEncoder.encode(value, "UTF-8"));
-                } catch (UnsupportedEncodingException e) {
-                    TuneDebugLog.w("failed encoding value " + value + " for key " + key, e);
-                }
+                link.appendParameter(key, value);
             }
         }
     }
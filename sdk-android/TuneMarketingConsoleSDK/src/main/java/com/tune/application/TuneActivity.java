@@ -123,5 +123,11 @@ public class TuneActivity extends Activity {
         }
 
         TuneDebugLog.i(activity.getClass().getSimpleName(), "onPause()");
+
+        // The app may be going to the background, where it can be killed, so save parameters set in the last moments
+        TuneInternal tune = TuneInternal.getInstance();
+        if (tune != null && tune.getTuneParams() != null) {
+            tune.getTuneParams().flush();
+        }
     }
 }
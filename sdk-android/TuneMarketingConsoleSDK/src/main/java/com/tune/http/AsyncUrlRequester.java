@@ -0,0 +1,44 @@
+package com.tune.http;
+
+import com.tune.TuneDeeplinkListener;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.Future;
+
+/**
+ * A {@link UrlRequester} that can also send requests without blocking the caller.
+ */
+public interface AsyncUrlRequester extends UrlRequester {
+
+    /**
+     * Receives the response to an asynchronous request.
+     */
+    interface Callback {
+        /**
+         * Called on a requester thread when the request completes.
+         * @param response server response, see {@link UrlRequester#requestUrl(String, JSONObject, boolean)}
+         */
+        void onResponse(JSONObject response);
+    }
+
+    /**
+     * Starts an HTTP request to the given url, GET or POST based on whether json was passed or not.
+     * @param url the url to hit
+     * @param json JSONObject with event item and IAP verification json, if not null or empty then will POST to url
+     * @param debugMode whether to log the server response
+     * @param callback notified with the response when the request completes, may be null
+     * @return future of the server response, see {@link UrlRequester#requestUrl(String, JSONObject, boolean)}
+     */
+    Future<JSONObject> requestUrlAsync(String url, JSONObject json, boolean debugMode, Callback callback);
+
+    /**
+     * Starts a deferred deeplink request, notifying the listener when it completes.
+     * @param deeplinkURL the deeplink endpoint
+     * @param conversionKey TUNE conversion key
+     * @param listener notified with the deeplink or the failure
+     * @return future that completes once the listener has been notified
+     */
+    Future<?> requestDeeplinkAsync(String deeplinkURL, String conversionKey, TuneDeeplinkListener listener);
+
+}
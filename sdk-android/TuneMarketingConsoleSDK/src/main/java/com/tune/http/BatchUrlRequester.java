@@ -0,0 +1,19 @@
+package com.tune.http;
+
+import org.json.JSONArray;
+
+/**
+ * A {@link UrlRequester} that can also send several queued postbacks in one HTTP request.
+ */
+public interface BatchUrlRequester extends UrlRequester {
+
+    /**
+     * Sends a batch of postbacks in a single compressed POST.
+     * @param url the batch endpoint
+     * @param requests array of {"link": fullLink, "post_body": {...}, "index": n} objects
+     * @param debugMode whether to log the server response
+     * @return array of server responses, each with the "index" of its request, or null if the whole batch should be retried
+     */
+    JSONArray requestBatch(String url, JSONArray requests, boolean debugMode);
+
+}
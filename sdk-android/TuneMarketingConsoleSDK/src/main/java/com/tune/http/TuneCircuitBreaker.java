@@ -0,0 +1,191 @@
+package com.tune.http;
+
+import com.tune.TuneConstants;
+
+/**
+ * Stops requests to a failing server for a while rather than sending every queued event into the outage.
+ * <p>
+ * The breaker starts closed and lets every request through. Once enough of the recent requests have failed
+ * with a server error or a network failure it opens, and requests are refused until the open time has passed.
+ * It then lets a single probe request through, half open: a successful probe closes the breaker, a failed one
+ * opens it again for twice as long.
+ */
+public class TuneCircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Told when the breaker changes state.
+     */
+    public interface Listener {
+        void onStateChanged(State state);
+    }
+
+    private final boolean[] outcomes;
+    private final int minRequests;
+    private final double failureRate;
+    private final long openTime;
+    private final long maxOpenTime;
+
+    // Recent request outcomes, true for a failure, as a ring buffer
+    private int outcomeCount;
+    private int nextOutcome;
+    private int failures;
+
+    private State state = State.CLOSED;
+    // Time the breaker opened for, doubled by each failed probe
+    private long currentOpenTime;
+    // When an open breaker lets its probe through
+    private long probeTime;
+    private boolean probeInFlight;
+
+    private volatile Listener listener;
+
+    public TuneCircuitBreaker() {
+        this(TuneConstants.CIRCUIT_WINDOW, TuneConstants.CIRCUIT_MIN_REQUESTS, TuneConstants.CIRCUIT_FAILURE_RATE,
+                TuneConstants.CIRCUIT_OPEN_TIME, TuneConstants.CIRCUIT_MAX_OPEN_TIME);
+    }
+
+    /**
+     * @param window number of recent requests the failure rate is taken over
+     * @param minRequests fewest requests in the window before the breaker can open
+     * @param failureRate fraction of failed requests in the window that opens the breaker
+     * @param openTime milliseconds the breaker first stays open for
+     * @param maxOpenTime most milliseconds the breaker stays open for after failed probes
+     */
+    public TuneCircuitBreaker(int window, int minRequests, double failureRate, long openTime, long maxOpenTime) {
+        this.outcomes = new boolean[window];
+        this.minRequests = minRequests;
+        this.failureRate = failureRate;
+        this.openTime = openTime;
+        this.maxOpenTime = maxOpenTime;
+        this.currentOpenTime = openTime;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Asks to send a request. A request that is let through must be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     * @return true if the request can be sent
+     */
+    public boolean allowRequest() {
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.HALF_OPEN || System.currentTimeMillis() < probeTime) {
+                return false;
+            }
+            // Open long enough, let one probe through
+            state = State.HALF_OPEN;
+            probeInFlight = true;
+        }
+        notifyListener(State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * @return milliseconds until a request would be let through, 0 if one would be now
+     */
+    public synchronized long getRetryDelay() {
+        if (state == State.CLOSED) {
+            return 0;
+        }
+        if (state == State.HALF_OPEN) {
+            // Wait on the probe, at most as long as a failed probe would keep the breaker open
+            return probeInFlight ? Math.min(currentOpenTime * 2, maxOpenTime) : 0;
+        }
+        return Math.max(0, probeTime - System.currentTimeMillis());
+    }
+
+    /**
+     * Records a request that got a response from the server.
+     */
+    public void recordSuccess() {
+        synchronized (this) {
+            record(false);
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            state = State.CLOSED;
+            probeInFlight = false;
+            currentOpenTime = openTime;
+            clearOutcomes();
+        }
+        notifyListener(State.CLOSED);
+    }
+
+    /**
+     * Records a request that failed with a server error, or got no response.
+     */
+    public void recordFailure() {
+        synchronized (this) {
+            record(true);
+            if (state == State.HALF_OPEN) {
+                // The server is still failing, back off further
+                probeInFlight = false;
+                currentOpenTime = Math.min(currentOpenTime * 2, maxOpenTime);
+            } else if (state != State.CLOSED || outcomeCount < minRequests || failures < failureRate * outcomeCount) {
+                return;
+            }
+            state = State.OPEN;
+            probeTime = System.currentTimeMillis() + currentOpenTime;
+        }
+        notifyListener(State.OPEN);
+    }
+
+    /**
+     * Closes the breaker and forgets the recent requests.
+     */
+    public void reset() {
+        synchronized (this) {
+            boolean changed = state != State.CLOSED;
+            state = State.CLOSED;
+            probeInFlight = false;
+            currentOpenTime = openTime;
+            clearOutcomes();
+            if (!changed) {
+                return;
+            }
+        }
+        notifyListener(State.CLOSED);
+    }
+
+    private void record(boolean failure) {
+        if (outcomeCount == outcomes.length) {
+            if (outcomes[nextOutcome]) {
+                failures--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[nextOutcome] = failure;
+        if (failure) {
+            failures++;
+        }
+        nextOutcome = (nextOutcome + 1) % outcomes.length;
+    }
+
+    private void clearOutcomes() {
+        outcomeCount = 0;
+        nextOutcome = 0;
+        failures = 0;
+    }
+
+    private void notifyListener(State newState) {
+        Listener current = listener;
+        if (current != null) {
+            current.onStateChanged(newState);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.tune.http;
+
+import com.tune.TuneConstants;
+import com.tune.TuneDebugLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TuneUrlRequester} that sends requests over HTTP/2 with OkHttp 3, when the app includes it.
+ * Postbacks in flight together and the deeplink lookup are multiplexed as streams on one connection per host,
+ * and HPACK sends the headers repeated on every request as small table references.
+ * Servers that don't negotiate HTTP/2 are spoken to over HTTP/1.1.
+ * <p>
+ * OkHttp is called through reflection so the SDK doesn't depend on it, check {@link #isAvailable()} first.
+ */
+public class TuneHttp2UrlRequester extends TuneUrlRequester {
+    private static final String OKHTTP_CLIENT = "okhttp3.OkHttpClient";
+
+    private final OkHttp okHttp;
+    // The one client of this requester, whose connection pool every request shares
+    private final Object client;
+
+    /**
+     * @return whether OkHttp 3 is included in the app
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName(OKHTTP_CLIENT);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Negotiates HTTP/2 with TLS servers, falling back to HTTP/1.1.
+     * @throws IllegalStateException if OkHttp 3 is not included in the app
+     */
+    public TuneHttp2UrlRequester() {
+        this(false);
+    }
+
+    /**
+     * @param priorKnowledge whether to speak HTTP/2 over cleartext connections without negotiating it,
+     *                       for servers known to support it
+     * @throws IllegalStateException if OkHttp 3 is not included in the app
+     */
+    public TuneHttp2UrlRequester(boolean priorKnowledge) {
+        try {
+            okHttp = new OkHttp();
+            List<?> protocols = priorKnowledge
+                    ? Collections.singletonList(okHttp.protocol("H2_PRIOR_KNOWLEDGE"))
+                    : Arrays.asList(okHttp.protocol("HTTP_2"), okHttp.protocol("HTTP_1_1"));
+            Object builder = okHttp.clientBuilder.newInstance();
+            okHttp.builderProtocols.invoke(builder, protocols);
+            okHttp.builderConnectTimeout.invoke(builder, (long) TuneConstants.TIMEOUT_INITIAL, TimeUnit.MILLISECONDS);
+            okHttp.builderReadTimeout.invoke(builder, (long) TuneConstants.TIMEOUT, TimeUnit.MILLISECONDS);
+            okHttp.builderWriteTimeout.invoke(builder, (long) TuneConstants.TIMEOUT, TimeUnit.MILLISECONDS);
+            client = okHttp.builderBuild.invoke(builder);
+        } catch (Exception e) {
+            throw new IllegalStateException("OkHttp 3 is not available", e);
+        }
+    }
+
+    @Override
+    protected TuneHttpResponse execute(String method, String url, Map<String, String> headers, TuneRequestBody body, int timeout) throws IOException {
+        try {
+            Object requestBuilder = okHttp.requestBuilder.newInstance();
+            okHttp.requestUrl.invoke(requestBuilder, url);
+            String contentType = null;
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if ("Content-Type".equalsIgnoreCase(header.getKey())) {
+                    contentType = header.getValue();
+                }
+                okHttp.requestHeader.invoke(requestBuilder, header.getKey(), header.getValue());
+            }
+            Object requestBody = null;
+            if (body != null) {
+                Object mediaType = contentType != null ? okHttp.mediaTypeParse.invoke(null, contentType) : null;
+                // The body buffer is only reused once this call returns, so OkHttp can send it without a copy
+                requestBody = okHttp.requestBodyCreate.invoke(null, mediaType, body.getBuffer(), 0, body.getLength());
+            }
+            okHttp.requestMethod.invoke(requestBuilder, method, requestBody);
+            Object request = okHttp.requestBuild.invoke(requestBuilder);
+
+            Object response = okHttp.callExecute.invoke(okHttp.newCall.invoke(getClient(timeout), request));
+
+            int status = (Integer) okHttp.responseCode.invoke(response);
+            Object responseHeaders = okHttp.responseHeaders.invoke(response);
+            Map<String, String> headerMap = new HashMap<>();
+            int count = (Integer) okHttp.headersSize.invoke(responseHeaders);
+            for (int i = 0; i < count; i++) {
+                String name = (String) okHttp.headersName.invoke(responseHeaders, i);
+                headerMap.put(name.toLowerCase(Locale.US), (String) okHttp.headersValue.invoke(responseHeaders, i));
+            }
+            Object responseBody = okHttp.responseBody.invoke(response);
+            InputStream stream = responseBody != null ? (InputStream) okHttp.bodyByteStream.invoke(responseBody) : null;
+            return new TuneHttpResponse(status, headerMap, stream);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InstantiationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the client to send one call with the given connect timeout. Its builder is derived from the shared
+     * client, so the call still goes over the shared client's connection pool and dispatcher.
+     */
+    private Object getClient(int timeout) throws InvocationTargetException, IllegalAccessException {
+        if (timeout == TuneConstants.TIMEOUT_INITIAL) {
+            return client;
+        }
+        Object builder = okHttp.clientNewBuilder.invoke(client);
+        okHttp.builderConnectTimeout.invoke(builder, (long) timeout, TimeUnit.MILLISECONDS);
+        return okHttp.builderBuild.invoke(builder);
+    }
+
+    /**
+     * Stops sending asynchronous requests and closes idle connections.
+     */
+    @Override
+    public synchronized void shutdown() {
+        super.shutdown();
+        try {
+            okHttp.poolEvictAll.invoke(okHttp.clientConnectionPool.invoke(client));
+        } catch (Exception e) {
+            TuneDebugLog.d("Could not close HTTP/2 connections", e);
+        }
+    }
+
+    /**
+     * The parts of the OkHttp 3 API used, looked up once.
+     */
+    private static class OkHttp {
+        final Class<?> protocolClass;
+        final Constructor<?> clientBuilder;
+        final Method builderProtocols;
+        final Method builderConnectTimeout;
+        final Method builderReadTimeout;
+        final Method builderWriteTimeout;
+        final Method builderBuild;
+        final Method clientNewBuilder;
+        final Method clientConnectionPool;
+        final Method poolEvictAll;
+        final Method newCall;
+        final Method callExecute;
+
+        final Constructor<?> requestBuilder;
+        final Method requestUrl;
+        final Method requestHeader;
+        final Method requestMethod;
+        final Method requestBuild;
+        final Method mediaTypeParse;
+        final Method requestBodyCreate;
+
+        final Method responseCode;
+        final Method responseHeaders;
+        final Method responseBody;
+        final Method headersSize;
+        final Method headersName;
+        final Method headersValue;
+        final Method bodyByteStream;
+
+        OkHttp() throws ClassNotFoundException, NoSuchMethodException {
+            Class<?> clientClass = Class.forName(OKHTTP_CLIENT);
+            Class<?> builderClass = Class.forName("okhttp3.OkHttpClient$Builder");
+            Class<?> requestClass = Class.forName("okhttp3.Request");
+            Class<?> requestBuilderClass = Class.forName("okhttp3.Request$Builder");
+            Class<?> requestBodyClass = Class.forName("okhttp3.RequestBody");
+            Class<?> mediaTypeClass = Class.forName("okhttp3.MediaType");
+            Class<?> callClass = Class.forName("okhttp3.Call");
+            Class<?> responseClass = Class.forName("okhttp3.Response");
+            Class<?> headersClass = Class.forName("okhttp3.Headers");
+            Class<?> responseBodyClass = Class.forName("okhttp3.ResponseBody");
+            Class<?> connectionPoolClass = Class.forName("okhttp3.ConnectionPool");
+            protocolClass = Class.forName("okhttp3.Protocol");
+
+            clientBuilder = builderClass.getConstructor();
+            builderProtocols = builderClass.getMethod("protocols", List.class);
+            builderConnectTimeout = builderClass.getMethod("connectTimeout", long.class, TimeUnit.class);
+            builderReadTimeout = builderClass.getMethod("readTimeout", long.class, TimeUnit.class);
+            builderWriteTimeout = builderClass.getMethod("writeTimeout", long.class, TimeUnit.class);
+            builderBuild = builderClass.getMethod("build");
+            clientNewBuilder = clientClass.getMethod("newBuilder");
+            clientConnectionPool = clientClass.getMethod("connectionPool");
+            poolEvictAll = connectionPoolClass.getMethod("evictAll");
+            newCall = clientClass.getMethod("newCall", requestClass);
+            callExecute = callClass.getMethod("execute");
+
+            requestBuilder = requestBuilderClass.getConstructor();
+            requestUrl = requestBuilderClass.getMethod("url", String.class);
+            requestHeader = requestBuilderClass.getMethod("header", String.class, String.class);
+            requestMethod = requestBuilderClass.getMethod("method", String.class, requestBodyClass);
+            requestBuild = requestBuilderClass.getMethod("build");
+            mediaTypeParse = mediaTypeClass.getMethod("parse", String.class);
+            requestBodyCreate = requestBodyClass.getMethod("create", mediaTypeClass, byte[].class, int.class, int.class);
+
+            responseCode = responseClass.getMethod("code");
+            responseHeaders = responseClass.getMethod("headers");
+            responseBody = responseClass.getMethod("body");
+            headersSize = headersClass.getMethod("size");
+            headersName = headersClass.getMethod("name", int.class);
+            headersValue = headersClass.getMethod("value", int.class);
+            bodyByteStream = responseBodyClass.getMethod("byteStream");
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Object protocol(String name) {
+            return Enum.valueOf((Class) protocolClass, name);
+        }
+    }
+}
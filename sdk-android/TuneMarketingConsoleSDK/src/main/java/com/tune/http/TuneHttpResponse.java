@@ -0,0 +1,167 @@
+package com.tune.http;
+
+import com.tune.TuneConstants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Status, headers and body stream of an HTTP response.
+ * The body must be closed when done with so the connection can be reused.
+ */
+public class TuneHttpResponse {
+    // HTTP status of a rate limited request
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+    // Reset times above this are seconds since the epoch rather than seconds from now
+    private static final long EPOCH_SECONDS_THRESHOLD = 1000000000L;
+
+    private final int status;
+    private final Map<String, String> headers;
+    private final InputStream body;
+
+    /**
+     * @param status HTTP status code
+     * @param headers response headers, keyed by lower case name
+     * @param body response body, null if there is none
+     */
+    public TuneHttpResponse(int status, Map<String, String> headers, InputStream body) {
+        this.status = status;
+        this.headers = headers != null ? headers : new HashMap<String, String>();
+        this.body = body != null ? body : new ByteArrayInputStream(new byte[0]);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @param name header name, in any case
+     * @return the header value, null if not present
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Reads how long the server asked clients to wait before sending more requests: the Retry-After header of
+     * a 429 or 503 response, or the reset time of its rate limit headers once no requests are left.
+     * @param now current time in milliseconds
+     * @return milliseconds to wait, -1 if the server did not ask for a wait
+     */
+    public long getRetryDelay(long now) {
+        boolean rejected = status == HTTP_TOO_MANY_REQUESTS || status == HttpURLConnection.HTTP_UNAVAILABLE;
+        if (rejected) {
+            long retryAfter = parseRetryAfter(getHeader("Retry-After"), now);
+            if (retryAfter >= 0) {
+                return retryAfter;
+            }
+        }
+
+        String remaining = getHeader("RateLimit-Remaining");
+        String reset = getHeader("RateLimit-Reset");
+        if (remaining == null && reset == null) {
+            remaining = getHeader("X-RateLimit-Remaining");
+            reset = getHeader("X-RateLimit-Reset");
+        }
+        if (rejected || "0".equals(remaining != null ? remaining.trim() : null)) {
+            return parseReset(reset, now);
+        }
+        return -1;
+    }
+
+    /**
+     * @param value Retry-After header, either seconds or an HTTP date
+     * @return milliseconds from now, -1 if missing or malformed
+     */
+    private static long parseRetryAfter(String value, long now) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // not seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - now);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param value rate limit reset header, seconds from now or seconds since the epoch
+     * @return milliseconds from now, -1 if missing or malformed
+     */
+    private static long parseReset(String value, long now) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            long seconds = Long.parseLong(value.trim());
+            if (seconds > EPOCH_SECONDS_THRESHOLD) {
+                return Math.max(0, seconds * 1000 - now);
+            }
+            return Math.max(0, seconds * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Reads the whole body as a string.
+     * @return the body, empty if there is none
+     * @throws IOException if the body could not be read or is larger than {@link TuneConstants#MAX_RESPONSE_SIZE}
+     */
+    public String readBody() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = body.read(buffer)) != -1) {
+            if (bytes.size() + count > TuneConstants.MAX_RESPONSE_SIZE) {
+                throw new IOException("Response larger than " + TuneConstants.MAX_RESPONSE_SIZE + " bytes");
+            }
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * Reads whatever is left of the body and closes it, letting the transport reuse the connection.
+     * A body larger than {@link TuneConstants#MAX_RESPONSE_SIZE} is closed without reading the rest, giving up the connection.
+     */
+    public void close() {
+        try {
+            byte[] buffer = new byte[512];
+            long drained = 0;
+            int count;
+            while (drained < TuneConstants.MAX_RESPONSE_SIZE && (count = body.read(buffer)) != -1) {
+                // drain so the connection is left at the start of the next response
+                drained += count;
+            }
+        } catch (IOException e) {
+            // the connection will not be reused
+        }
+        try {
+            body.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.tune.http;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Request body whose JSON is serialized as UTF-8 straight into a buffer that is reused from request to request
+ * on the same thread, rather than through a String and a byte array copy of it.
+ * A body is only valid until the next body is built on the same thread, so it must be sent before then.
+ */
+public final class TuneRequestBody {
+    private static final int INITIAL_SIZE = 2 * 1024;
+    // A buffer grown past this by an unusually large body is dropped rather than kept for reuse
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+    // gzip member header: magic, deflate method, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<TuneRequestBody> reusable = new ThreadLocal<TuneRequestBody>() {
+        @Override
+        protected TuneRequestBody initialValue() {
+            return new TuneRequestBody();
+        }
+    };
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int length;
+    // Uncompressed JSON of a body that is gzipped, and the compressor, created on first use
+    private byte[] json;
+    private int jsonLength;
+    private Deflater deflater;
+    private CRC32 crc;
+    // Buffer being serialized into, replaced as it grows
+    private byte[] target;
+
+    private TuneRequestBody() {
+    }
+
+    /**
+     * Serializes a JSON object as UTF-8 into this thread's body buffer.
+     * @param object the JSON to send
+     * @return this thread's body, valid until the next body is built on it
+     * @throws JSONException if the object holds a number JSON can't represent
+     */
+    public static TuneRequestBody json(JSONObject object) throws JSONException {
+        TuneRequestBody body = reusable.get();
+        body.buffer = reset(body.buffer);
+        body.length = body.writeObject(body.buffer, 0, object, null, null);
+        return body;
+    }
+
+    /**
+     * Serializes a JSON object as UTF-8 and gzips it into this thread's body buffer.
+     * @param object the JSON to send
+     * @param extraKey key of a string member to send after the object's own members, null for none
+     * @param extraValue value of the extra member, which is left out if null
+     * @return this thread's body, valid until the next body is built on it
+     * @throws JSONException if the object holds a number JSON can't represent
+     */
+    public static TuneRequestBody gzippedJson(JSONObject object, String extraKey, String extraValue) throws JSONException {
+        TuneRequestBody body = reusable.get();
+        body.json = reset(body.json);
+        body.jsonLength = body.writeObject(body.json, 0, object, extraKey, extraValue);
+        body.gzip();
+        return body;
+    }
+
+    /**
+     * @return the buffer holding the body, from offset 0 to {@link #getLength()}
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return length of the body in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Writes the body to a stream, without copying it.
+     * @param out stream to write to
+     * @throws IOException if the stream could not be written to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * @return a copy of the body that stays valid after the buffer is reused
+     */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, 0, copy, 0, length);
+        return copy;
+    }
+
+    private static byte[] reset(byte[] buffer) {
+        return buffer == null || buffer.length > MAX_RETAINED_SIZE ? new byte[INITIAL_SIZE] : buffer;
+    }
+
+    private void gzip() {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            crc = new CRC32();
+        }
+        buffer = reset(buffer);
+        System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+        length = GZIP_HEADER.length;
+
+        deflater.reset();
+        deflater.setInput(json, 0, jsonLength);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = grow(buffer, length + 1);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+
+        crc.reset();
+        crc.update(json, 0, jsonLength);
+        buffer = grow(buffer, length + 8);
+        length = writeIntLE(buffer, length, (int) crc.getValue());
+        length = writeIntLE(buffer, length, jsonLength);
+    }
+
+    private static int writeIntLE(byte[] buffer, int position, int value) {
+        buffer[position] = (byte) value;
+        buffer[position + 1] = (byte) (value >> 8);
+        buffer[position + 2] = (byte) (value >> 16);
+        buffer[position + 3] = (byte) (value >> 24);
+        return position + 4;
+    }
+
+    private static byte[] grow(byte[] buffer, int needed) {
+        if (needed <= buffer.length) {
+            return buffer;
+        }
+        byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        return grown;
+    }
+
+    /**
+     * Serializes the object the way org.json's JSONStringer does, so the bytes are those of its toString().
+     * @return length of the serialized object
+     */
+    private int writeObject(byte[] into, int position, JSONObject object, String extraKey, String extraValue) throws JSONException {
+        target = into;
+        position = appendObject(position, object, extraKey, extraValue);
+        if (into == json) {
+            json = target;
+        } else {
+            buffer = target;
+        }
+        target = null;
+        return position;
+    }
+
+    private int appendObject(int position, JSONObject object, String extraKey, String extraValue) throws JSONException {
+        position = appendByte(position, '{');
+        boolean first = true;
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (extraValue != null && key.equals(extraKey)) {
+                continue;
+            }
+            if (!first) {
+                position = appendByte(position, ',');
+            }
+            first = false;
+            position = appendString(position, key);
+            position = appendByte(position, ':');
+            position = appendValue(position, object.opt(key));
+        }
+        if (extraKey != null && extraValue != null) {
+            if (!first) {
+                position = appendByte(position, ',');
+            }
+            position = appendString(position, extraKey);
+            position = appendByte(position, ':');
+            position = appendString(position, extraValue);
+        }
+        return appendByte(position, '}');
+    }
+
+    private int appendArray(int position, JSONArray array) throws JSONException {
+        position = appendByte(position, '[');
+        for (int i = 0; i < array.length(); i++) {
+            if (i > 0) {
+                position = appendByte(position, ',');
+            }
+            position = appendValue(position, array.opt(i));
+        }
+        return appendByte(position, ']');
+    }
+
+    private int appendValue(int position, Object value) throws JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            return appendAscii(position, "null");
+        } else if (value instanceof JSONObject) {
+            return appendObject(position, (JSONObject) value, null, null);
+        } else if (value instanceof JSONArray) {
+            return appendArray(position, (JSONArray) value);
+        } else if (value instanceof Boolean) {
+            return appendAscii(position, value.toString());
+        } else if (value instanceof Number) {
+            return appendAscii(position, JSONObject.numberToString((Number) value));
+        }
+        return appendString(position, value.toString());
+    }
+
+    private int appendString(int position, String value) {
+        position = appendByte(position, '"');
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    position = appendByte(position, '\\');
+                    position = appendByte(position, c);
+                    break;
+                case '\t':
+                    position = appendEscape(position, 't');
+                    break;
+                case '\b':
+                    position = appendEscape(position, 'b');
+                    break;
+                case '\n':
+                    position = appendEscape(position, 'n');
+                    break;
+                case '\r':
+                    position = appendEscape(position, 'r');
+                    break;
+                case '\f':
+                    position = appendEscape(position, 'f');
+                    break;
+                default:
+                    if (c <= 0x1f) {
+                        position = appendEscape(position, 'u');
+                        position = appendByte(position, '0');
+                        position = appendByte(position, '0');
+                        position = appendByte(position, HEX[c >> 4]);
+                        position = appendByte(position, HEX[c & 0xf]);
+                    } else if (c < 0x80) {
+                        position = appendByte(position, c);
+                    } else if (c < 0x800) {
+                        position = appendByte(position, 0xc0 | (c >> 6));
+                        position = appendByte(position, 0x80 | (c & 0x3f));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        position = appendByte(position, 0xf0 | (codePoint >> 18));
+                        position = appendByte(position, 0x80 | ((codePoint >> 12) & 0x3f));
+                        position = appendByte(position, 0x80 | ((codePoint >> 6) & 0x3f));
+                        position = appendByte(position, 0x80 | (codePoint & 0x3f));
+                    } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                        // Unpaired surrogate, replaced the same way String.getBytes would
+                        position = appendByte(position, '?');
+                    } else {
+                        position = appendByte(position, 0xe0 | (c >> 12));
+                        position = appendByte(position, 0x80 | ((c >> 6) & 0x3f));
+                        position = appendByte(position, 0x80 | (c & 0x3f));
+                    }
+                    break;
+            }
+        }
+        return appendByte(position, '"');
+    }
+
+    private int appendEscape(int position, char c) {
+        return appendByte(appendByte(position, '\\'), c);
+    }
+
+    private int appendAscii(int position, String value) {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            position = appendByte(position, value.charAt(i));
+        }
+        return position;
+    }
+
+    private int appendByte(int position, int b) {
+        if (position == target.length) {
+            target = grow(target, position + 1);
+        }
+        target[position] = (byte) b;
+        return position + 1;
+    }
+}
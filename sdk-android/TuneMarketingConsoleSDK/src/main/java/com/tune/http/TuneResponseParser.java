@@ -0,0 +1,334 @@
+package com.tune.http;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming parser that pulls a few top level fields out of a JSON object response, skipping over the rest
+ * without building it. Parsing stops as soon as every wanted field has been read.
+ * A parser keeps its buffers between responses and is not thread safe.
+ */
+public class TuneResponseParser {
+    private final String[] fields;
+    private final byte[] buffer = new byte[1024];
+    private final StringBuilder text = new StringBuilder();
+
+    private InputStream in;
+    private int position;
+    private int limit;
+    private long read;
+    private long maxSize;
+
+    /**
+     * @param fields names of the top level fields to read
+     */
+    public TuneResponseParser(String... fields) {
+        this.fields = fields.clone();
+    }
+
+    /**
+     * Reads the wanted fields of a JSON object.
+     * @param stream the response body
+     * @param maxSize most bytes to read before giving up on the response
+     * @return object holding whichever of the wanted fields the response has
+     * @throws IOException if the stream could not be read or the response is larger than the max size
+     * @throws JSONException if the response is not a JSON object
+     */
+    public JSONObject parse(InputStream stream, long maxSize) throws IOException, JSONException {
+        in = stream;
+        position = 0;
+        limit = 0;
+        read = 0;
+        this.maxSize = maxSize;
+
+        try {
+            JSONObject result = new JSONObject();
+            expect('{');
+            int c = nextClean();
+            if (c == '}') {
+                return result;
+            }
+
+            while (true) {
+                if (c != '"') {
+                    throw syntaxError("Expected a name");
+                }
+                readString();
+                String name = findField();
+                expect(':');
+
+                if (name != null) {
+                    result.put(name, readValue());
+                    if (result.length() == fields.length) {
+                        // Everything wanted has been read, leave the rest unparsed
+                        return result;
+                    }
+                } else {
+                    skipValue();
+                }
+
+                c = nextClean();
+                if (c == '}') {
+                    return result;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected , or }");
+                }
+                c = nextClean();
+            }
+        } finally {
+            in = null;
+            // Don't let one long string pin a large buffer
+            if (text.capacity() > buffer.length) {
+                text.setLength(0);
+                text.trimToSize();
+            }
+        }
+    }
+
+    /**
+     * @return the wanted field named by the text buffer, null if it is not wanted
+     */
+    private String findField() {
+        for (String field : fields) {
+            if (field.contentEquals(text)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private Object readValue() throws IOException, JSONException {
+        int c = nextClean();
+        if (c == '"') {
+            readString();
+            return text.toString();
+        }
+
+        text.setLength(0);
+        if (c == '{' || c == '[') {
+            // Nested values are rare in the fields we want, so copy them out and parse them whole
+            copyNested(c);
+            return new JSONTokener(text.toString()).nextValue();
+        }
+
+        // true, false, null or a number
+        while (c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+            text.append((char) c);
+            c = next();
+        }
+        back();
+        return new JSONTokener(text.toString()).nextValue();
+    }
+
+    private void skipValue() throws IOException, JSONException {
+        int c = nextClean();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c == -1) {
+                    throw syntaxError("Unterminated value");
+                } else if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            while (c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+                c = next();
+            }
+            back();
+        }
+    }
+
+    private void copyNested(int open) throws IOException, JSONException {
+        text.append((char) open);
+        int depth = 1;
+        while (depth > 0) {
+            int c = next();
+            if (c == -1) {
+                throw syntaxError("Unterminated value");
+            }
+            text.append((char) c);
+            if (c == '"') {
+                // Copy the string as it is, escapes and all
+                for (c = next(); c != '"'; c = next()) {
+                    if (c == -1) {
+                        throw syntaxError("Unterminated string");
+                    }
+                    text.append((char) c);
+                    if (c == '\\') {
+                        text.append((char) next());
+                    }
+                }
+                text.append('"');
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+        // Multi-byte characters were copied a byte at a time, decode them
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        text.setLength(0);
+        text.append(new String(bytes, "UTF-8"));
+    }
+
+    /**
+     * Reads the rest of a string after its opening quote into the text buffer, decoding escapes and UTF-8.
+     */
+    private void readString() throws IOException, JSONException {
+        text.setLength(0);
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return;
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '\\') {
+                readEscape();
+            } else if (c < 0x80) {
+                text.append((char) c);
+            } else {
+                readMultiByte(c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException, JSONException {
+        while (true) {
+            int c = next();
+            if (c == '"') {
+                return;
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private void readEscape() throws IOException, JSONException {
+        int c = next();
+        switch (c) {
+            case 'b':
+                text.append('\b');
+                break;
+            case 't':
+                text.append('\t');
+                break;
+            case 'n':
+                text.append('\n');
+                break;
+            case 'f':
+                text.append('\f');
+                break;
+            case 'r':
+                text.append('\r');
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                text.append((char) value);
+                break;
+            case '"':
+            case '\\':
+            case '/':
+                text.append((char) c);
+                break;
+            default:
+                throw syntaxError("Invalid escape");
+        }
+    }
+
+    private void readMultiByte(int first) throws IOException, JSONException {
+        int extra;
+        int codePoint;
+        if ((first & 0xe0) == 0xc0) {
+            extra = 1;
+            codePoint = first & 0x1f;
+        } else if ((first & 0xf0) == 0xe0) {
+            extra = 2;
+            codePoint = first & 0x0f;
+        } else if ((first & 0xf8) == 0xf0) {
+            extra = 3;
+            codePoint = first & 0x07;
+        } else {
+            throw syntaxError("Invalid UTF-8");
+        }
+        for (int i = 0; i < extra; i++) {
+            int c = next();
+            if ((c & 0xc0) != 0x80) {
+                throw syntaxError("Invalid UTF-8");
+            }
+            codePoint = (codePoint << 6) | (c & 0x3f);
+        }
+        text.appendCodePoint(codePoint);
+    }
+
+    private void expect(char expected) throws IOException, JSONException {
+        if (nextClean() != expected) {
+            throw syntaxError("Expected " + expected);
+        }
+    }
+
+    private int nextClean() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            if (read >= maxSize) {
+                if (in.read() == -1) {
+                    return -1;
+                }
+                throw new IOException("Response larger than " + maxSize + " bytes");
+            }
+            limit = in.read(buffer, 0, (int) Math.min(buffer.length, maxSize - read));
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+            read += limit;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private void back() {
+        if (position > 0) {
+            position--;
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at byte " + (read - limit + position));
+    }
+}
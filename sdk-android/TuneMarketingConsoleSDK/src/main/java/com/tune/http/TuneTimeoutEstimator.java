@@ -0,0 +1,115 @@
+package com.tune.http;
+
+import com.tune.TuneConstants;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks connect timeouts from the response times seen so far, the way TCP picks its retransmission timeout
+ * (RFC 6298): a smoothed round trip time plus four times its variation. Estimates are kept per host and
+ * connection type, so a slow mobile network doesn't stretch the timeouts used on wifi.
+ * A timed out request doubles the timeout for that host until a response comes back.
+ * Only connecting is cut short: once a request is sent the server may already have recorded it, so its
+ * response is waited for as long as {@link TuneConstants#TIMEOUT} rather than risk sending it twice.
+ */
+public class TuneTimeoutEstimator {
+    // Gains of the smoothed round trip time and its variation
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    // Multiple of the variation added to the smoothed round trip time
+    private static final int K = 4;
+
+    private final int initialTimeout;
+    private final int minTimeout;
+    private final int maxTimeout;
+    private final Map<String, Estimate> estimates = new HashMap<>();
+
+    private static class Estimate {
+        double srtt;
+        double rttvar;
+        int backoff;
+    }
+
+    public TuneTimeoutEstimator() {
+        this(TuneConstants.TIMEOUT_INITIAL, TuneConstants.TIMEOUT_MIN, TuneConstants.TIMEOUT);
+    }
+
+    /**
+     * @param initialTimeout timeout in milliseconds before any response time has been seen
+     * @param minTimeout lowest timeout in milliseconds
+     * @param maxTimeout highest timeout in milliseconds
+     */
+    public TuneTimeoutEstimator(int initialTimeout, int minTimeout, int maxTimeout) {
+        this.initialTimeout = initialTimeout;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * @param host host the request is sent to
+     * @param connectionType network the request is sent over, such as wifi or mobile, may be null
+     * @return connect timeout in milliseconds
+     */
+    public synchronized int getTimeout(String host, String connectionType) {
+        Estimate estimate = estimates.get(key(host, connectionType));
+        double timeout;
+        if (estimate == null) {
+            timeout = initialTimeout;
+        } else {
+            timeout = Math.max(estimate.srtt + K * estimate.rttvar, minTimeout);
+            // Shift at most 30 times, beyond that the max timeout has long been reached
+            timeout *= 1L << Math.min(estimate.backoff, 30);
+        }
+        return (int) Math.max(minTimeout, Math.min(timeout, maxTimeout));
+    }
+
+    /**
+     * Records how long a request took to get its response.
+     * @param host host the request was sent to
+     * @param connectionType network the request was sent over, may be null
+     * @param millis time from sending the request to reading the response headers
+     */
+    public synchronized void recordResponse(String host, String connectionType, long millis) {
+        String key = key(host, connectionType);
+        Estimate estimate = estimates.get(key);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimate.srtt = millis;
+            estimate.rttvar = millis / 2.0;
+            estimates.put(key, estimate);
+        } else {
+            estimate.rttvar = (1 - BETA) * estimate.rttvar + BETA * Math.abs(estimate.srtt - millis);
+            estimate.srtt = (1 - ALPHA) * estimate.srtt + ALPHA * millis;
+        }
+        estimate.backoff = 0;
+    }
+
+    /**
+     * Records that a request timed out, doubling the timeout for the host until a response is seen.
+     * @param host host the request was sent to
+     * @param connectionType network the request was sent over, may be null
+     */
+    public synchronized void recordTimeout(String host, String connectionType) {
+        String key = key(host, connectionType);
+        Estimate estimate = estimates.get(key);
+        if (estimate == null) {
+            // Nothing measured yet, start the estimate from the timeout that just expired
+            estimate = new Estimate();
+            estimate.srtt = initialTimeout;
+            estimates.put(key, estimate);
+        }
+        estimate.backoff++;
+    }
+
+    /**
+     * Forgets every estimate.
+     */
+    public synchronized void reset() {
+        estimates.clear();
+    }
+
+    private static String key(String host, String connectionType) {
+        return host + "|" + connectionType;
+    }
+}
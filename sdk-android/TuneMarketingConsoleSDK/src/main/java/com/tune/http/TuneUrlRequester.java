@@ -1,22 +1,158 @@
 package com.tune.http;
 
+import android.util.Base64;
+
 import com.tune.TuneConstants;
 import com.tune.TuneDebugLog;
 import com.tune.TuneDeeplinkListener;
 import com.tune.utils.TuneUtils;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+public class TuneUrlRequester implements BatchUrlRequester, AsyncUrlRequester {
+    // Key of the request array in a batch request body
+    public static final String BATCH_REQUESTS = "requests";
+    // Key of the response array in a batch response body
+    public static final String BATCH_RESPONSES = "responses";
+    // Key of the base64 encrypted data in a compressed request body
+    public static final String BODY_ENCRYPTED_DATA = "encrypted_data";
+    // Query parameter holding the hex encrypted data in an uncompressed request
+    private static final String DATA_PARAMETER = "data";
+
+    // Whether requests are sent as gzipped POST bodies, turned off if the server does not accept them
+    private volatile boolean compressRequests;
+    // Whether whole responses are parsed, rather than just the fields the SDK reads
+    private volatile boolean fullResponses = true;
+    // Parser for the fields of a response the SDK reads, one per requesting thread so its buffers are reused
+    private static final ThreadLocal<TuneResponseParser> responseParser = new ThreadLocal<TuneResponseParser>() {
+        @Override
+        protected TuneResponseParser initialValue() {
+            return new TuneResponseParser(TuneConstants.SERVER_RESPONSE_SUCCESS, TuneConstants.SERVER_RESPONSE_SITE_EVENT_TYPE,
+                    TuneConstants.SERVER_RESPONSE_LOG_ID, TuneConstants.KEY_INVOKE_URL);
+        }
+    };
+    // Threads asynchronous requests are sent on, created on first use
+    private ThreadPoolExecutor requestPool;
+    // Picks request timeouts from the response times seen per host and connection type
+    private volatile TuneTimeoutEstimator timeoutEstimator = new TuneTimeoutEstimator();
+    // Network requests are currently sent over, such as wifi or mobile
+    private volatile String connectionType;
+    // Refuses requests while the server is failing
+    private final TuneCircuitBreaker circuitBreaker = new TuneCircuitBreaker();
+    // Time until which the server asked for no more requests, through Retry-After or rate limit headers
+    private volatile long heldUntil;
+    // Factory TLS connections are opened with, null for the HttpsURLConnection default
+    private volatile SSLSocketFactory sslSocketFactory;
+    // Factory requests open TLS connections through, counting them, created on first use
+    private CountingSSLSocketFactory countingSocketFactory;
+    // Requests sent over HttpURLConnection, and the TLS connections opened for them
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+
+    /**
+     * Sets whether requests move their encrypted data from hex in the url to base64 in a gzipped POST body.
+     * If the server answers a compressed request with HTTP 415 the requester goes back to uncompressed requests.
+     * @param enabled whether to compress requests
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        compressRequests = enabled;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressRequests;
+    }
+
+    /**
+     * Sets whether {@link #requestUrl} returns the whole server response, or only the
+     * success, site_event_type, log_id and invoke_url fields the SDK reads. Whole responses are always
+     * returned in debug mode.
+     * @param enabled whether to parse whole responses
+     */
+    public void setFullResponsesEnabled(boolean enabled) {
+        fullResponses = enabled;
+    }
+
+    /**
+     * Sets the network requests are sent over, so timeouts are estimated separately for each network.
+     * @param connectionType connection type, such as wifi or mobile
+     */
+    public void setConnectionType(String connectionType) {
+        this.connectionType = connectionType;
+    }
+
+    public TuneTimeoutEstimator getTimeoutEstimator() {
+        return timeoutEstimator;
+    }
+
+    public void setTimeoutEstimator(TuneTimeoutEstimator timeoutEstimator) {
+        this.timeoutEstimator = timeoutEstimator;
+    }
+
+    /**
+     * Sets the factory TLS connections are opened with. A factory with a persistent session cache lets
+     * handshakes after the first, even in a later app launch, resume the earlier session in one round trip.
+     * @param factory socket factory, null for the HttpsURLConnection default
+     */
+    public synchronized void setSSLSocketFactory(SSLSocketFactory factory) {
+        sslSocketFactory = factory;
+        countingSocketFactory = null;
+    }
+
+    public SSLSocketFactory getSSLSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    /**
+     * @return number of requests sent over HttpURLConnection
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return number of TLS connections opened for requests, the rest of the https requests reused a kept-alive connection
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
 
-public class TuneUrlRequester implements UrlRequester {
+    /**
+     * @return the circuit breaker requests to the server go through
+     */
+    public TuneCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
 
     @Override
     public void requestDeeplink(String deeplinkURL, String conversionKey, TuneDeeplinkListener listener) {
@@ -24,41 +160,26 @@ public class TuneUrlRequester implements UrlRequester {
             return; // no one is listening!
         }
 
-        BufferedInputStream is = null;
+        TuneHttpResponse httpResponse = null;
         boolean foundError = false;
         String response;
 
         try {
-            URL myurl = new URL(deeplinkURL);
-            HttpsURLConnection conn = (HttpsURLConnection) myurl.openConnection();
+            Map<String, String> headers = new HashMap<>();
             // Set TUNE conversion key in request header
-            conn.setRequestProperty("X-MAT-Key", conversionKey);
-            conn.setRequestMethod("GET");
-            conn.setDoInput(true);
-
-            // This will throw an exception if there is no connection available.
-            conn.connect();
+            headers.put("X-MAT-Key", conversionKey);
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode == HttpsURLConnection.HTTP_OK) {
-                is = new BufferedInputStream(conn.getInputStream());
-            } else {
-                foundError = true;
-                is = new BufferedInputStream(conn.getErrorStream());
-            }
-
-            response = TuneUtils.readStream(is);
+            // Sent through execute() so the lookup shares the transport postbacks are sent over
+            httpResponse = execute("GET", deeplinkURL, headers, null, TuneConstants.TIMEOUT);
+            foundError = httpResponse.getStatus() != HttpURLConnection.HTTP_OK;
+            response = TuneUtils.readStream(httpResponse.getBody());
         } catch (Exception e) {
             foundError = true;
             response = e.getMessage();
             TuneDebugLog.d("requestDeeplink() exception", e);
         } finally {
-            try {
-                if (is != null) {
-                    is.close();
-                }
-            } catch (IOException e) {
-                TuneDebugLog.d("requestDeeplink() exception", e);
+            if (httpResponse != null) {
+                httpResponse.close();
             }
         }
 
@@ -77,6 +198,66 @@ public class TuneUrlRequester implements UrlRequester {
         }
     }
 
+    @Override
+    public Future<JSONObject> requestUrlAsync(final String url, final JSONObject json, final boolean debugMode, final Callback callback) {
+        return getRequestPool().submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() {
+                JSONObject response = new JSONObject(); // marks this request for retry if the request throws
+                try {
+                    response = requestUrl(url, json, debugMode);
+                } finally {
+                    if (callback != null) {
+                        try {
+                            callback.onResponse(response);
+                        } catch (Exception e) {
+                            TuneDebugLog.d("requestUrlAsync() callback exception", e);
+                        }
+                    }
+                }
+                return response;
+            }
+        });
+    }
+
+    @Override
+    public Future<?> requestDeeplinkAsync(final String deeplinkURL, final String conversionKey, final TuneDeeplinkListener listener) {
+        return getRequestPool().submit(new Runnable() {
+            @Override
+            public void run() {
+                requestDeeplink(deeplinkURL, conversionKey, listener);
+            }
+        });
+    }
+
+    /**
+     * Stops the threads asynchronous requests are sent on, abandoning requests that have not started.
+     * Later asynchronous requests start new threads.
+     */
+    public synchronized void shutdown() {
+        if (requestPool != null) {
+            requestPool.shutdownNow();
+            requestPool = null;
+        }
+    }
+
+    private synchronized ExecutorService getRequestPool() {
+        if (requestPool == null) {
+            // Requests beyond the thread count wait in the queue, and idle threads exit so a quiet requester holds none
+            requestPool = new ThreadPoolExecutor(TuneConstants.REQUEST_THREADS, TuneConstants.REQUEST_THREADS,
+                    TuneConstants.REQUEST_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "TuneUrlRequester");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            requestPool.allowCoreThreadTimeOut(true);
+        }
+        return requestPool;
+    }
+
     /**
      * Does an HTTP request to the given url, GET or POST based on whether json was passed or not
      * @param url the url to hit
@@ -85,47 +266,59 @@ public class TuneUrlRequester implements UrlRequester {
      */
     @Override
     public JSONObject requestUrl(String url, JSONObject json, boolean debugMode) {
-        BufferedInputStream is = null;
-        
+        TuneHttpResponse response = null;
+
         try {
-            URL myurl = new URL(url);
-            HttpsURLConnection conn = (HttpsURLConnection) myurl.openConnection();
-            conn.setReadTimeout(TuneConstants.TIMEOUT);
-            conn.setConnectTimeout(TuneConstants.TIMEOUT);
-            conn.setDoInput(true);
-            
-            // If no JSON passed, do HttpGet
-            if (json == null || json.length() == 0) {
-                conn.setRequestMethod("GET");
-            } else {
-                // Put JSON as entity for HttpPost
-                conn.setDoOutput(true);
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setRequestProperty("Accept", "application/json");
-                conn.setRequestMethod("POST");
-                
-                OutputStream os = conn.getOutputStream();
-                os.write(json.toString().getBytes("UTF-8"));
-                os.close();
-            }
-            
-            conn.connect();
-            int responseCode = conn.getResponseCode();
+            Map<String, String> headers = new HashMap<>();
+            String method = "GET";
+            String requestUrl = url;
+            TuneRequestBody body = null;
+
+            boolean compressed = compressRequests;
+            if (compressed) {
+                // POST the encrypted data and the entity together as gzipped JSON
+                int[] data = findHexData(url);
+                String encryptedData = null;
+                if (data != null) {
+                    encryptedData = hexToBase64(url.substring(data[1], data[2]));
+                    requestUrl = url.substring(0, data[0]) + url.substring(data[2]);
+                }
+                headers.put("Content-Type", "application/json");
+                headers.put("Content-Encoding", "gzip");
+                headers.put("Accept", "application/json");
+                method = "POST";
+                body = TuneRequestBody.gzippedJson(json != null ? json : new JSONObject(), BODY_ENCRYPTED_DATA, encryptedData);
+            } else if (json != null && json.length() > 0) {
+                // If JSON passed, POST it as the entity
+                headers.put("Content-Type", "application/json");
+                headers.put("Accept", "application/json");
+                method = "POST";
+                body = TuneRequestBody.json(json);
+            }
+
+            response = send(method, requestUrl, headers, body);
+            int responseCode = response.getStatus();
             TuneDebugLog.d("Request completed with status " + responseCode);
 
-            if (responseCode == HttpsURLConnection.HTTP_OK) {
-                is = new BufferedInputStream(conn.getInputStream());
-            } else {
-                is = new BufferedInputStream(conn.getErrorStream());
+            if (compressed && responseCode == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+                TuneDebugLog.d("Server does not accept compressed requests, sending uncompressed");
+                compressRequests = false;
+                response.close();
+                response = null;
+                return requestUrl(url, json, debugMode);
             }
-            
-            String responseAsString = TuneUtils.readStream(is);
 
-            // Log server response if debugMode is on
-            TuneDebugLog.d("Server response: " + responseAsString);
+            if (responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                if (!debugMode && !fullResponses) {
+                    // Only a few fields of the response are used, so pull those out without building the rest
+                    return responseParser.get().parse(response.getBody(), TuneConstants.MAX_RESPONSE_SIZE);
+                }
+
+                String responseAsString = response.readBody();
+
+                // Log server response if debugMode is on
+                TuneDebugLog.d("Server response: " + responseAsString);
 
-            String matResponderHeader = conn.getHeaderField("X-MAT-Responder");
-            if (responseCode >= HttpsURLConnection.HTTP_OK && responseCode < HttpsURLConnection.HTTP_MULT_CHOICE) {
                 // Try to parse response and print
                 JSONTokener tokener = new JSONTokener(responseAsString);
                 JSONObject responseJson = new JSONObject(tokener);
@@ -135,8 +328,12 @@ public class TuneUrlRequester implements UrlRequester {
 
                 return responseJson;
             }
+
+            TuneDebugLog.d("Server response: " + response.readBody());
+
+            String matResponderHeader = response.getHeader("X-MAT-Responder");
             // for HTTP 400, if it's from our server, drop the request and don't retry
-            else if (responseCode == HttpsURLConnection.HTTP_BAD_REQUEST && matResponderHeader != null) {
+            if (responseCode == HttpURLConnection.HTTP_BAD_REQUEST && matResponderHeader != null) {
                 TuneDebugLog.d("Request received 400 error from TUNE server, won't be retried");
                 return null; // don't retry
             }
@@ -144,18 +341,358 @@ public class TuneUrlRequester implements UrlRequester {
         } catch (Exception e) {
             TuneDebugLog.d("requestUrl() error with URL " + url, e);
         } finally {
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    TuneDebugLog.d("requestUrl() exception", e);
-                }
+            if (response != null) {
+                response.close();
             }
         }
-        
+
         return new JSONObject(); // marks this request for retry
     }
-    
+
+    /**
+     * Moves the hex encrypted data out of a request url into a body as base64, which is a third smaller.
+     * @param url the url to hit, with a data query parameter
+     * @param body request body to add the data to
+     * @return the url without the data parameter, unchanged if it has no hex data
+     * @throws JSONException if the data could not be added to the body
+     */
+    public static String moveDataToBody(String url, JSONObject body) throws JSONException {
+        int[] data = findHexData(url);
+        if (data == null) {
+            return url;
+        }
+        body.put(BODY_ENCRYPTED_DATA, hexToBase64(url.substring(data[1], data[2])));
+        return url.substring(0, data[0]) + url.substring(data[2]);
+    }
+
+    /**
+     * Finds the hex encrypted data parameter of a request url.
+     * @return the start of the parameter, the start of its value and the end of its value, null if the url has no hex data
+     */
+    private static int[] findHexData(String url) {
+        String key = "&" + DATA_PARAMETER + "=";
+        int start = url.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        int valueStart = start + key.length();
+        int end = url.indexOf('&', valueStart);
+        if (end < 0) {
+            end = url.length();
+        }
+
+        if (end == valueStart || (end - valueStart) % 2 != 0) {
+            return null;
+        }
+        for (int i = valueStart; i < end; i++) {
+            if (Character.digit(url.charAt(i), 16) < 0) {
+                // Data was not encrypted, leave it as it is
+                return null;
+            }
+        }
+        return new int[] { start, valueStart, end };
+    }
+
+    private static String hexToBase64(String hex) {
+        return Base64.encodeToString(TuneUtils.hexToBytes(hex), Base64.NO_WRAP);
+    }
+
+    /**
+     * Does a gzip-compressed HTTP POST of several queued requests to the batch endpoint.
+     * @param url the batch endpoint
+     * @param requests array of {"link": fullLink, "post_body": {...}, "index": n} objects
+     * @param debugMode whether to log the server response
+     * @return array of server responses, each with the "index" of its request, null if the batch should be retried
+     */
+    @Override
+    public JSONArray requestBatch(String url, JSONArray requests, boolean debugMode) {
+        TuneHttpResponse response = null;
+
+        try {
+            JSONObject body = new JSONObject();
+            body.put(BATCH_REQUESTS, requests);
+            TuneRequestBody compressed = TuneRequestBody.gzippedJson(body, null, null);
+
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Content-Type", "application/json");
+            headers.put("Content-Encoding", "gzip");
+            headers.put("Accept", "application/json");
+
+            response = send("POST", url, headers, compressed);
+            int responseCode = response.getStatus();
+            TuneDebugLog.d("Batch of " + requests.length() + " requests completed with status " + responseCode);
+
+            String responseAsString = response.readBody();
+            TuneDebugLog.d("Server response: " + responseAsString);
+
+            if (responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                JSONArray responses = new JSONObject(new JSONTokener(responseAsString)).getJSONArray(BATCH_RESPONSES);
+                if (responses.length() != requests.length()) {
+                    // Requests without a response are retried on their own
+                    TuneDebugLog.d("Batch response has " + responses.length() + " items for " + requests.length() + " requests");
+                }
+                if (debugMode) {
+                    for (int i = 0; i < responses.length(); i++) {
+                        JSONObject item = responses.optJSONObject(i);
+                        if (item != null) {
+                            logResponse(item);
+                        }
+                    }
+                }
+                return responses;
+            }
+            // for all other codes, assume the server/connection is broken and will be fixed later
+        } catch (Exception e) {
+            TuneDebugLog.d("requestBatch() error with URL " + url, e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+
+        return null; // marks the whole batch for retry
+    }
+
+    /**
+     * Sends one HTTP request with a connect timeout estimated from earlier response times, and records how long it took.
+     * @throws RetryLaterException if the server asked for a pause in requests, or the circuit breaker is open
+     */
+    private TuneHttpResponse send(String method, String url, Map<String, String> headers, TuneRequestBody body) throws IOException {
+        TuneTimeoutEstimator estimator = timeoutEstimator;
+        String host = new URL(url).getHost();
+        String network = connectionType;
+        int timeout = estimator.getTimeout(host, network);
+
+        long held = heldUntil - System.currentTimeMillis();
+        if (held > 0) {
+            throw new RetryLaterException("Server asked for no requests", held);
+        }
+        if (!circuitBreaker.allowRequest()) {
+            throw new RetryLaterException("Circuit breaker open", circuitBreaker.getRetryDelay());
+        }
+
+        long start = System.currentTimeMillis();
+        TuneHttpResponse response = null;
+        try {
+            response = execute(method, url, headers, body, timeout);
+        } catch (SocketTimeoutException e) {
+            TuneDebugLog.d("Request timed out, connect timeout was " + timeout + "ms");
+            estimator.recordTimeout(host, network);
+            throw e;
+        } finally {
+            // Server errors and requests that got no response count against the server
+            if (response != null && response.getStatus() < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+        }
+        long now = System.currentTimeMillis();
+        estimator.recordResponse(host, network, now - start);
+
+        long retryDelay = response.getRetryDelay(now);
+        if (retryDelay > 0) {
+            holdRequests(now, retryDelay);
+        }
+        return response;
+    }
+
+    /**
+     * Refuses requests until the time the server asked for, keeping a later time already asked for.
+     */
+    private synchronized void holdRequests(long now, long delay) {
+        delay = Math.min(delay, TuneConstants.MAX_SERVER_RETRY_DELAY);
+        TuneDebugLog.d("Server asked for no requests for " + delay + "ms");
+        heldUntil = Math.max(heldUntil, now + delay);
+    }
+
+    /**
+     * @return milliseconds until requests are sent again, after a pause the server asked for
+     * or while the circuit breaker is open, 0 if they are sent now
+     */
+    public long getRetryDelay() {
+        long held = heldUntil - System.currentTimeMillis();
+        return Math.max(Math.max(held, 0), circuitBreaker.getRetryDelay());
+    }
+
+    /**
+     * Thrown instead of sending a request while requests are being held back.
+     */
+    public static class RetryLaterException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RetryLaterException(String reason, long retryDelay) {
+            super(reason + ", retry in " + retryDelay + "ms");
+        }
+    }
+
+    /**
+     * Resolves the url's host and connects to it ahead of the first request, so the TLS session is cached
+     * and the first postback doesn't wait for the full handshake. Failures are only logged.
+     * @param url a url on the host requests will be sent to
+     */
+    public void prewarm(String url) {
+        try {
+            URL target = new URL(url);
+            long start = System.currentTimeMillis();
+            preconnect(target, timeoutEstimator.getTimeout(target.getHost(), connectionType));
+            TuneDebugLog.d("Connected to " + target.getHost() + " ahead of requests in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            TuneDebugLog.d("Could not connect ahead of requests to " + url, e);
+        }
+    }
+
+    /**
+     * Connects to the url's host ahead of the first request. This connects and closes a socket, which leaves
+     * the host address in the resolver's cache and the TLS session in the socket factory's session cache.
+     * @param url a url on the host to connect to
+     * @param timeout connect and handshake timeout in milliseconds
+     * @throws IOException if the connection could not be made
+     */
+    protected void preconnect(URL url, int timeout) throws IOException {
+        String host = url.getHost();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            socket.setSoTimeout(timeout);
+            if ("https".equalsIgnoreCase(url.getProtocol())) {
+                // Passing the host and port lets the factory cache the session for them
+                SSLSocketFactory factory = sslSocketFactory;
+                if (factory == null) {
+                    factory = HttpsURLConnection.getDefaultSSLSocketFactory();
+                }
+                SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+                sslSocket.startHandshake();
+                // Only a verified host's session is left cached
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+                    sslSocket.getSession().invalidate();
+                    throw new SSLException("Hostname " + host + " not verified");
+                }
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // connection has done its job
+            }
+        }
+    }
+
+    /**
+     * Sends one HTTP request and reads the response status and headers.
+     * Subclasses can override this to change the transport used for postbacks.
+     * @param method HTTP method
+     * @param url the url to hit
+     * @param headers request headers
+     * @param body request body, null for none, only valid until this returns
+     * @param timeout connect timeout in milliseconds, the response is read with the {@link TuneConstants#TIMEOUT} read timeout
+     * @return the response, whose body the caller must close
+     * @throws IOException if the request could not be sent or no response was read
+     */
+    protected TuneHttpResponse execute(String method, String url, Map<String, String> headers, TuneRequestBody body, int timeout) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        // Only connecting adapts, a request the server is slow to answer may already have been recorded
+        conn.setReadTimeout(TuneConstants.TIMEOUT);
+        conn.setConnectTimeout(timeout);
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(getCountingSocketFactory());
+        }
+        requestCount.incrementAndGet();
+        conn.setDoInput(true);
+        conn.setRequestMethod(method);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if (body != null) {
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(body.getLength());
+            OutputStream os = conn.getOutputStream();
+            body.writeTo(os);
+            os.close();
+        }
+
+        int responseCode = conn.getResponseCode();
+
+        Map<String, String> responseHeaders = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            List<String> values = header.getValue();
+            if (header.getKey() != null && values != null && !values.isEmpty()) {
+                responseHeaders.put(header.getKey().toLowerCase(Locale.US), values.get(values.size() - 1));
+            }
+        }
+
+        // Error responses are read from the error stream, which must also be drained and closed
+        // for HttpURLConnection to return the socket to its keep-alive pool
+        InputStream stream = responseCode < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream();
+        return new TuneHttpResponse(responseCode, responseHeaders, stream != null ? new BufferedInputStream(stream) : null);
+    }
+
+    /**
+     * @return the same counting factory for every request, as HttpURLConnection only reuses a connection
+     * for a request with an equal factory
+     */
+    private synchronized SSLSocketFactory getCountingSocketFactory() {
+        if (countingSocketFactory == null) {
+            SSLSocketFactory factory = sslSocketFactory;
+            countingSocketFactory = new CountingSSLSocketFactory(factory != null ? factory : HttpsURLConnection.getDefaultSSLSocketFactory());
+        }
+        return countingSocketFactory;
+    }
+
+    /**
+     * Counts the TLS connections HttpURLConnection opens, so requests that reused a kept-alive connection can be told apart.
+     */
+    private class CountingSSLSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        CountingSSLSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            connectionCount.incrementAndGet();
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
     // Helper to log request success/failure/errors
     private static void logResponse(JSONObject response) {
         if (response.length() > 0) {
@@ -0,0 +1,342 @@
+package com.tune.queue;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact, versioned binary format for queued records.
+ *
+ * Layout: [byte magic][byte version][byte flags][varint rawLength, if deflated][body], where the body is
+ * a varint bitmask of the fields present followed by each present field in {@link #FIELDS} order.
+ * Strings are stored as raw UTF-8 with a varint length, numbers as zigzag varints and booleans as one byte.
+ * Keys that are not one of the known fields are kept in a trailing JSON object so nothing is lost.
+ * With deflate enabled the body is compressed whenever that makes it smaller.
+ */
+public class BinaryQueueRecordCodec implements QueueRecordCodec {
+    // First byte of every binary record; never the first byte of a JSON record
+    static final byte MAGIC = (byte) 0xB1;
+    static final byte VERSION = 1;
+
+    private static final byte FLAG_DEFLATED = 1;
+
+    private static final int TYPE_STRING = 0;
+    private static final int TYPE_JSON = 1;
+    private static final int TYPE_BOOLEAN = 2;
+    private static final int TYPE_INT = 3;
+    private static final int TYPE_LONG = 4;
+
+    // Known record fields, in storage order. New fields may only be appended.
+    private static final String[] FIELDS = {
+        "link", "data", "post_body", "first_session",
+        "retry_attempt", "first_enqueue_time", "retry_timeout", "next_attempt", "last_error",
+        "priority",
+    };
+    private static final int[] TYPES = {
+        TYPE_STRING, TYPE_STRING, TYPE_JSON, TYPE_BOOLEAN,
+        TYPE_INT, TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_STRING,
+        TYPE_INT,
+    };
+    // Mask bit marking the trailing object of unknown keys
+    private static final int EXTRAS_BIT = 1 << FIELDS.length;
+
+    private static final String UTF8 = "UTF-8";
+
+    private final boolean deflate;
+
+    public BinaryQueueRecordCodec() {
+        this(true);
+    }
+
+    /**
+     * @param deflate whether to compress record bodies
+     */
+    public BinaryQueueRecordCodec(boolean deflate) {
+        this.deflate = deflate;
+    }
+
+    @Override
+    public byte[] encode(JSONObject record) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        int mask = 0;
+        Object[] values = new Object[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            Object value = record.opt(FIELDS[i]);
+            if (isType(value, TYPES[i])) {
+                values[i] = value;
+                mask |= 1 << i;
+            }
+        }
+
+        JSONObject extras = null;
+        Iterator<String> keys = record.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            int field = fieldIndex(key);
+            if (field < 0 || values[field] == null) {
+                try {
+                    if (extras == null) {
+                        extras = new JSONObject();
+                    }
+                    extras.put(key, record.opt(key));
+                } catch (JSONException e) {
+                    throw new IOException("Invalid queue record key " + key);
+                }
+            }
+        }
+        if (extras != null) {
+            mask |= EXTRAS_BIT;
+        }
+
+        writeVarint(body, mask);
+        for (int i = 0; i < FIELDS.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            switch (TYPES[i]) {
+                case TYPE_STRING:
+                    writeString(body, (String) value);
+                    break;
+                case TYPE_JSON:
+                    writeString(body, value.toString());
+                    break;
+                case TYPE_BOOLEAN:
+                    body.write((Boolean) value ? 1 : 0);
+                    break;
+                default:
+                    writeVarint(body, zigzag(((Number) value).longValue()));
+                    break;
+            }
+        }
+        if (extras != null) {
+            writeString(body, extras.toString());
+        }
+
+        byte[] raw = body.toByteArray();
+        byte flags = 0;
+        byte[] stored = raw;
+        if (deflate) {
+            byte[] compressed = deflate(raw);
+            if (compressed.length + varintSize(raw.length) < raw.length) {
+                stored = compressed;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length + 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(flags);
+        if ((flags & FLAG_DEFLATED) != 0) {
+            writeVarint(out, raw.length);
+        }
+        out.write(stored);
+        return out.toByteArray();
+    }
+
+    @Override
+    public JSONObject decode(byte[] bytes) throws IOException {
+        if (!canDecode(bytes) || bytes.length < 3) {
+            throw new IOException("Not a binary queue record");
+        }
+        if (bytes[1] > VERSION) {
+            throw new IOException("Unsupported queue record version " + bytes[1]);
+        }
+
+        Reader reader = new Reader(bytes, 3, bytes.length);
+        if ((bytes[2] & FLAG_DEFLATED) != 0) {
+            int rawLength = (int) reader.readVarint();
+            reader = new Reader(inflate(bytes, reader.position, bytes.length - reader.position, rawLength), 0, rawLength);
+        }
+
+        try {
+            JSONObject record;
+            long mask = reader.readVarint();
+            Object[] values = new Object[FIELDS.length];
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((mask & (1 << i)) == 0) {
+                    continue;
+                }
+                switch (TYPES[i]) {
+                    case TYPE_STRING:
+                        values[i] = reader.readString();
+                        break;
+                    case TYPE_JSON:
+                        values[i] = new JSONObject(reader.readString());
+                        break;
+                    case TYPE_BOOLEAN:
+                        values[i] = reader.readByte() != 0;
+                        break;
+                    case TYPE_INT:
+                        values[i] = (int) unzigzag(reader.readVarint());
+                        break;
+                    default:
+                        values[i] = unzigzag(reader.readVarint());
+                        break;
+                }
+            }
+
+            record = (mask & EXTRAS_BIT) != 0 ? new JSONObject(reader.readString()) : new JSONObject();
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (values[i] != null) {
+                    record.put(FIELDS[i], values[i]);
+                }
+            }
+            return record;
+        } catch (JSONException e) {
+            throw new IOException("Invalid binary queue record: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    private static boolean isType(Object value, int type) {
+        switch (type) {
+            case TYPE_STRING:
+                return value instanceof String;
+            case TYPE_JSON:
+                return value instanceof JSONObject;
+            case TYPE_BOOLEAN:
+                return value instanceof Boolean;
+            case TYPE_INT:
+                return value instanceof Integer;
+            default:
+                return value instanceof Integer || value instanceof Long;
+        }
+    }
+
+    private static int fieldIndex(String key) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buffer = new byte[512];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, int offset, int length, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, length);
+            byte[] raw = new byte[rawLength];
+            int count = 0;
+            while (count < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, count, rawLength - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += inflated;
+            }
+            if (count != rawLength) {
+                throw new IOException("Truncated binary queue record");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt binary queue record: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Sequential reader over an encoded record body.
+     */
+    private static class Reader {
+        private final byte[] buffer;
+        private final int limit;
+        private int position;
+
+        Reader(byte[] buffer, int position, int limit) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        byte readByte() throws IOException {
+            if (position >= limit) {
+                throw new IOException("Truncated binary queue record");
+            }
+            return buffer[position++];
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in binary queue record");
+        }
+
+        String readString() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Truncated binary queue record");
+            }
+            String value = new String(buffer, position, (int) length, UTF8);
+            position += (int) length;
+            return value;
+        }
+    }
+}
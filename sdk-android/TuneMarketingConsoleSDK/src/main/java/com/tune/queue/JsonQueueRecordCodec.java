@@ -0,0 +1,32 @@
+package com.tune.queue;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Stores queued records as UTF-8 JSON text, the format used by earlier SDK versions.
+ */
+public class JsonQueueRecordCodec implements QueueRecordCodec {
+    private static final String UTF8 = "UTF-8";
+
+    @Override
+    public byte[] encode(JSONObject record) throws IOException {
+        return record.toString().getBytes(UTF8);
+    }
+
+    @Override
+    public JSONObject decode(byte[] bytes) throws IOException {
+        try {
+            return new JSONObject(new String(bytes, UTF8));
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON queue record: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == '{';
+    }
+}
@@ -0,0 +1,36 @@
+package com.tune.queue;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Serializes queued event records to and from the bytes stored in the queue.
+ *
+ * A record is the JSON object built by the event queue ("link", "data", "post_body", "first_session"
+ * and its retry metadata). Codecs must be able to recognize their own output, so that records written by
+ * a different codec (or an earlier SDK version) can still be read back.
+ */
+public interface QueueRecordCodec {
+    /**
+     * Encodes a queued record.
+     * @param record the record to encode
+     * @return the stored bytes
+     * @throws IOException if the record cannot be encoded
+     */
+    byte[] encode(JSONObject record) throws IOException;
+
+    /**
+     * Decodes a queued record.
+     * @param bytes bytes written by {@link #encode(JSONObject)}
+     * @return the decoded record
+     * @throws IOException if the bytes are not a valid record
+     */
+    JSONObject decode(byte[] bytes) throws IOException;
+
+    /**
+     * @param bytes stored record
+     * @return true if the bytes look like a record written by this codec
+     */
+    boolean canDecode(byte[] bytes);
+}
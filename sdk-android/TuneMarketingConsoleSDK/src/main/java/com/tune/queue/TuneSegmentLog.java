@@ -0,0 +1,700 @@
+package com.tune.queue;
+
+import com.tune.TuneDebugLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only key/value log backed by memory-mapped segment files.
+ *
+ * Every mutation is appended to the tail segment as a length-prefixed, CRC-protected record, so
+ * adding or removing an entry costs a single bounded write regardless of how many entries are
+ * stored. When the oldest (head) segment no longer holds any live records it is deleted. The head
+ * and tail positions are tracked in a small, separately mapped checkpoint file. A long-lived entry
+ * would pin the head segment while newer ones pile up behind it, so {@link #compactStep(int)} moves
+ * the live entries of a mostly-dead head segment to the tail a few at a time.
+ *
+ * Record layout: [int payloadLength][int crc32(payload)][payload], where the payload is
+ * [byte op][int keyLength][key][int valueLength][value]. A zero length marks the end of a segment.
+ * A {@link Batch} is written as a single record whose payload is [byte OP_BATCH][int count] followed
+ * by that many put/remove payloads, so it is replayed either completely or not at all.
+ *
+ * Every write forces the tail segment and then the checkpoint to disk, so records survive power loss
+ * as well as the process being killed.
+ */
+public class TuneSegmentLog {
+    // Default size of a segment file. Records larger than this get a segment of their own.
+    static final int SEGMENT_SIZE = 64 * 1024;
+
+    // Segments newer than the head before a mostly-dead head is compacted
+    static final int COMPACTION_LAG = 2;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_BATCH = 3;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CHECKPOINT_MAGIC = 0x54554e45;
+    private static final int CHECKPOINT_SIZE = 32;
+
+    private static final String UTF8 = "UTF-8";
+
+    private final File directory;
+
+    // Current value and owning segment for each live key
+    private final Map<String, Entry> index = new HashMap<>();
+    // Number of live records per segment id
+    private final Map<Long, Integer> liveRecords = new HashMap<>();
+
+    private MappedByteBuffer checkpoint;
+    private MappedByteBuffer tail;
+    private long headSegment;
+    private long tailSegment;
+
+    // Whether the log was created on open (no checkpoint existed)
+    private boolean created;
+    // False if the log could not be opened, in which case entries are only kept in memory
+    private boolean persistent = true;
+
+    // Test hook called at each step of a write, where a crash would leave the files part-way through it
+    private CrashPoint crashPoint;
+
+    /**
+     * Hook for fault-injection tests, called at every point of a write where the process could be killed.
+     * Throwing from it abandons the write at that point.
+     */
+    interface CrashPoint {
+        void reached(String point);
+    }
+
+    /**
+     * A group of mutations written to the log atomically.
+     */
+    public static class Batch {
+        private final List<String> keys = new ArrayList<>();
+        // Value for each key, null to remove it
+        private final List<byte[]> values = new ArrayList<>();
+
+        public Batch put(String key, byte[] value) {
+            keys.add(key);
+            values.add(value);
+            return this;
+        }
+
+        public Batch putString(String key, String value) {
+            return put(key, value == null ? null : encode(value));
+        }
+
+        public Batch putInt(String key, int value) {
+            return putString(key, Integer.toString(value));
+        }
+
+        public Batch remove(String key) {
+            return put(key, null);
+        }
+
+        public boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+        public int size() {
+            return keys.size();
+        }
+    }
+
+    private static class Entry {
+        final byte[] value;
+        final long segment;
+
+        Entry(byte[] value, long segment) {
+            this.value = value;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * Opens (or creates) the log stored in the given directory, replaying all segments.
+     * If the log cannot be opened, the instance falls back to holding entries in memory only.
+     * @param directory directory holding the segment and checkpoint files
+     */
+    public TuneSegmentLog(File directory) {
+        this.directory = directory;
+        try {
+            open();
+        } catch (IOException e) {
+            TuneDebugLog.e("Failed to open queue log in " + directory + ", events will not be persisted", e);
+            persistent = false;
+            created = true;
+            index.clear();
+            liveRecords.clear();
+        }
+    }
+
+    /**
+     * @return true if no log existed in the directory before it was opened
+     */
+    public synchronized boolean wasCreated() {
+        return created;
+    }
+
+    /**
+     * @return true if mutations are written to disk
+     */
+    public synchronized boolean isPersistent() {
+        return persistent;
+    }
+
+    public synchronized boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized Set<String> keySet() {
+        return Collections.unmodifiableSet(new HashSet<>(index.keySet()));
+    }
+
+    /**
+     * Retrieves the raw value stored for a key.
+     * @param key key to look up
+     * @return the stored bytes, or null if the key does not exist
+     */
+    public synchronized byte[] get(String key) {
+        Entry entry = index.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Stores a raw value for a key, replacing any previous value.
+     * @param key key to store under
+     * @param value bytes to store
+     */
+    public synchronized void put(String key, byte[] value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        long segment = tailSegment;
+        if (persistent) {
+            try {
+                append(OP_PUT, key, value);
+                segment = tailSegment;
+            } catch (IOException e) {
+                TuneDebugLog.e("Failed writing queue log record for " + key, e);
+            }
+        }
+        Entry previous = index.put(key, new Entry(value, segment));
+        incrementLive(segment);
+        if (previous != null) {
+            decrementLive(previous.segment);
+            advanceHead();
+        }
+    }
+
+    /**
+     * Removes a key from the log.
+     * @param key key to remove
+     */
+    public synchronized void remove(String key) {
+        Entry previous = index.remove(key);
+        if (previous == null) {
+            return;
+        }
+        if (persistent) {
+            try {
+                append(OP_REMOVE, key, null);
+            } catch (IOException e) {
+                TuneDebugLog.e("Failed writing queue log removal for " + key, e);
+            }
+        }
+        decrementLive(previous.segment);
+        advanceHead();
+    }
+
+    /**
+     * Applies a batch of mutations. The batch is written as a single record, so after a crash the log
+     * reopens with either all of its mutations or none of them.
+     * @param batch mutations to apply, in order
+     */
+    public synchronized void commit(Batch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long segment = tailSegment;
+        if (persistent) {
+            try {
+                appendBatch(batch);
+                segment = tailSegment;
+            } catch (IOException e) {
+                TuneDebugLog.e("Failed writing queue log batch", e);
+            }
+        }
+        applyBatch(segment, batch);
+        advanceHead();
+    }
+
+    /**
+     * @return true if the head segment is mostly dead and pinned behind newer segments, so compacting it
+     * would free a segment
+     */
+    public synchronized boolean needsCompaction() {
+        if (!persistent || tailSegment - headSegment < COMPACTION_LAG) {
+            return false;
+        }
+        long liveBytes = 0;
+        for (Entry entry : index.values()) {
+            if (entry.segment == headSegment) {
+                liveBytes += entry.value.length;
+            }
+        }
+        return liveBytes * 2 < SEGMENT_SIZE;
+    }
+
+    /**
+     * Performs one bounded step of compaction, moving up to {@code maxEntries} live entries out of the
+     * head segment in a single batch. The head is deleted once it holds no live entries.
+     * @param maxEntries most entries to move in this step
+     * @return true if more compaction is needed
+     */
+    public synchronized boolean compactStep(int maxEntries) {
+        if (!needsCompaction()) {
+            return false;
+        }
+        Batch batch = new Batch();
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+            if (batch.size() >= maxEntries) {
+                break;
+            }
+            if (entry.getValue().segment == headSegment) {
+                batch.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+        commit(batch);
+        return needsCompaction();
+    }
+
+    /**
+     * @return number of segment files the log currently spans
+     */
+    public synchronized int segmentCount() {
+        return (int) (tailSegment - headSegment + 1);
+    }
+
+    /**
+     * Removes every entry, deleting all segments but a fresh, empty tail.
+     */
+    public synchronized void clear() {
+        index.clear();
+        liveRecords.clear();
+        if (!persistent) {
+            return;
+        }
+        try {
+            long oldHead = headSegment;
+            long oldTail = tailSegment;
+            roll(0);
+            headSegment = tailSegment;
+            writeCheckpoint();
+            for (long id = oldHead; id <= oldTail; id++) {
+                crashPoint("release");
+                deleteSegment(id);
+            }
+        } catch (IOException e) {
+            TuneDebugLog.e("Failed clearing queue log", e);
+        }
+    }
+
+    /* ===================================================================================== */
+    /* SharedPreferences-style accessors                                                     */
+    /* ===================================================================================== */
+
+    public synchronized String getString(String key, String defaultValue) {
+        byte[] value = get(key);
+        return value == null ? defaultValue : decode(value);
+    }
+
+    public synchronized void putString(String key, String value) {
+        put(key, value == null ? null : encode(value));
+    }
+
+    public synchronized int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                TuneDebugLog.w("Queue log value for " + key + " is not an int: " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    public synchronized void putInt(String key, int value) {
+        putString(key, Integer.toString(value));
+    }
+
+    /* ===================================================================================== */
+    /* Storage                                                                               */
+    /* ===================================================================================== */
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        File checkpointFile = new File(directory, CHECKPOINT_FILE);
+        created = !checkpointFile.exists();
+        checkpoint = map(checkpointFile, CHECKPOINT_SIZE);
+
+        List<Long> segments = listSegments();
+        long checkpointTailOffset = -1;
+        if (readCheckpoint()) {
+            checkpointTailOffset = checkpoint.getInt(20);
+        } else {
+            headSegment = segments.isEmpty() ? 0 : segments.get(0);
+        }
+
+        // Segments below the head were released but not yet deleted when the process died
+        List<Long> live = new ArrayList<>();
+        for (Long id : segments) {
+            if (id < headSegment) {
+                deleteSegment(id);
+            } else {
+                live.add(id);
+            }
+        }
+
+        if (live.isEmpty()) {
+            tailSegment = headSegment;
+            tail = map(segmentFile(tailSegment), SEGMENT_SIZE);
+            liveRecords.put(tailSegment, 0);
+        } else {
+            for (Long id : live) {
+                File file = segmentFile(id);
+                MappedByteBuffer buffer = map(file, (int) file.length());
+                liveRecords.put(id, 0);
+                replay(id, buffer);
+                tailSegment = id;
+                tail = buffer;
+            }
+            if (checkpointTailOffset > tail.position()) {
+                TuneDebugLog.w("Queue log tail was truncated from " + checkpointTailOffset + " to " + tail.position());
+            }
+            // Zero anything past the last valid record so a torn write can't shadow new records
+            for (int i = tail.position(); i < tail.limit(); i++) {
+                tail.put(i, (byte) 0);
+            }
+        }
+
+        advanceHead();
+        writeCheckpoint();
+    }
+
+    private void replay(long segment, MappedByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length <= 0 || length > buffer.remaining() - RECORD_HEADER_SIZE) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.position(start + RECORD_HEADER_SIZE);
+            buffer.get(payload);
+
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+                TuneDebugLog.w("Queue log record at " + segment + ":" + start + " failed CRC check");
+                buffer.position(start);
+                break;
+            }
+
+            try {
+                apply(segment, payload);
+            } catch (BufferUnderflowException e) {
+                TuneDebugLog.w("Queue log record at " + segment + ":" + start + " is malformed");
+            }
+        }
+    }
+
+    private void apply(long segment, byte[] payload) {
+        // Parse the whole record before applying any of it, so a malformed batch changes nothing
+        ByteBuffer record = ByteBuffer.wrap(payload);
+        Batch batch = new Batch();
+        if (payload.length > 0 && payload[0] == OP_BATCH) {
+            record.get();
+            int count = record.getInt();
+            for (int i = 0; i < count; i++) {
+                readMutation(record, batch);
+            }
+        } else {
+            readMutation(record, batch);
+        }
+        applyBatch(segment, batch);
+    }
+
+    private static void readMutation(ByteBuffer record, Batch batch) {
+        byte op = record.get();
+        String key = decode(readBytes(record));
+        // Removals carry an empty value
+        byte[] value = readBytes(record);
+        batch.put(key, op == OP_PUT ? value : null);
+    }
+
+    private static byte[] readBytes(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0 || length > record.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return bytes;
+    }
+
+    // Updates the index with mutations stored in the given segment
+    private void applyBatch(long segment, Batch batch) {
+        for (int i = 0; i < batch.keys.size(); i++) {
+            Entry previous;
+            byte[] value = batch.values.get(i);
+            if (value != null) {
+                previous = index.put(batch.keys.get(i), new Entry(value, segment));
+                incrementLive(segment);
+            } else {
+                previous = index.remove(batch.keys.get(i));
+            }
+            if (previous != null) {
+                decrementLive(previous.segment);
+            }
+        }
+    }
+
+    private void append(byte op, String key, byte[] value) throws IOException {
+        byte[] keyBytes = encode(key);
+        int valueLength = value == null ? 0 : value.length;
+        byte[] payload = new byte[1 + 4 + keyBytes.length + 4 + valueLength];
+        writeMutation(ByteBuffer.wrap(payload), op, keyBytes, value);
+        appendRecord(payload);
+    }
+
+    private void appendBatch(Batch batch) throws IOException {
+        int count = batch.keys.size();
+        byte[][] keyBytes = new byte[count][];
+        int payloadLength = 1 + 4;
+        for (int i = 0; i < count; i++) {
+            keyBytes[i] = encode(batch.keys.get(i));
+            byte[] value = batch.values.get(i);
+            payloadLength += 1 + 4 + keyBytes[i].length + 4 + (value == null ? 0 : value.length);
+        }
+
+        byte[] payload = new byte[payloadLength];
+        ByteBuffer record = ByteBuffer.wrap(payload);
+        record.put(OP_BATCH).putInt(count);
+        for (int i = 0; i < count; i++) {
+            byte[] value = batch.values.get(i);
+            writeMutation(record, value == null ? OP_REMOVE : OP_PUT, keyBytes[i], value);
+        }
+        appendRecord(payload);
+    }
+
+    private static void writeMutation(ByteBuffer record, byte op, byte[] keyBytes, byte[] value) {
+        record.put(op).putInt(keyBytes.length).put(keyBytes).putInt(value == null ? 0 : value.length);
+        if (value != null) {
+            record.put(value);
+        }
+    }
+
+    private void appendRecord(byte[] payload) throws IOException {
+        int payloadLength = payload.length;
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payloadLength);
+
+        if (tail.remaining() < RECORD_HEADER_SIZE + payloadLength) {
+            roll(RECORD_HEADER_SIZE + payloadLength);
+        }
+
+        // The length is written last, so a torn write leaves a zero length that ends replay cleanly
+        int start = tail.position();
+        tail.position(start + RECORD_HEADER_SIZE);
+        tail.put(payload);
+        crashPoint("payload");
+        tail.putInt(start + 4, (int) crc.getValue());
+        crashPoint("crc");
+        tail.putInt(start, payloadLength);
+        crashPoint("length");
+        writeCheckpoint();
+    }
+
+    // Starts a new tail segment large enough to hold a record of the given size
+    private void roll(int minimumSize) throws IOException {
+        long next = tailSegment + 1;
+        deleteSegment(next);
+        tail = map(segmentFile(next), Math.max(SEGMENT_SIZE, minimumSize));
+        crashPoint("roll");
+        tailSegment = next;
+        liveRecords.put(next, 0);
+        writeCheckpoint();
+    }
+
+    // Deletes head segments that no longer hold live records
+    private void advanceHead() {
+        if (!persistent) {
+            return;
+        }
+        long oldHead = headSegment;
+        while (headSegment < tailSegment && getLive(headSegment) == 0) {
+            liveRecords.remove(headSegment);
+            headSegment++;
+        }
+        if (oldHead != headSegment) {
+            writeCheckpoint();
+            for (long id = oldHead; id < headSegment; id++) {
+                crashPoint("release");
+                deleteSegment(id);
+            }
+        }
+    }
+
+    private boolean readCheckpoint() {
+        if (checkpoint.getInt(0) != CHECKPOINT_MAGIC) {
+            return false;
+        }
+        byte[] data = new byte[24];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = checkpoint.get(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if ((int) crc.getValue() != checkpoint.getInt(24)) {
+            TuneDebugLog.w("Queue log checkpoint is corrupt, rebuilding from segments");
+            return false;
+        }
+        headSegment = checkpoint.getLong(4);
+        tailSegment = checkpoint.getLong(12);
+        return true;
+    }
+
+    private void writeCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        // Records reach the disk before the checkpoint that covers them, so a power loss can't leave it pointing past them
+        if (tail != null) {
+            tail.force();
+        }
+        checkpoint.putInt(0, CHECKPOINT_MAGIC);
+        checkpoint.putLong(4, headSegment);
+        crashPoint("checkpoint");
+        checkpoint.putLong(12, tailSegment);
+        checkpoint.putInt(20, tail == null ? 0 : tail.position());
+
+        byte[] data = new byte[24];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = checkpoint.get(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        checkpoint.putInt(24, (int) crc.getValue());
+        checkpoint.force();
+    }
+
+    void setCrashPoint(CrashPoint crashPoint) {
+        this.crashPoint = crashPoint;
+    }
+
+    private void crashPoint(String point) {
+        if (crashPoint != null) {
+            crashPoint.reached(point);
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> ids = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        TuneDebugLog.w("Ignoring unknown queue log file " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    private void deleteSegment(long id) {
+        File file = segmentFile(id);
+        if (file.exists() && !file.delete()) {
+            TuneDebugLog.w("Failed to delete queue log segment " + file);
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int getLive(long segment) {
+        Integer count = liveRecords.get(segment);
+        return count == null ? 0 : count;
+    }
+
+    private void incrementLive(long segment) {
+        liveRecords.put(segment, getLive(segment) + 1);
+    }
+
+    private void decrementLive(long segment) {
+        liveRecords.put(segment, Math.max(0, getLive(segment) - 1));
+    }
+
+    private static byte[] encode(String value) {
+        try {
+            return value.getBytes(UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(byte[] value) {
+        try {
+            return new String(value, UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.tune.utils;
+
+/**
+ * Builds a url query string into a reusable char buffer, percent-encoding values the same way
+ * {@link java.net.URLEncoder} does with UTF-8 but without allocating per value.
+ * An encoder is not thread safe, keep one per thread and {@link #reset()} it before each query.
+ */
+public class TuneQueryEncoder {
+    private static final int INITIAL_SIZE = 1024;
+    // A buffer grown past this by an unusually long query is dropped rather than kept for reuse
+    private static final int MAX_RETAINED_SIZE = 16 * 1024;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    // ASCII characters URLEncoder leaves as they are
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
+    private char[] buffer = new char[INITIAL_SIZE];
+    private int length;
+
+    /**
+     * Empties the encoder for a new query.
+     * @return this encoder
+     */
+    public TuneQueryEncoder reset() {
+        if (buffer.length > MAX_RETAINED_SIZE) {
+            buffer = new char[INITIAL_SIZE];
+        }
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Appends text that is already encoded, as it is.
+     * @param text text to append, "null" is appended for null the same as StringBuilder would
+     * @return this encoder
+     */
+    public TuneQueryEncoder append(String text) {
+        if (text == null) {
+            text = "null";
+        }
+        int count = text.length();
+        ensureCapacity(length + count);
+        text.getChars(0, count, buffer, length);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Appends a character as it is.
+     * @param c character to append
+     * @return this encoder
+     */
+    public TuneQueryEncoder append(char c) {
+        ensureCapacity(length + 1);
+        buffer[length++] = c;
+        return this;
+    }
+
+    /**
+     * Appends "&amp;key=value", with the value encoded. Nothing is appended for a null or empty value.
+     * @param key parameter name, appended as it is
+     * @param value parameter value
+     * @return this encoder
+     */
+    public TuneQueryEncoder appendParameter(String key, String value) {
+        if (value != null && value.length() != 0) {
+            append('&').append(key).append('=').appendEncoded(value);
+        }
+        return this;
+    }
+
+    /**
+     * Appends a value as application/x-www-form-urlencoded UTF-8.
+     * @param value value to encode
+     * @return this encoder
+     */
+    public TuneQueryEncoder appendEncoded(String value) {
+        int count = value.length();
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80 && UNRESERVED[c]) {
+                ensureCapacity(length + 1);
+                buffer[length++] = c;
+            } else if (c == ' ') {
+                ensureCapacity(length + 1);
+                buffer[length++] = '+';
+            } else if (c < 0x80) {
+                appendByte(c);
+            } else if (c < 0x800) {
+                appendByte(0xc0 | (c >> 6));
+                appendByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(0xf0 | (codePoint >> 18));
+                appendByte(0x80 | ((codePoint >> 12) & 0x3f));
+                appendByte(0x80 | ((codePoint >> 6) & 0x3f));
+                appendByte(0x80 | (codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogate, which UTF-8 encodes as '?'
+                appendByte('?');
+            } else {
+                appendByte(0xe0 | (c >> 12));
+                appendByte(0x80 | ((c >> 6) & 0x3f));
+                appendByte(0x80 | (c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return number of chars in the query
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the query built so far
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    private void appendByte(int b) {
+        ensureCapacity(length + 3);
+        buffer[length++] = '%';
+        buffer[length++] = HEX[(b >> 4) & 0xf];
+        buffer[length++] = HEX[b & 0xf];
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > buffer.length) {
+            char[] grown = new char[Math.max(needed, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -42,6 +42,27 @@ public class TuneSharedPrefsDelegate {
         prefs.edit().putInt(prefsKey, prefsValue).apply();
     }
 
+    /**
+     * Saves several values to SharedPreferences in one edit, so the file is written once for all of them.
+     * @param values Strings, Booleans or Integers to save by SharedPreferences key, null to remove the key
+     */
+    public synchronized void saveAll(Map<String, ?> values) {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                editor.remove(entry.getKey());
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else {
+                editor.putString(entry.getKey(), value.toString());
+            }
+        }
+        editor.apply();
+    }
+
     /**
      * Retrieves a String from SharedPreferences.
      * @param prefsKey SharedPreferences key of the value requested
@@ -0,0 +1,154 @@
+package com.tune.utils;
+
+import com.tune.TuneDebugLog;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind front for {@link TuneSharedPrefsDelegate}. Values saved within a short window of each other are
+ * kept in memory and written together in one edit, rather than each rewriting the preferences file.
+ * Reads see values that are not written yet. Call {@link #flush()} when the app goes to the background.
+ */
+public class TuneSharedPrefsWriter {
+    // Long enough to gather the values set together at startup or login, short enough to lose little on a crash
+    public static final long DEFAULT_WINDOW_MS = 200;
+    // How long the timer thread waits for another write before exiting
+    private static final long THREAD_KEEP_ALIVE_MS = 10 * 1000;
+
+    private final TuneSharedPrefsDelegate prefs;
+    private final ScheduledThreadPoolExecutor executor;
+    private final long windowMs;
+
+    // Values waiting to be written by key, null for a key to remove
+    private Map<String, Object> pending = new HashMap<>();
+    private boolean flushScheduled;
+    private boolean shutdown;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public TuneSharedPrefsWriter(TuneSharedPrefsDelegate prefs) {
+        this(prefs, DEFAULT_WINDOW_MS);
+    }
+
+    public TuneSharedPrefsWriter(TuneSharedPrefsDelegate prefs, long windowMs) {
+        this.prefs = prefs;
+        this.windowMs = windowMs;
+        // The timer thread only runs while a write is waiting, and never keeps the process alive
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TuneSharedPrefsWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setKeepAliveTime(THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Saves a String, written with the other values saved in the same window.
+     * @param key SharedPreferences key to save under
+     * @param value value to save, null to remove the key
+     */
+    public void putString(String key, String value) {
+        put(key, value);
+    }
+
+    /**
+     * Saves a Boolean, written with the other values saved in the same window.
+     * @param key SharedPreferences key to save under
+     * @param value value to save
+     */
+    public void putBoolean(String key, boolean value) {
+        put(key, value);
+    }
+
+    /**
+     * Removes a key, written with the other values saved in the same window.
+     * @param key SharedPreferences key to remove
+     */
+    public void remove(String key) {
+        put(key, null);
+    }
+
+    /**
+     * @param key SharedPreferences key of the value requested
+     * @param defaultValue value to return if the key does not exist
+     * @return value last saved for the key, written or not, or the default value
+     */
+    public String getString(String key, String defaultValue) {
+        synchronized (this) {
+            if (pending.containsKey(key)) {
+                Object value = pending.get(key);
+                return value instanceof String ? (String) value : defaultValue;
+            }
+        }
+        return prefs.getStringFromSharedPreferences(key, defaultValue);
+    }
+
+    /**
+     * @param key SharedPreferences key of the value requested
+     * @param defaultValue value to return if the key does not exist
+     * @return value last saved for the key, written or not, or the default value
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        synchronized (this) {
+            if (pending.containsKey(key)) {
+                Object value = pending.get(key);
+                return value instanceof Boolean ? (Boolean) value : defaultValue;
+            }
+        }
+        return prefs.getBooleanFromSharedPreferences(key, defaultValue);
+    }
+
+    /**
+     * Writes the values waiting to be written now, in one edit.
+     */
+    public synchronized void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Written under the lock so a read never falls between the pending values and the preferences
+        Map<String, Object> values = pending;
+        pending = new HashMap<>();
+        prefs.saveAll(values);
+    }
+
+    /**
+     * Writes the values waiting to be written and stops the timer. Values saved afterwards are written straight away.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            flush();
+        }
+        executor.shutdownNow();
+    }
+
+    private synchronized void put(String key, Object value) {
+        pending.put(key, value);
+        if (shutdown) {
+            flush();
+        } else if (!flushScheduled) {
+            try {
+                executor.schedule(flushTask, windowMs, TimeUnit.MILLISECONDS);
+                flushScheduled = true;
+            } catch (RejectedExecutionException e) {
+                TuneDebugLog.d("Preferences write could not be scheduled, writing now");
+                flush();
+            }
+        }
+    }
+}
@@ -126,7 +126,7 @@ public class TuneUtils {
     public static byte[] compress(String string) throws IOException {
         ByteArrayOutputStream os = new ByteArrayOutputStream(string.length());
         GZIPOutputStream gos = new GZIPOutputStream(os);
-        gos.write(string.getBytes());
+        gos.write(string.getBytes("UTF-8"));
         gos.close();
         byte[] compressed = os.toByteArray();
         os.close();